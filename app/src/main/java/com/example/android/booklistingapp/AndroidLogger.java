@@ -0,0 +1,24 @@
+package com.example.android.booklistingapp;
+
+import android.util.Log;
+
+import com.example.android.booklistingapp.core.Logger;
+
+// Gives the messages of the search core to android.util.Log.
+final class AndroidLogger implements Logger {
+
+    static final AndroidLogger INSTANCE = new AndroidLogger();
+
+    private AndroidLogger() {
+    }
+
+    @Override
+    public void info(String tag, String message) {
+        Log.i(tag, message);
+    }
+
+    @Override
+    public void error(String tag, String message, Throwable error) {
+        Log.e(tag, message, error);
+    }
+}
@@ -3,8 +3,43 @@ package com.example.android.booklistingapp;
 import android.os.Parcel;
 import android.os.Parcelable;
 
+import com.example.android.booklistingapp.core.BookFactory;
+import com.example.android.booklistingapp.core.FanOutMerger;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * A book returned by Google Books. The title, description and cover URL are kept as UTF-8 bytes,
+ * which take half the memory of a String for most text, and are only decoded when they are read.
+ * Authors repeat across books, so their strings are interned and shared.
+ */
 public class Book implements Parcelable {
 
+    // Encoding of the text kept as bytes
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Creates the books parsed by the search core
+    static final BookFactory<Book> FACTORY = new BookFactory<Book>() {
+        @Override
+        public Book create(String id, String title, String authors, String description,
+                           String thumbnail) {
+            return new Book(id, title, authors, description, thumbnail);
+        }
+    };
+
+    // Recognizes the same book found by several requests of a fanned out search
+    static final FanOutMerger.IdOf<Book> ID_OF = new FanOutMerger.IdOf<Book>() {
+        @Override
+        public String idOf(Book book) {
+            return book.getId();
+        }
+    };
+
     public static final Parcelable.Creator<Book> CREATOR = new Parcelable.Creator<Book>() {
 
         // This simply calls our new constructor (typically private) and
@@ -19,37 +54,118 @@ public class Book implements Parcelable {
             return new Book[size];
         }
     };
-    // Book title
-    private String bookTitle;
-    // Book author
-    private String bookAuthor;
-    // Book description
-    private String bookDescription;
+    // Google Books volume id
+    private final String bookId;
+    // Book title, in UTF-8
+    private final byte[] bookTitle;
+    // Book author, interned
+    private final String bookAuthor;
+    // Book description, in UTF-8
+    private final byte[] bookDescription;
+    // URL of the small cover thumbnail in UTF-8, empty when the book has no cover
+    private final byte[] bookThumbnail;
 
     private Book(Parcel in) {
-        bookTitle = in.readString();
-        bookAuthor = in.readString();
-        bookDescription = in.readString();
+        bookId = in.readString();
+        bookTitle = in.createByteArray();
+        bookAuthor = intern(in.readString());
+        bookDescription = in.createByteArray();
+        bookThumbnail = in.createByteArray();
     }
 
     /**
      * Constructs a new Book object.
      *
+     * @param id          is the Google Books volume id of the book
+     * @param title       is the title of the book
+     * @param authors     is the author of the book
+     * @param description is the description of the book
+     */
+    public Book(String id, String title, String authors, String description) {
+        this(id, title, authors, description, "");
+    }
+
+    /**
+     * Constructs a new Book object with a cover thumbnail.
+     *
+     * @param id          is the Google Books volume id of the book
      * @param title       is the title of the book
      * @param authors     is the author of the book
      * @param description is the description of the book
+     * @param thumbnail   is the URL of the small cover thumbnail, or an empty string
      */
-    public Book(String title, String authors, String description) {
+    public Book(String id, String title, String authors, String description, String thumbnail) {
+        bookId = id;
+        bookTitle = encode(title);
+        bookAuthor = intern(authors);
+        bookDescription = encode(description);
+        bookThumbnail = encode(thumbnail);
+    }
+
+    private Book(String id, byte[] title, String authors, byte[] description, byte[] thumbnail) {
+        bookId = id;
         bookTitle = title;
-        bookAuthor = authors;
+        bookAuthor = intern(authors);
         bookDescription = description;
+        bookThumbnail = thumbnail;
+    }
+
+    /**
+     * Writes the book in the binary format read by {@link #readFrom(ByteBuffer)}: every field is
+     * its length in bytes, or -1 for null, followed by its UTF-8 bytes. The encoded text of the
+     * book is written as it is, without decoding it.
+     */
+    void writeTo(DataOutput out) throws IOException {
+        writeBytes(out, encode(bookId));
+        writeBytes(out, bookTitle);
+        writeBytes(out, encode(bookAuthor));
+        writeBytes(out, bookDescription);
+        writeBytes(out, bookThumbnail);
+    }
+
+    /**
+     * Reads a book written by {@link #writeTo(DataOutput)}, such as from a memory-mapped file.
+     *
+     * @throws BufferUnderflowException if the buffer ends in the middle of the book
+     */
+    static Book readFrom(ByteBuffer in) {
+        String id = decode(readBytes(in));
+        byte[] title = readBytes(in);
+        String authors = decode(readBytes(in));
+        byte[] description = readBytes(in);
+        byte[] thumbnail = readBytes(in);
+        return new Book(id, title, authors, description, thumbnail);
+    }
+
+    private static void writeBytes(DataOutput out, byte[] value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(value.length);
+        out.write(value);
+    }
+
+    private static byte[] readBytes(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] value = new byte[length];
+        in.get(value);
+        return value;
     }
 
     @Override
     public void writeToParcel(Parcel out, int flags) {
-        out.writeString(bookTitle);
+        out.writeString(bookId);
+        out.writeByteArray(bookTitle);
         out.writeString(bookAuthor);
-        out.writeString(bookDescription);
+        out.writeByteArray(bookDescription);
+        out.writeByteArray(bookThumbnail);
     }
 
     @Override
@@ -57,9 +173,52 @@ public class Book implements Parcelable {
         return 0;
     }
 
+    // Returns the estimated number of bytes of memory used by the book: one byte per byte of its
+    // encoded text, two bytes per character of its id, plus the headers of the book, its strings
+    // and its arrays. The authors are shared with other books, so they are not counted.
+    public int estimateSizeBytes() {
+        return 16 + 24 + 2 * length(bookId) + 3 * 16 + length(bookTitle) + length(bookDescription)
+                + length(bookThumbnail);
+    }
+
+    // Returns true if the given book has the same title, author, description and cover.
+    boolean hasSameContents(Book other) {
+        return Arrays.equals(bookTitle, other.bookTitle)
+                && (bookAuthor == null ? other.bookAuthor == null : bookAuthor.equals(other.bookAuthor))
+                && Arrays.equals(bookDescription, other.bookDescription)
+                && Arrays.equals(bookThumbnail, other.bookThumbnail);
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+
+    private static int length(byte[] value) {
+        return value == null ? 0 : value.length;
+    }
+
+    private static byte[] encode(String value) {
+        return value == null ? null : value.getBytes(UTF_8);
+    }
+
+    // Decodes the text every time it is read rather than keeping the String, which would
+    // double the memory of every book once its row has been shown.
+    private static String decode(byte[] value) {
+        return value == null ? null : new String(value, UTF_8);
+    }
+
+    private static String intern(String value) {
+        return value == null ? null : value.intern();
+    }
+
+    // Returns the Google Books volume id of the book.
+    public String getId() {
+        return bookId;
+    }
+
     // Returns the title of the book.
     public String getTitle() {
-        return bookTitle;
+        return decode(bookTitle);
     }
 
     // Returns the author of the book.
@@ -69,7 +228,12 @@ public class Book implements Parcelable {
 
     // Returns the description of the book.
     public String getDescription() {
-        return bookDescription;
+        return decode(bookDescription);
+    }
+
+    // Returns the URL of the small cover thumbnail of the book, or an empty string.
+    public String getThumbnail() {
+        return decode(bookThumbnail);
     }
 
 }
\ No newline at end of file
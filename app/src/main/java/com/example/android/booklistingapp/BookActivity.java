@@ -1,34 +1,80 @@
 package com.example.android.booklistingapp;
 
-import android.net.ConnectivityManager;
-import android.net.NetworkInfo;
-import android.os.AsyncTask;
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.res.Resources;
 import android.os.Bundle;
+import android.os.Handler;
+import android.support.v4.app.FragmentManager;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.text.Editable;
+import android.text.TextUtils;
+import android.text.TextWatcher;
 import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
-import android.widget.ListView;
+import android.widget.EditText;
 import android.widget.SearchView;
 import android.widget.TextView;
 
-import java.util.ArrayList;
+import com.example.android.booklistingapp.core.TransportPolicy;
 
-import static com.example.android.booklistingapp.R.id.search;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
-public class BookActivity extends AppCompatActivity {
+public class BookActivity extends AppCompatActivity implements SearchFragment.Listener {
 
     // This is the tag for LOG message
     public static final String LOG_TAG = BookActivity.class.getName();
-    // Key used for Saved Instance State of the app
-    private static final String BOOK = "book";
-    // This is the Google API URL
-    private static final String BASE_URL = "https://www.googleapis.com/books/v1/volumes?&maxResults=10&q=";
-    // Initialization of the bookList variable
-    ArrayList<Book> bookList = new ArrayList<>();
+    // Name of the directory, inside the cache directory of the app, holding the cached responses
+    private static final String RESPONSE_CACHE_DIR = "books-http";
+    // Name of the directory, inside the cache directory of the app, holding the downloaded covers
+    private static final String IMAGE_CACHE_DIR = "covers";
+    // Name of the file, inside the cache directory of the app, the request metrics are dumped to
+    private static final String REQUEST_METRICS_FILE = "request-metrics.txt";
+    // The search state, retained across configuration changes. Its book list holds every book
+    // of the current query, even when the adapter only shows the ones matching the filter.
+    private SearchFragment search;
+    // The words the books of the list are filtered with, or null when the list is not filtered
+    private String filter;
+    // Incremented for every new filter or list, so outdated filtered books are never shown
+    private int filterGeneration;
+    // Load the next page when the last visible row is this close to the end of the list
+    private int prefetchDistance;
+    // Number of rows past the visible ones whose covers are loaded ahead of time
+    private int imagePrefetchRows;
+    // Time without a keystroke before the typed query is searched, in milliseconds
+    private int searchDebounceMillis;
+    // Typed queries shorter than this are never searched
+    private int minQueryLength;
+    // Handler delaying the search of the typed query until the user stops typing
+    private final Handler searchHandler = new Handler();
+    // The typed query waiting for its debounce delay, or null
+    private String pendingQuery;
+    // Searches the pending query once the user stopped typing
+    private final Runnable searchPendingQuery = new Runnable() {
+        @Override
+        public void run() {
+            String query = pendingQuery;
+            pendingQuery = null;
+            if (query != null) {
+                startSearch(query);
+            }
+        }
+    };
     // Adapter for the list of books
     private BookAdapter bookAdapter;
+    // RecyclerView showing the list of books
+    private RecyclerView bookListView;
     //SearchView
     private SearchView searchBook;
+    // EditText filtering the books of the list
+    private EditText filterBox;
     // TextView visible when there is a problem with the internet connection and the list is empty
     private TextView emptyStateTextView;
     // Progress bar visible when the internet connection is delayed or slow
@@ -39,18 +85,60 @@ public class BookActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_book);
 
-        // Find a reference to the ListView in the layout
-        ListView bookListView = (ListView) findViewById(R.id.list);
+        // Read the paging configuration
+        prefetchDistance = getResources().getInteger(R.integer.prefetch_distance);
+
+        // Read the search as you type configuration
+        searchDebounceMillis = getResources().getInteger(R.integer.search_debounce_ms);
+        minQueryLength = getResources().getInteger(R.integer.search_min_query_length);
+
+        // Configure the connections to Google Books and install the caches they fill
+        installNetworkAndCaches(this);
+
+        // Measure where the time of every request goes
+        if (getResources().getBoolean(R.bool.collect_request_metrics)) {
+            RequestMetrics.install();
+        }
+        if (getResources().getBoolean(R.bool.trace_requests)) {
+            RequestMetrics.setTracer(RequestMetrics.systemTracer());
+        }
+
+        // Refresh the pinned and most searched queries in the background, so they are answered
+        // from the device the next time they are searched
+        CacheWarmer.schedule(this);
+
+        // Index the words of the books as they arrive, so the list can be filtered without
+        // searching Google Books again
+        BookIndex.install(getResources().getInteger(R.integer.filter_index_max_books),
+                getResources().getInteger(R.integer.filter_index_max_description_words));
+
+        // Load the pages of books on dedicated networking threads
+        BookLoader.install(getResources().getInteger(R.integer.loader_parallelism),
+                getResources().getInteger(R.integer.loader_queue_capacity),
+                getResources().getInteger(R.integer.loader_timeout_ms));
+
+        // Load the covers on their own threads, keeping at most an eighth of the memory
+        // available to the app for the decoded ones
+        imagePrefetchRows = getResources().getInteger(R.integer.image_prefetch_rows);
+        int memoryClassBytes = ((ActivityManager) getSystemService(ACTIVITY_SERVICE)).getMemoryClass() * 1024 * 1024;
+        ImageLoader.install(new File(getCacheDir(), IMAGE_CACHE_DIR),
+                Math.min(getResources().getInteger(R.integer.image_memory_cache_kb) * 1024, memoryClassBytes / 8),
+                getResources().getInteger(R.integer.image_disk_cache_size_kb) * 1024L,
+                getResources().getInteger(R.integer.image_loader_parallelism),
+                2 * imagePrefetchRows);
+
+        // Find a reference to the RecyclerView in the layout
+        bookListView = (RecyclerView) findViewById(R.id.list);
 
         // Find a reference to the EditText in the layout
-        searchBook = (SearchView) findViewById(search);
+        searchBook = (SearchView) findViewById(R.id.search);
+
+        // Find a reference to the filter EditText
+        filterBox = (EditText) findViewById(R.id.filter);
 
         // Find a reference to the empty state TextView
         emptyStateTextView = (TextView) findViewById(R.id.empty_view);
 
-        // Set empty state TextView on the ListView with books when no data can be found
-        bookListView.setEmptyView(emptyStateTextView);
-
         // Find a reference to the progress bar
         loadingIndicator = findViewById(R.id.loading_indicator);
 
@@ -60,140 +148,364 @@ public class BookActivity extends AppCompatActivity {
         // Create a new adapter that takes an empty list of books as input
         bookAdapter = new BookAdapter(this, new ArrayList<Book>());
 
-        // Set the adapter on the ListView so the list can be populated in the user interface
+        // Set the adapter on the RecyclerView so the list can be populated in the user interface.
+        // The list fills its parent whatever its rows are, so adding or changing rows never
+        // measures the RecyclerView itself again.
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        bookListView.setLayoutManager(layoutManager);
+        bookListView.setHasFixedSize(true);
         bookListView.setAdapter(bookAdapter);
 
-        // Set a click listener to the ImageButton Search which sends query to the URL based on the user input
-        searchBook.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+        // Show the empty state TextView instead of the list when no data can be found
+        bookAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
             @Override
-            public boolean onQueryTextChange(String newText) {
-                return false;
+            public void onChanged() {
+                updateEmptyView();
             }
 
             @Override
-            public boolean onQueryTextSubmit(String query) {
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
 
-                // Clear the adapter
-                bookAdapter.clear();
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+        });
+        updateEmptyView();
 
-                // If there is a network connection, fetch data
-                if (checkInternetConnection()) {
+        // Load the next page in the background when the user scrolls near the end of the list,
+        // and the covers and descriptions of the rows about to scroll into view
+        bookListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                int totalItemCount = layoutManager.getItemCount();
+                int lastVisible = layoutManager.findLastVisibleItemPosition();
+                // A filtered list is usually short, and would keep asking for more pages
+                if (filter == null && totalItemCount > 0
+                        && lastVisible >= totalItemCount - 1 - prefetchDistance) {
+                    search.loadNextPage();
+                }
 
-                    // Show the circle indicator
-                    loadingIndicator.setVisibility(View.VISIBLE);
+                // During a fling the rows ahead go by too fast for their covers to be useful
+                if (recyclerView.getScrollState() == RecyclerView.SCROLL_STATE_SETTLING) {
+                    return;
+                }
+                if (dy > 0) {
+                    bookAdapter.prefetchRows(lastVisible + 1, lastVisible + imagePrefetchRows);
+                } else if (dy < 0) {
+                    int firstVisible = layoutManager.findFirstVisibleItemPosition();
+                    bookAdapter.prefetchRows(firstVisible - imagePrefetchRows, firstVisible - 1);
+                }
+            }
+        });
 
-                    // This is called when there is an internet connection.
-                    // Start the AsyncTask to fetch the books data
-                    new BookAsyncTask().execute(BASE_URL + query);
+        // Set a listener to the SearchView which sends query to the URL based on the user input.
+        // Typed queries are searched once the user stops typing; submitted ones right away.
+        searchBook.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                searchHandler.removeCallbacks(searchPendingQuery);
+                pendingQuery = null;
 
-                } else {
-                    Log.e(LOG_TAG, "No internet connection");
-                    // Otherwise, display error
-                    // First, hide loading indicator so error will be visible
-                    loadingIndicator.setVisibility(View.GONE);
-                    // Show the empty state with no connection error message
-                    emptyStateTextView.setVisibility(View.VISIBLE);
-                    // Update empty state with no connection error message
-                    emptyStateTextView.setText(R.string.no_internet_connection);
+                // Short queries match too many books to be worth a request
+                if (newText.trim().length() < minQueryLength || isCurrentQuery(newText)) {
+                    return false;
                 }
+                pendingQuery = newText;
+                searchHandler.postDelayed(searchPendingQuery, searchDebounceMillis);
+                return false;
+            }
 
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                searchHandler.removeCallbacks(searchPendingQuery);
+                pendingQuery = null;
+                startSearch(query);
+
+                // Count only the submitted queries: the debounced ones are often half typed
+                QueryHistory queryHistory = QueryHistory.getInstalled();
+                if (queryHistory != null) {
+                    queryHistory.recordSearch(query);
+                }
                 return false;
             }
 
         });
 
-        // create the book list
-        if (savedInstanceState != null) {
+        // Filter the books of the list on every keystroke. Filtering takes no request, so it
+        // is not debounced; a filter typed over an older one replaces its results.
+        filterBox.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                setFilter(s.toString());
+            }
+        });
+
+
+        // Find the search state of the previous Activity, or start a new one. It is added right
+        // away, so its books can be shown below.
+        FragmentManager fragmentManager = getSupportFragmentManager();
+        search = (SearchFragment) fragmentManager.findFragmentByTag(SearchFragment.TAG);
+        if (search == null) {
+            search = new SearchFragment();
+            fragmentManager.beginTransaction().add(search, SearchFragment.TAG).commitNow();
+        }
+
+        // Show the books loaded before a configuration change. The pages still in flight are
+        // delivered to this Activity when they arrive.
+        onBooksReplaced(search.getBooks());
+        onLoadingChanged(search.isLoading());
+        if (search.getEmptyStateText() != 0) {
+            emptyStateTextView.setText(search.getEmptyStateText());
+        }
+
+        // On a cold start, the books come from the last result set: show its query and scroll
+        // to where it was left. The query is the current one, so it is not searched again.
+        if (savedInstanceState == null && search.getQuery() != null) {
+            searchBook.setQuery(search.getQuery(), false);
+        }
+        search.restoreScrollPosition(layoutManager);
+    }
 
-            bookListView = (ListView) findViewById(R.id.list);
-            bookList = savedInstanceState.getParcelableArrayList(BOOK);
-            bookAdapter = new BookAdapter(this, new ArrayList<Book>());
-            bookListView.setAdapter(bookAdapter);
-            bookAdapter.addAll(bookList);
+    /**
+     * Configures the connections to Google Books and installs the caches of the books and the
+     * history of the queries. Also called by the {@link CacheWarmer}, which may run while no
+     * Activity was ever created. Installing them again keeps the ones already installed.
+     */
+    static void installNetworkAndCaches(Context context) {
+        Resources resources = context.getResources();
+
+        // Configure the connections to Google Books
+        Utils.configureHttp(resources.getInteger(R.integer.http_connect_timeout_ms),
+                resources.getInteger(R.integer.http_read_timeout_ms),
+                resources.getInteger(R.integer.http_max_idle_connections));
+        Utils.setLogPayloadSavings(resources.getBoolean(R.bool.log_payload_savings));
+
+        // Retry, hedge, break off and rate limit the requests to Google Books
+        Utils.configureTransport(new TransportPolicy()
+                .setMaxAttempts(resources.getInteger(R.integer.retry_max_attempts))
+                .setBackoff(resources.getInteger(R.integer.retry_base_backoff_ms),
+                        resources.getInteger(R.integer.retry_max_backoff_ms))
+                .setHedging(resources.getInteger(R.integer.hedge_percentile),
+                        resources.getInteger(R.integer.hedge_min_delay_ms))
+                .setCircuitBreaker(resources.getInteger(R.integer.circuit_breaker_failures),
+                        resources.getInteger(R.integer.circuit_breaker_open_ms))
+                .setRateLimit(resources.getInteger(R.integer.rate_limit_per_second),
+                        resources.getInteger(R.integer.rate_limit_burst)));
+
+        // Keep the Google Books responses on disk, so repeated searches skip the network
+        BookResponseCache.install(new File(context.getCacheDir(), RESPONSE_CACHE_DIR),
+                resources.getInteger(R.integer.response_cache_size_kb) * 1024L,
+                resources.getInteger(R.integer.response_cache_freshness_seconds) * 1000L);
+
+        // Keep the parsed books in memory, so resubmitting a query does not parse it again
+        QueryResultCache.install(resources.getInteger(R.integer.result_cache_size_kb) * 1024,
+                resources.getInteger(R.integer.result_cache_ttl_seconds) * 1000L);
+
+        // Keep every downloaded book on the device, so queries can be answered offline
+        BookStore.install(context, resources.getInteger(R.integer.offline_store_max_books));
+
+        // Count the searches of every query, so the most searched ones can be kept fresh
+        QueryHistory.install(context, resources.getInteger(R.integer.query_history_size));
+    }
 
+    @Override
+    protected void onStop() {
+        super.onStop();
+        saveSnapshot();
+        RequestMetrics requestMetrics = RequestMetrics.getInstalled();
+        if (requestMetrics != null && getResources().getBoolean(R.bool.dump_request_metrics)) {
+            requestMetrics.dumpToLog();
+            try {
+                requestMetrics.dumpToFile(new File(getCacheDir(), REQUEST_METRICS_FILE));
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Problem writing the request metrics:", e);
+            }
         }
     }
 
     @Override
-    protected void onSaveInstanceState(Bundle outState) {
-        outState.putParcelableArrayList(BOOK, bookList);
-        super.onSaveInstanceState(outState);
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.book, menu);
+        return true;
     }
 
-    // Check the internet connection
-    private boolean checkInternetConnection() {
-        // Get a reference to the ConnectivityManager to check the state of network connectivity
-        ConnectivityManager connectivityManager = (ConnectivityManager)
-                getSystemService(CONNECTIVITY_SERVICE);
+    // The current query can only be pinned once there is one.
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        MenuItem pinItem = menu.findItem(R.id.pin_query);
+        QueryHistory queryHistory = QueryHistory.getInstalled();
+        String query = search.getQuery();
+        boolean pinnable = queryHistory != null && query != null && !query.trim().isEmpty();
+        pinItem.setVisible(pinnable);
+        pinItem.setChecked(pinnable && queryHistory.isPinned(query));
+        return super.onPrepareOptionsMenu(menu);
+    }
 
-        // Get details on the currently active default network
-        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
-        if (networkInfo != null && networkInfo.isConnected()) {
+    // Pin the current query, so the CacheWarmer keeps its books fresh, or unpin it.
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        QueryHistory queryHistory = QueryHistory.getInstalled();
+        if (item.getItemId() == R.id.pin_query && queryHistory != null && search.getQuery() != null) {
+            boolean pinned = !item.isChecked();
+            queryHistory.setPinned(search.getQuery(), pinned);
+            item.setChecked(pinned);
             return true;
-        } else {
-            // Show the empty state with no connection error message
-            emptyStateTextView.setVisibility(View.VISIBLE);
-            // Update empty state with no connection error message
-            emptyStateTextView.setText(R.string.no_internet_connection);
-            return false;
-        }
-    }
-
-    // {@link AsyncTask} to perform the network request on a background thread, and then
-    // update the UI with the list of books in the response.
-    //
-    // We'll only override two of the methods of AsyncTask: doInBackground() and onPostExecute().
-    // The doInBackground() method runs on a background thread, so it can run long-running code
-    // (like network activity), without interfering with the responsiveness of the app.
-    // Then onPostExecute() is passed the result of doInBackground() method, but runs on the
-    // UI thread, so it can use the produced data to update the UI.
-    //
-    private class BookAsyncTask extends AsyncTask<String, Void, ArrayList<Book>> {
-
-        // This method runs on the UI thread before doInBackground().
-        // It shows the progress bar when the internet connection is delayed or slow.
-        @Override
-        protected void onPreExecute() {
-            loadingIndicator.setVisibility(View.VISIBLE);
         }
+        return super.onOptionsItemSelected(item);
+    }
 
-        // This method runs on a background thread and performs the network request.
-        // We should not update the UI from a background thread, so we return a list of
-        // Books as the result.
-        @Override
-        protected ArrayList<Book> doInBackground(String... urls) {
+    // Save the books of the list and the first visible one, so the next cold start shows them
+    // where they were left. A filtered list saves the position of the first visible book among
+    // all the books.
+    private void saveSnapshot() {
+        LinearLayoutManager layoutManager = (LinearLayoutManager) bookListView.getLayoutManager();
+        int position = layoutManager.findFirstVisibleItemPosition();
+        View firstVisible = layoutManager.findViewByPosition(position);
+        int scrollPosition = 0;
+        int scrollOffset = 0;
+        if (position != RecyclerView.NO_POSITION && firstVisible != null) {
+            scrollPosition = Math.max(0, search.getBooks().indexOf(bookAdapter.getItem(position)));
+            scrollOffset = bookListView.getPaddingTop() - firstVisible.getTop();
+        }
+        search.saveSnapshot(scrollPosition, scrollOffset);
+    }
 
-            // Don't perform the request if there are no URLs, or the first URL is null.
-            if (urls.length < 1 || urls[0] == null) {
-                return null;
-            }
-            ArrayList<Book> result = Utils.fetchBooksData(urls[0]);
+    @Override
+    protected void onDestroy() {
+        // The loads of the search are only cancelled when the Activity is finishing, by its
+        // retained Fragment
+        searchHandler.removeCallbacks(searchPendingQuery);
+        super.onDestroy();
+    }
 
-            return result;
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        QueryResultCache resultCache = QueryResultCache.getInstalled();
+        if (resultCache != null) {
+            resultCache.onTrimMemory(level);
         }
+        ImageLoader imageLoader = ImageLoader.getInstalled();
+        if (imageLoader != null) {
+            imageLoader.onTrimMemory(level);
+        }
+    }
 
-        // This method runs on the main UI thread after the background work has been
-        // completed. This method receives as input, the return value from the doInBackground()
-        // method. First we clear out the adapter, to get rid of books data from a previous
-        // query to Google Books API. Then we update the adapter with the new list of books,
-        // which will trigger the ListView to re-populate its list items.
-        @Override
-        protected void onPostExecute(ArrayList<Book> books) {
-
-            // First, hide loading indicator so error will be visible
-            loadingIndicator.setVisibility(View.GONE);
-
-            // If there is a valid list of Books, then add them to the adapter's
-            // data set. This will trigger the ListView to update.
-            if (books != null && !books.isEmpty()) {
-                bookList = books;
-                bookAdapter.addAll(books);
-            } else {
-                // Show the empty state with no connection error message
-                emptyStateTextView.setVisibility(View.VISIBLE);
-                // Update empty state with no books found error message
-                emptyStateTextView.setText(R.string.no_books_found);
+    // Show the list when it has books, otherwise the empty state TextView in its place.
+    private void updateEmptyView() {
+        boolean empty = bookAdapter.getItemCount() == 0;
+        bookListView.setVisibility(empty ? View.GONE : View.VISIBLE);
+        emptyStateTextView.setVisibility(empty ? View.VISIBLE : View.GONE);
+    }
+
+
+    // Filter the books of the list with the given words, or show all of them again when there
+    // are none.
+    private void setFilter(String text) {
+        String newFilter = text.trim().isEmpty() ? null : text.trim();
+        if (TextUtils.equals(newFilter, filter)) {
+            return;
+        }
+        filter = newFilter;
+        applyFilter();
+    }
+
+    // Show the books of the list matching the filter, best matches first, or every book of the
+    // list when it is not filtered. The books are matched on the thread of the {@link BookIndex}.
+    private void applyFilter() {
+        final int generation = ++filterGeneration;
+        BookIndex bookIndex = BookIndex.getInstalled();
+        if (filter == null || bookIndex == null) {
+            bookAdapter.replaceBooks(search.getBooks());
+            return;
+        }
+        bookIndex.filter(filter, search.getBooks(), new BookIndex.Callback() {
+            @Override
+            public void onBooksFiltered(ArrayList<Book> books) {
+                // The filter or the list changed in the meantime
+                if (generation != filterGeneration) {
+                    return;
+                }
+                bookAdapter.replaceBooks(books);
+                if (books.isEmpty() && !search.getBooks().isEmpty()) {
+                    emptyStateTextView.setText(R.string.no_books_match_filter);
+                }
             }
+        });
+    }
+
+    // The books of the list were replaced: show them unless the list is filtered, and index
+    // them.
+    @Override
+    public void onBooksReplaced(List<Book> books) {
+        if (filter == null) {
+            bookAdapter.replaceBooks(books);
+        }
+        indexBooks(books);
+    }
+
+    // Books were appended to the list: append them to the adapter unless the list is filtered,
+    // so only their rows are bound, and index them.
+    @Override
+    public void onBooksAppended(List<Book> books) {
+        if (filter == null) {
+            bookAdapter.appendBooks(books);
+        }
+        indexBooks(books);
+    }
+
+    @Override
+    public void onLoadingChanged(boolean loading) {
+        loadingIndicator.setVisibility(loading ? View.VISIBLE : View.GONE);
+    }
+
+    @Override
+    public void onEmptyStateChanged(int textId) {
+        emptyStateTextView.setText(textId);
+    }
+
+    // Index the given books, then filter the list again when it is filtered, so the books that
+    // just arrived are matched too.
+    private void indexBooks(List<Book> books) {
+        BookIndex bookIndex = BookIndex.getInstalled();
+        if (bookIndex != null) {
+            bookIndex.addAll(books);
+        }
+        if (filter != null) {
+            applyFilter();
         }
     }
-}
\ No newline at end of file
+
+    // Returns true if the given query searches the same books as the current query.
+    private boolean isCurrentQuery(String query) {
+        String currentQuery = search.getQuery();
+        return currentQuery != null
+                && QueryResultCache.normalizeQuery(query).equals(QueryResultCache.normalizeQuery(currentQuery));
+    }
+
+    // Start searching the given query, replacing the books of the previous query.
+    private void startSearch(String query) {
+
+        // Clear the filter and the adapter. The requests of the previous query are cancelled,
+        // so their books can never reach the adapter.
+        filter = null;
+        filterGeneration++;
+        filterBox.setText("");
+        bookAdapter.clear();
+        search.startSearch(query);
+
+        // Show whether the new query is pinned
+        invalidateOptionsMenu();
+    }
+}
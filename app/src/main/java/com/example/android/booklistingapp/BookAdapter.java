@@ -1,21 +1,70 @@
 package com.example.android.booklistingapp;
 
 import android.content.Context;
+import android.content.res.TypedArray;
+import android.graphics.Paint;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextPaint;
+import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
+import android.widget.ImageView;
 import android.widget.TextView;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * A BookAdapter knows how to create a list item layout for each book
  * in the data source (a list of Book objects).
- * These list item layouts will be provided to an adapter view like ListView
- * to be displayed to the user.
+ * These list item layouts will be provided to a RecyclerView to be displayed to the user.
+ * Every change of the list is diffed against the previous list on a background thread,
+ * so only the rows that actually changed are bound again.
  */
-public class BookAdapter extends ArrayAdapter<Book> {
+public class BookAdapter extends RecyclerView.Adapter<BookAdapter.BookViewHolder> {
+
+    // Single background thread computing the differences between two lists of books
+    private static final ExecutorService DIFF_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    // Used to inflate the list item layouts
+    private final LayoutInflater inflater;
+    // Size of the cover views, in pixels, so the covers are decoded no larger than shown
+    private final int coverWidth;
+    private final int coverHeight;
+    // Lays out the descriptions of the rows in the background
+    private final DescriptionLayouts descriptionLayouts;
+    // Volume ids of the books whose whole description is shown
+    private final HashSet<String> expandedIds = new HashSet<>();
+    // Books without a volume id whose whole description is shown
+    private final Set<Book> expandedAnonymousBooks = Collections.newSetFromMap(new IdentityHashMap<Book, Boolean>());
+    // Handler of the main thread, where the computed differences are applied
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Volume ids of the books already in the adapter, so repeated books across pages are skipped
+    private final HashSet<String> bookIds = new HashSet<>();
+    // Stable item ids given to the volume ids, so a book keeps its row across updates
+    private final HashMap<String, Long> itemIds = new HashMap<>();
+    // Stable item ids given to the books without a volume id
+    private final IdentityHashMap<Book, Long> anonymousItemIds = new IdentityHashMap<>();
+    // The books shown by the RecyclerView
+    private List<Book> books = Collections.emptyList();
+    // The newest list of books, which becomes the shown list once its differences are applied
+    private List<Book> pendingBooks = Collections.emptyList();
+    // Incremented for every new list, so an outdated diff is never applied
+    private int generation;
+    // Next stable item id to give to a book
+    private long nextItemId;
 
     /**
      * Constructs a new BookAdapter
@@ -24,46 +73,327 @@ public class BookAdapter extends ArrayAdapter<Book> {
      * @param books   is the list of books, which is the data source of the adapter
      */
     public BookAdapter(Context context, ArrayList<Book> books) {
-        super(context, 0, books);
+        inflater = LayoutInflater.from(context);
+        coverWidth = context.getResources().getDimensionPixelSize(R.dimen.cover_width);
+        coverHeight = context.getResources().getDimensionPixelSize(R.dimen.cover_height);
+        descriptionLayouts = new DescriptionLayouts(newDescriptionPaint(context),
+                context.getResources().getInteger(R.integer.description_preview_lines),
+                context.getResources().getInteger(R.integer.description_layout_cache_size));
+        setHasStableIds(true);
+        appendBooks(books);
+    }
+
+    // Returns the paint of the descriptions, with the size and color of their style.
+    private static TextPaint newDescriptionPaint(Context context) {
+        TextPaint paint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+        paint.density = context.getResources().getDisplayMetrics().density;
+        paint.setTextSize(context.getResources().getDimension(R.dimen.description_text_size));
+        TypedArray style = context.obtainStyledAttributes(R.style.description_style,
+                new int[]{android.R.attr.textColor});
+        try {
+            paint.setColor(style.getColor(0, 0xff000000));
+        } finally {
+            style.recycle();
+        }
+        return paint;
     }
 
     /**
-     * Returns a list item view that displays information about the book at the given position
-     * in the list of books.
+     * Appends a page of books to the end of the list, skipping the books that are already
+     * in the adapter. The existing rows are kept, so the list only binds the new ones.
+     *
+     * @param books is the page of books to append
+     * @return the books that were actually added
      */
+    public ArrayList<Book> appendBooks(Collection<Book> books) {
+        ArrayList<Book> newBooks = new ArrayList<>(books.size());
+        for (Book book : books) {
+            // Books without a volume id cannot be recognized, so they are always added
+            if (TextUtils.isEmpty(book.getId()) || bookIds.add(book.getId())) {
+                newBooks.add(book);
+            }
+        }
+        if (!newBooks.isEmpty()) {
+            ArrayList<Book> list = new ArrayList<>(pendingBooks.size() + newBooks.size());
+            list.addAll(pendingBooks);
+            list.addAll(newBooks);
+            submitList(list);
+        }
+        return newBooks;
+    }
+
+    /**
+     * Replaces the list with the given books, skipping repeated ones. The rows of the books
+     * that are in both lists are kept, so only the changed rows are bound again.
+     *
+     * @param books is the new list of books
+     * @return the books that are now in the list
+     */
+    public ArrayList<Book> replaceBooks(Collection<Book> books) {
+        bookIds.clear();
+        ArrayList<Book> newBooks = new ArrayList<>(books.size());
+        for (Book book : books) {
+            if (TextUtils.isEmpty(book.getId()) || bookIds.add(book.getId())) {
+                newBooks.add(book);
+            }
+        }
+        submitList(newBooks);
+        return new ArrayList<>(newBooks);
+    }
+
+    /**
+     * Removes every book from the list.
+     */
+    public void clear() {
+        bookIds.clear();
+        itemIds.clear();
+        anonymousItemIds.clear();
+        expandedIds.clear();
+        expandedAnonymousBooks.clear();
+        submitList(Collections.<Book>emptyList());
+    }
+
+    /**
+     * Returns true if the list has no books, counting the changes not applied yet.
+     */
+    public boolean isEmpty() {
+        return pendingBooks.isEmpty();
+    }
+
+    // Replace the shown books with the given list. Appending to or clearing the shown list is
+    // applied right away; any other change is diffed on the background thread first.
+    private void submitList(final List<Book> newBooks) {
+        final int listGeneration = ++generation;
+        boolean nothingPending = pendingBooks == books;
+        pendingBooks = newBooks;
+
+        if (nothingPending && isAppendedTo(books, newBooks)) {
+            int start = books.size();
+            books = newBooks;
+            notifyItemRangeInserted(start, newBooks.size() - start);
+            return;
+        }
+        if (newBooks.isEmpty()) {
+            int count = books.size();
+            books = newBooks;
+            if (count > 0) {
+                notifyItemRangeRemoved(0, count);
+            }
+            return;
+        }
+
+        final List<Book> oldBooks = books;
+        DIFF_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new BookDiff(oldBooks, newBooks), false);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // A newer list was submitted in the meantime
+                        if (listGeneration != generation) {
+                            return;
+                        }
+                        books = newBooks;
+                        diff.dispatchUpdatesTo(BookAdapter.this);
+                    }
+                });
+            }
+        });
+    }
+
+    // Returns true if newBooks is oldBooks followed by more books.
+    private static boolean isAppendedTo(List<Book> oldBooks, List<Book> newBooks) {
+        if (newBooks.size() < oldBooks.size()) {
+            return false;
+        }
+        for (int i = 0; i < oldBooks.size(); i++) {
+            if (oldBooks.get(i) != newBooks.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int getItemCount() {
+        return books.size();
+    }
+
+    // Returns the book at the given position in the list of books.
+    public Book getItem(int position) {
+        return books.get(position);
+    }
+
+    // Returns the stable id of the row of the book at the given position, based on its volume id.
+    @Override
+    public long getItemId(int position) {
+        Book book = books.get(position);
+        boolean anonymous = TextUtils.isEmpty(book.getId());
+        Long itemId = anonymous ? anonymousItemIds.get(book) : itemIds.get(book.getId());
+        if (itemId == null) {
+            itemId = nextItemId++;
+            if (anonymous) {
+                anonymousItemIds.put(book, itemId);
+            } else {
+                itemIds.put(book.getId(), itemId);
+            }
+        }
+        return itemId;
+    }
 
+    /**
+     * Inflates a new list item layout, whose views are looked up once and kept in its holder.
+     */
     @Override
-    public View getView(int position, View convertView, ViewGroup parent) {
-        // Check if there is an existing list item view (called convertView) that we can reuse,
-        // otherwise, if convertView is null, then inflate a new list item layout.
-        View listItemView = convertView;
-        if (listItemView == null) {
-            listItemView = LayoutInflater.from(getContext()).inflate(
-                    R.layout.activity_book_list_item, parent, false);
+    public BookViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View listItemView = inflater.inflate(R.layout.activity_book_list_item, parent, false);
+        final BookViewHolder holder = new BookViewHolder(listItemView);
+
+        // Tapping a description cut short shows it whole, and tapping it again collapses it
+        holder.descriptionView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                int position = holder.getAdapterPosition();
+                if (position == RecyclerView.NO_POSITION || !holder.descriptionView.isExpandable()) {
+                    return;
+                }
+                Book book = books.get(position);
+                setExpanded(book, !isExpanded(book));
+                notifyItemChanged(position);
+            }
+        });
+        return holder;
+    }
+
+    // Returns true if the whole description of the given book is shown.
+    private boolean isExpanded(Book book) {
+        return TextUtils.isEmpty(book.getId()) ? expandedAnonymousBooks.contains(book) : expandedIds.contains(book.getId());
+    }
+
+    private void setExpanded(Book book, boolean expanded) {
+        if (TextUtils.isEmpty(book.getId())) {
+            if (expanded) {
+                expandedAnonymousBooks.add(book);
+            } else {
+                expandedAnonymousBooks.remove(book);
+            }
+        } else if (expanded) {
+            expandedIds.add(book.getId());
+        } else {
+            expandedIds.remove(book.getId());
         }
+    }
 
+    /**
+     * Displays the information about the book at the given position in the list of books.
+     */
+    @Override
+    public void onBindViewHolder(BookViewHolder holder, int position) {
         // Find the book at the given position in the list of books
-        Book currentBook = getItem(position);
+        Book currentBook = books.get(position);
 
-        // Find the TextView with view ID title of the book
-        TextView titleView = (TextView) listItemView.findViewById(R.id.title);
+        // Display the title and author of the current book, and its description once laid out
+        holder.titleView.setText(currentBook.getTitle());
+        holder.authorView.setText(currentBook.getAuthor());
+        holder.descriptionView.bind(descriptionLayouts, currentBook, isExpanded(currentBook));
 
-        // Display the title of the current book in that TextView
-        titleView.setText(currentBook.getTitle());
+        // Load the cover in the background, unless it is already in memory
+        ImageLoader imageLoader = ImageLoader.getInstalled();
+        if (imageLoader != null) {
+            imageLoader.load(currentBook.getThumbnail(), holder.coverView, coverWidth, coverHeight);
+        }
+    }
 
-        // Find the TextView with view ID author of the book
-        TextView authorView = (TextView) listItemView.findViewById(R.id.author);
+    /**
+     * Stops loading the cover of a row that scrolled out of view, and lets go of its bitmap.
+     */
+    @Override
+    public void onViewRecycled(BookViewHolder holder) {
+        ImageLoader imageLoader = ImageLoader.getInstalled();
+        if (imageLoader != null) {
+            imageLoader.cancel(holder.coverView);
+        }
+        holder.coverView.setImageDrawable(null);
+    }
 
-        // Display the name of the author of the current book in that TextView
-        authorView.setText(currentBook.getAuthor());
+    /**
+     * Loads the covers and lays out the descriptions of the rows between the given positions,
+     * which are about to scroll into view, so they can be shown as soon as their rows are bound.
+     */
+    public void prefetchRows(int fromPosition, int toPosition) {
+        ImageLoader imageLoader = ImageLoader.getInstalled();
+        for (int i = Math.max(0, fromPosition); i <= toPosition && i < books.size(); i++) {
+            Book book = books.get(i);
+            if (imageLoader != null) {
+                imageLoader.prefetch(book.getThumbnail(), coverWidth, coverHeight);
+            }
+            descriptionLayouts.prefetch(book);
+        }
+    }
+
+    /**
+     * Holds the views of a list item layout, so they are only looked up when it is inflated.
+     */
+    static class BookViewHolder extends RecyclerView.ViewHolder {
+
+        // ImageView with view ID cover of the book
+        final ImageView coverView;
+        // TextView with view ID title of the book
+        final TextView titleView;
+        // TextView with view ID author of the book
+        final TextView authorView;
+        // DescriptionView with view ID description
+        final DescriptionView descriptionView;
+
+        BookViewHolder(View itemView) {
+            super(itemView);
+            coverView = (ImageView) itemView.findViewById(R.id.cover);
+            titleView = (TextView) itemView.findViewById(R.id.title);
+            authorView = (TextView) itemView.findViewById(R.id.author);
+            descriptionView = (DescriptionView) itemView.findViewById(R.id.description);
+        }
+    }
+
+    /**
+     * Compares two lists of books: two rows hold the same book when their volume ids are equal.
+     */
+    private static final class BookDiff extends DiffUtil.Callback {
+
+        private final List<Book> oldBooks;
+        private final List<Book> newBooks;
+
+        BookDiff(List<Book> oldBooks, List<Book> newBooks) {
+            this.oldBooks = oldBooks;
+            this.newBooks = newBooks;
+        }
 
-        // Find the TextView with view ID description
-        TextView descriptionView = (TextView) listItemView.findViewById(R.id.description);
+        @Override
+        public int getOldListSize() {
+            return oldBooks.size();
+        }
 
-        // Display the description of the current book in that TextView
-        descriptionView.setText(currentBook.getDescription());
+        @Override
+        public int getNewListSize() {
+            return newBooks.size();
+        }
 
-        // Return the list item view
-        return listItemView;
+        @Override
+        public boolean areItemsTheSame(int oldPosition, int newPosition) {
+            Book oldBook = oldBooks.get(oldPosition);
+            Book newBook = newBooks.get(newPosition);
+            if (TextUtils.isEmpty(oldBook.getId())) {
+                return oldBook == newBook;
+            }
+            return oldBook.getId().equals(newBook.getId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldPosition, int newPosition) {
+            Book oldBook = oldBooks.get(oldPosition);
+            Book newBook = newBooks.get(newPosition);
+            // Compares the encoded text, so the diff decodes no string
+            return oldBook == newBook || oldBook.hasSameContents(newBook);
+        }
     }
-}
\ No newline at end of file
+}
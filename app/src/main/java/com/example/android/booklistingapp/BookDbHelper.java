@@ -0,0 +1,76 @@
+package com.example.android.booklistingapp;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+/**
+ * Database helper of the offline book store. It creates the table of the downloaded books and
+ * an FTS4 index over their title, author and description, kept in sync by triggers.
+ */
+public class BookDbHelper extends SQLiteOpenHelper {
+
+    // Name of the database file
+    private static final String DATABASE_NAME = "books.db";
+    // Version of the database schema
+    private static final int DATABASE_VERSION = 2;
+
+    // Table of the downloaded books
+    static final String TABLE_BOOKS = "books";
+    // Full-text index over the books table
+    static final String TABLE_BOOKS_FTS = "books_fts";
+
+    // Row id of a book, also used as the docid of its full-text index row
+    static final String COLUMN_ID = "_id";
+    // Google Books volume id of a book
+    static final String COLUMN_VOLUME_ID = "volume_id";
+    // Title of a book
+    static final String COLUMN_TITLE = "title";
+    // Author of a book
+    static final String COLUMN_AUTHOR = "author";
+    // Description of a book
+    static final String COLUMN_DESCRIPTION = "description";
+    // URL of the cover thumbnail of a book; not part of the full-text index
+    static final String COLUMN_THUMBNAIL = "thumbnail";
+    // Time the book was last downloaded, in milliseconds
+    static final String COLUMN_UPDATED = "updated";
+
+    public BookDbHelper(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_BOOKS + " ("
+                + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + COLUMN_VOLUME_ID + " TEXT NOT NULL UNIQUE, "
+                + COLUMN_TITLE + " TEXT, "
+                + COLUMN_AUTHOR + " TEXT, "
+                + COLUMN_DESCRIPTION + " TEXT, "
+                + COLUMN_THUMBNAIL + " TEXT, "
+                + COLUMN_UPDATED + " INTEGER NOT NULL)");
+        db.execSQL("CREATE INDEX books_updated ON " + TABLE_BOOKS + " (" + COLUMN_UPDATED + ")");
+
+        // The index only stores the tokens; the text itself stays in the books table
+        db.execSQL("CREATE VIRTUAL TABLE " + TABLE_BOOKS_FTS + " USING fts4(content=\"" + TABLE_BOOKS
+                + "\", " + COLUMN_TITLE + ", " + COLUMN_AUTHOR + ", " + COLUMN_DESCRIPTION + ")");
+
+        // Keep the index in sync with the books table
+        String indexNew = "INSERT INTO " + TABLE_BOOKS_FTS + " (docid, " + COLUMN_TITLE + ", "
+                + COLUMN_AUTHOR + ", " + COLUMN_DESCRIPTION + ") VALUES (new." + COLUMN_ID
+                + ", new." + COLUMN_TITLE + ", new." + COLUMN_AUTHOR + ", new." + COLUMN_DESCRIPTION + ");";
+        String unindexOld = "DELETE FROM " + TABLE_BOOKS_FTS + " WHERE docid = old." + COLUMN_ID + ";";
+        db.execSQL("CREATE TRIGGER books_ai AFTER INSERT ON " + TABLE_BOOKS + " BEGIN " + indexNew + " END");
+        db.execSQL("CREATE TRIGGER books_bu BEFORE UPDATE ON " + TABLE_BOOKS + " BEGIN " + unindexOld + " END");
+        db.execSQL("CREATE TRIGGER books_au AFTER UPDATE ON " + TABLE_BOOKS + " BEGIN " + indexNew + " END");
+        db.execSQL("CREATE TRIGGER books_bd BEFORE DELETE ON " + TABLE_BOOKS + " BEGIN " + unindexOld + " END");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // The store only holds copies of downloaded books, so it is simply rebuilt
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_BOOKS_FTS);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_BOOKS);
+        onCreate(db);
+    }
+}
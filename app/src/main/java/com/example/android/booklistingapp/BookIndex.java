@@ -0,0 +1,154 @@
+package com.example.android.booklistingapp;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.text.TextUtils;
+
+import com.example.android.booklistingapp.core.InvertedIndex;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Indexes the words of the books received for every query as they arrive, so the books already
+ * in the list can be narrowed down and re-ranked while the user types a filter, without asking
+ * Google Books again. The index is updated and searched on a single background thread, which
+ * keeps it consistent without locks, and the filtered books are delivered on the main thread.
+ * The index keeps a bounded number of books; the oldest ones are dropped first.
+ */
+public final class BookIndex {
+
+    // The index installed by the app, or null
+    private static BookIndex installed;
+
+    // Tells the index the volume id and the text of a book
+    private static final InvertedIndex.Fields<Book> FIELDS = new InvertedIndex.Fields<Book>() {
+        @Override
+        public String keyOf(Book book) {
+            return book.getId();
+        }
+
+        @Override
+        public String[] fieldsOf(Book book) {
+            return new String[]{book.getTitle(), book.getAuthor(), book.getDescription()};
+        }
+    };
+
+    // The thread updating and searching the index
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "BookIndex");
+        }
+    });
+    // Handler of the main thread, where the filtered books are delivered
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Only touched on the thread of the executor
+    private final InvertedIndex<Book> index;
+
+    private BookIndex(int maxBooks, int maxDescriptionWords) {
+        index = new InvertedIndex<>(FIELDS, maxBooks, maxDescriptionWords);
+    }
+
+    /**
+     * Installs the book index of the app.
+     * Installing it again returns the index that is already installed.
+     *
+     * @param maxBooks            is the number of books indexed at most; the oldest are dropped
+     * @param maxDescriptionWords is the number of words of a description indexed at most
+     */
+    public static synchronized BookIndex install(int maxBooks, int maxDescriptionWords) {
+        if (installed == null) {
+            installed = new BookIndex(maxBooks, maxDescriptionWords);
+        }
+        return installed;
+    }
+
+    // Returns the installed index, or null when there is none.
+    public static synchronized BookIndex getInstalled() {
+        return installed;
+    }
+
+    /**
+     * Adds the given books to the index in the background. Books already indexed are skipped.
+     */
+    public void addAll(Collection<Book> books) {
+        if (books.isEmpty()) {
+            return;
+        }
+        final ArrayList<Book> copy = new ArrayList<>(books);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (Book book : copy) {
+                    index.add(book);
+                }
+            }
+        });
+    }
+
+    /**
+     * Finds the books matching the given filter among the given ones in the background, best
+     * matches first, and delivers them to the callback on the main thread. The books must have
+     * been added to the index before. Words of the filter can be restricted to a field with
+     * "title:", "author:" or "description:".
+     *
+     * @param filter   is the words every book must contain
+     * @param books    are the books to filter, such as the books of the list
+     * @param callback receives the matching books
+     */
+    public void filter(final String filter, List<Book> books, final Callback callback) {
+        final ArrayList<Book> candidates = new ArrayList<>(books);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // The index also holds the books of the previous queries, and may hold another
+                // object for the same volume id
+                HashMap<String, Book> byId = new HashMap<>(candidates.size());
+                for (Book book : candidates) {
+                    byId.put(book.getId(), book);
+                }
+                final ArrayList<Book> matching = new ArrayList<>();
+                for (Book book : index.search(filter)) {
+                    if (TextUtils.isEmpty(book.getId())) {
+                        // A book without a volume id is only in the list as this very object
+                        if (candidates.contains(book)) {
+                            matching.add(book);
+                        }
+                    } else if (byId.containsKey(book.getId())) {
+                        matching.add(byId.get(book.getId()));
+                    }
+                }
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onBooksFiltered(matching);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Receives the filtered books on the main thread.
+     */
+    public interface Callback {
+
+        /**
+         * Called with the books matching the filter, best matches first.
+         */
+        void onBooksFiltered(ArrayList<Book> books);
+    }
+}
@@ -0,0 +1,320 @@
+package com.example.android.booklistingapp;
+
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads pages of books on a dedicated pool of networking threads, instead of the global serial
+ * executor of AsyncTask, and delivers them to a callback on the main thread.
+ * Requests for the same page that are in flight at the same time share a single download.
+ */
+public final class BookLoader {
+
+    // Tag for the log messages
+    private static final String LOG_TAG = BookLoader.class.getSimpleName();
+
+    // The loader installed by the app, or null
+    private static BookLoader installed;
+
+    // The networking threads, with a bounded queue of waiting requests
+    private final ThreadPoolExecutor executor;
+    // Handler of the main thread, where the books are delivered
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // The requests in flight, by page; only touched on the main thread
+    private final HashMap<String, InFlight> inFlight = new HashMap<>();
+    // How long a request may take before it is cancelled, in milliseconds
+    private final int timeoutMillis;
+
+    // Also used by the tests, which need a loader of their own rather than the installed one.
+    BookLoader(int parallelism, int queueCapacity, int timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+        this.executor = new ThreadPoolExecutor(parallelism, parallelism, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "BookLoader #" + count.incrementAndGet());
+            }
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Installs the loader of the app.
+     * Installing it again returns the loader that is already installed.
+     *
+     * @param parallelism   is the number of requests run at the same time
+     * @param queueCapacity is the number of requests that can wait for a thread
+     * @param timeoutMillis is how long a request may take before it is cancelled
+     */
+    public static synchronized BookLoader install(int parallelism, int queueCapacity, int timeoutMillis) {
+        if (installed == null) {
+            installed = new BookLoader(parallelism, queueCapacity, timeoutMillis);
+        }
+        return installed;
+    }
+
+    // Returns the installed loader, or null when there is none.
+    public static synchronized BookLoader getInstalled() {
+        return installed;
+    }
+
+    /**
+     * Loads a page of books in the background. Must be called on the main thread.
+     * If the same page is already being loaded, the request joins it instead of downloading it
+     * again. The callback is called on the main thread, with null if the page could not be
+     * loaded in time, unless the request is cancelled first.
+     *
+     * @param url      is the URL of the page
+     * @param cacheKey is the key of the page in the {@link QueryResultCache}
+     * @param offline  is true when only cached responses can be used
+     * @param callback receives the books of the page
+     */
+    public Request load(String url, String cacheKey, boolean offline, Callback callback) {
+        String key = (offline ? "offline:" : "online:") + cacheKey;
+        Request request = new Request(key, callback);
+
+        InFlight page = inFlight.get(key);
+        if (page == null) {
+            page = new InFlight(key, url, cacheKey, offline);
+            try {
+                executor.execute(page.task);
+            } catch (RejectedExecutionException e) {
+                // Too many requests are waiting; fail this one rather than queue without bound
+                Log.e(LOG_TAG, "Too many book requests, dropping " + url);
+                deliverLater(request, null);
+                return request;
+            }
+            inFlight.put(key, page);
+            mainHandler.postDelayed(page.timeout, timeoutMillis);
+        }
+        page.requests.add(request);
+        return request;
+    }
+
+    // Deliver the books to a request that never reached the executor.
+    private void deliverLater(final Request request, final ArrayList<Book> books) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!request.cancelled) {
+                    request.callback.onBooksLoaded(books);
+                }
+            }
+        });
+    }
+
+    // Deliver the result of an in-flight page to every request waiting for it.
+    // Runs on the main thread.
+    private void finish(InFlight page, ArrayList<Book> books) {
+        if (inFlight.get(page.key) != page) {
+            // Already finished by its timeout, or cancelled
+            return;
+        }
+        inFlight.remove(page.key);
+        mainHandler.removeCallbacks(page.timeout);
+        RequestMetrics.beginSection("deliver books");
+        try {
+            for (Request request : page.requests) {
+                // Every request gets its own list, since the receivers may change it
+                request.callback.onBooksLoaded(books == null ? null : new ArrayList<>(books));
+            }
+        } finally {
+            RequestMetrics.endSection();
+        }
+        page.requests.clear();
+
+        if (page.metrics != null) {
+            if (books == null) {
+                page.metrics.failed();
+            } else {
+                page.metrics.addSince(RequestMetrics.Phase.DELIVERY, page.loadedAt);
+                page.metrics.delivered();
+            }
+        }
+    }
+
+    // Load a page: from the result cache, otherwise from Google Books, keeping the downloaded
+    // books in the result cache and the offline store. Runs on a networking thread.
+    private static ArrayList<Book> loadPage(String url, String cacheKey, boolean offline,
+                                            CancellationSignal cancellationSignal, int timeoutMillis,
+                                            RequestMetrics.Request metrics) {
+
+        // Use the books already parsed for the same query and page, if any
+        long lookupStart = System.nanoTime();
+        QueryResultCache resultCache = QueryResultCache.getInstalled();
+        ArrayList<Book> books = resultCache == null ? null : resultCache.get(cacheKey);
+        if (metrics != null) {
+            metrics.addSince(RequestMetrics.Phase.CACHE, lookupStart);
+        }
+        if (books != null) {
+            if (metrics != null) {
+                metrics.setCacheHit();
+            }
+            return books;
+        }
+
+        books = Utils.fetchBooksData(url, offline, cancellationSignal, timeoutMillis, metrics);
+
+        // Only keep the books that came from the network, since the books served while
+        // offline may be older than the time to live of the result cache
+        if (books != null && !offline && !cancellationSignal.isCanceled()) {
+            if (resultCache != null) {
+                resultCache.put(cacheKey, books);
+            }
+            BookStore bookStore = BookStore.getInstalled();
+            if (bookStore != null) {
+                bookStore.saveAsync(books);
+            }
+        }
+        return books;
+    }
+
+    /**
+     * Receives the books of a page on the main thread.
+     */
+    public interface Callback {
+
+        /**
+         * Called with the books of the page, or null if it could not be loaded.
+         */
+        void onBooksLoaded(ArrayList<Book> books);
+    }
+
+    /**
+     * A request for a page, which can be cancelled.
+     */
+    public final class Request {
+
+        private final String key;
+        private final Callback callback;
+        private boolean cancelled;
+
+        private Request(String key, Callback callback) {
+            this.key = key;
+            this.callback = callback;
+        }
+
+        /**
+         * Cancels the request, so its callback will not be called. Must be called on the main
+         * thread. The download itself is only stopped when no other request is waiting for it.
+         */
+        public void cancel() {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            InFlight page = inFlight.get(key);
+            if (page != null && page.requests.remove(this) && page.requests.isEmpty()) {
+                inFlight.remove(key);
+                mainHandler.removeCallbacks(page.timeout);
+                page.cancel();
+                if (page.metrics != null) {
+                    page.metrics.cancelled();
+                }
+            }
+        }
+    }
+
+    /**
+     * A page being loaded, with every request waiting for it.
+     */
+    private final class InFlight {
+
+        private final String key;
+        private final String url;
+        private final String cacheKey;
+        private final boolean offline;
+        private final ArrayList<Request> requests = new ArrayList<>();
+        private final CancellationSignal cancellationSignal = new CancellationSignal();
+        private final FutureTask<ArrayList<Book>> task;
+        // The measures of the page, or null when requests are not measured
+        private final RequestMetrics.Request metrics = RequestMetrics.start();
+        // When the page was queued, and when its books were loaded, from System.nanoTime()
+        private final long queuedAt = System.nanoTime();
+        private volatile long loadedAt;
+        // Cancels the page and delivers null when it takes longer than the timeout
+        private final Runnable timeout = new Runnable() {
+            @Override
+            public void run() {
+                Log.e(LOG_TAG, "Book request timed out: " + key);
+                cancel();
+                finish(InFlight.this, null);
+            }
+        };
+        InFlight(String key, String url, String cacheKey, boolean offline) {
+            this.key = key;
+            this.url = url;
+            this.cacheKey = cacheKey;
+            this.offline = offline;
+            this.task = newTask();
+        }
+
+        // Returns the task downloading the page.
+        private FutureTask<ArrayList<Book>> newTask() {
+            return new FutureTask<ArrayList<Book>>(new Callable<ArrayList<Book>>() {
+                @Override
+                public ArrayList<Book> call() {
+                    if (metrics != null) {
+                        metrics.addSince(RequestMetrics.Phase.QUEUE, queuedAt);
+                    }
+                    RequestMetrics.beginSection("load page");
+                    try {
+                        return loadPage(url, cacheKey, offline, cancellationSignal, timeoutMillis, metrics);
+                    } finally {
+                        RequestMetrics.endSection();
+                    }
+                }
+            }) {
+                @Override
+                protected void done() {
+                    if (isCancelled()) {
+                        return;
+                    }
+                    ArrayList<Book> books = null;
+                    try {
+                        books = get();
+                    } catch (Exception e) {
+                        Log.e(LOG_TAG, "Problem loading the books:", e);
+                    }
+                    final ArrayList<Book> result = books;
+                    loadedAt = System.nanoTime();
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            finish(InFlight.this, result);
+                        }
+                    });
+                }
+            };
+        }
+
+        // Stop the download: a waiting task never starts, a running one is disconnected.
+        void cancel() {
+            task.cancel(false);
+            executor.remove(task);
+            cancellationSignal.cancel();
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package com.example.android.booklistingapp;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.SoftReference;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * A disk cache of Google Books responses, stored under the cache directory of the app.
+ * Every response is kept together with its ETag and Last-Modified headers, so that it can be
+ * revalidated with a conditional GET once it is no longer fresh.
+ * The cache is bounded by size; the least recently used responses are evicted first.
+ */
+public final class BookResponseCache {
+
+    // Tag for the log messages
+    private static final String LOG_TAG = BookResponseCache.class.getSimpleName();
+    // Version of the metadata file format
+    private static final int VERSION = 1;
+    // Suffix of the file holding the url, headers and fetch time of a response
+    private static final String META_SUFFIX = ".meta";
+    // Suffix of the file holding the body of a response
+    private static final String BODY_SUFFIX = ".body";
+    // Suffix of a body that is still being downloaded
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    // The cache installed by the app, or null when responses are not cached
+    private static BookResponseCache installed;
+
+    // The directory holding the cached responses
+    private final File directory;
+    // The maximum number of bytes of the cached responses
+    private final long maxSize;
+    // How long a response is served without asking the server, in milliseconds
+    private final long freshnessMillis;
+    // Books already parsed from the cached bodies, so a revalidated response is not parsed again
+    private final HashMap<String, SoftReference<ArrayList<Book>>> parsedBooks = new HashMap<>();
+
+    private BookResponseCache(File directory, long maxSize, long freshnessMillis) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.freshnessMillis = freshnessMillis;
+    }
+
+    /**
+     * Installs the response cache used by {@link Utils#fetchBooksData}.
+     * Installing it again returns the cache that is already installed.
+     *
+     * @param directory       is the directory holding the cached responses
+     * @param maxSize         is the maximum number of bytes of the cached responses
+     * @param freshnessMillis is how long a response is served without revalidating it
+     */
+    public static synchronized BookResponseCache install(File directory, long maxSize,
+                                                         long freshnessMillis) {
+        if (installed == null) {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                Log.e(LOG_TAG, "Could not create the cache directory " + directory);
+                return null;
+            }
+            installed = new BookResponseCache(directory, maxSize, freshnessMillis);
+            installed.trim(true);
+        }
+        return installed;
+    }
+
+    // Returns the installed cache, or null when there is none.
+    public static synchronized BookResponseCache getInstalled() {
+        return installed;
+    }
+
+    // Removes the installed cache, so the tests can install one of their own.
+    static synchronized void uninstall() {
+        installed = null;
+    }
+
+    /**
+     * Returns the cached response of the given URL, or null if it is not cached.
+     * Reading an entry marks it as the most recently used one.
+     */
+    public synchronized Entry get(String url) {
+        String key = keyOf(url);
+        File meta = new File(directory, key + META_SUFFIX);
+        File body = new File(directory, key + BODY_SUFFIX);
+        if (!meta.exists() || !body.exists()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(meta)));
+            if (in.readInt() != VERSION || !url.equals(in.readUTF())) {
+                return null;
+            }
+            Entry entry = new Entry(url, key, body, in.readUTF(), in.readUTF(), in.readLong());
+            meta.setLastModified(System.currentTimeMillis());
+            return entry;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem reading the cached response:", e);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    // Returns true if the given entry can be served without asking the server.
+    public boolean isFresh(Entry entry) {
+        return System.currentTimeMillis() - entry.fetchedAt < freshnessMillis;
+    }
+
+    /**
+     * Returns a stream that writes a new response body for the given URL into the cache.
+     * The response only replaces the cached one when {@link Editor#commit()} is called.
+     */
+    public Editor edit(String url, String eTag, String lastModified) throws IOException {
+        String key = keyOf(url);
+        File temp = File.createTempFile(key, TEMP_SUFFIX, directory);
+        return new Editor(url, key, temp, eTag == null ? "" : eTag,
+                lastModified == null ? "" : lastModified);
+    }
+
+    // Marks the given entry as fresh again, after the server answered 304 Not Modified.
+    public synchronized void markRevalidated(Entry entry) {
+        try {
+            writeMeta(entry.url, entry.key, entry.eTag, entry.lastModified, System.currentTimeMillis());
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem updating the cached response:", e);
+        }
+    }
+
+    // Returns a copy of the books already parsed from the given entry, or null.
+    public synchronized ArrayList<Book> getParsedBooks(Entry entry) {
+        SoftReference<ArrayList<Book>> reference = parsedBooks.get(entry.key);
+        ArrayList<Book> books = reference == null ? null : reference.get();
+        return books == null ? null : new ArrayList<>(books);
+    }
+
+    // Remembers the books parsed from the given entry.
+    public synchronized void putParsedBooks(Entry entry, ArrayList<Book> books) {
+        parsedBooks.put(entry.key, new SoftReference<>(new ArrayList<>(books)));
+    }
+
+    // Write the metadata file of an entry.
+    private void writeMeta(String url, String key, String eTag, String lastModified, long fetchedAt)
+            throws IOException {
+        File temp = File.createTempFile(key, TEMP_SUFFIX, directory);
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            out.writeInt(VERSION);
+            out.writeUTF(url);
+            out.writeUTF(eTag);
+            out.writeUTF(lastModified);
+            out.writeLong(fetchedAt);
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(new File(directory, key + META_SUFFIX))) {
+            temp.delete();
+            throw new IOException("Could not write the metadata of " + url);
+        }
+    }
+
+    // Evict the least recently used responses until the cache fits in its maximum size.
+    // Bodies left over from downloads that never finished are only deleted at install time,
+    // when no download can be running.
+    private synchronized void trim(boolean deleteTempFiles) {
+        File[] metas = directory.listFiles();
+        if (metas == null) {
+            return;
+        }
+
+        long size = 0;
+        ArrayList<File> entries = new ArrayList<>();
+        for (File file : metas) {
+            String name = file.getName();
+            if (name.endsWith(META_SUFFIX)) {
+                entries.add(file);
+            } else if (name.endsWith(TEMP_SUFFIX) && deleteTempFiles) {
+                file.delete();
+                continue;
+            }
+            size += file.length();
+        }
+        if (size <= maxSize) {
+            return;
+        }
+
+        File[] oldestFirst = entries.toArray(new File[entries.size()]);
+        Arrays.sort(oldestFirst, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+        for (File meta : oldestFirst) {
+            if (size <= maxSize) {
+                break;
+            }
+            String key = meta.getName().substring(0, meta.getName().length() - META_SUFFIX.length());
+            File body = new File(directory, key + BODY_SUFFIX);
+            size -= meta.length() + body.length();
+            meta.delete();
+            body.delete();
+            parsedBooks.remove(key);
+        }
+    }
+
+    // Returns the file name used for the given URL.
+    private static String keyOf(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(url.getBytes(Charset.forName("UTF-8")));
+            StringBuilder key = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                key.append(Character.forDigit((b >> 4) & 0xf, 16));
+                key.append(Character.forDigit(b & 0xf, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(url.hashCode());
+        }
+    }
+
+    private static void closeQuietly(InputStream in) {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * A cached response: its body file and the headers needed to revalidate it.
+     */
+    public static final class Entry {
+
+        private final String url;
+        private final String key;
+        private final File body;
+        private final String eTag;
+        private final String lastModified;
+        private final long fetchedAt;
+
+        private Entry(String url, String key, File body, String eTag, String lastModified,
+                      long fetchedAt) {
+            this.url = url;
+            this.key = key;
+            this.body = body;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.fetchedAt = fetchedAt;
+        }
+
+        // Returns the ETag header of the response, or an empty String.
+        public String getETag() {
+            return eTag;
+        }
+
+        // Returns the Last-Modified header of the response, or an empty String.
+        public String getLastModified() {
+            return lastModified;
+        }
+
+        // Opens the cached body of the response.
+        public InputStream openBody() throws IOException {
+            return new BufferedInputStream(new FileInputStream(body));
+        }
+    }
+
+    /**
+     * Writes a response body into the cache while it is downloaded.
+     */
+    public final class Editor {
+
+        private final String url;
+        private final String key;
+        private final File temp;
+        private final String eTag;
+        private final String lastModified;
+        private final OutputStream out;
+
+        private Editor(String url, String key, File temp, String eTag, String lastModified)
+                throws IOException {
+            this.url = url;
+            this.key = key;
+            this.temp = temp;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.out = new BufferedOutputStream(new FileOutputStream(temp));
+        }
+
+        // Returns the stream the body of the response is written to.
+        public OutputStream getOutputStream() {
+            return out;
+        }
+
+        // Replaces the cached response with the written body, and returns its new entry.
+        public Entry commit() throws IOException {
+            out.close();
+            synchronized (BookResponseCache.this) {
+                File body = new File(directory, key + BODY_SUFFIX);
+                if (!temp.renameTo(body)) {
+                    temp.delete();
+                    throw new IOException("Could not write the body of " + url);
+                }
+                long now = System.currentTimeMillis();
+                writeMeta(url, key, eTag, lastModified, now);
+                parsedBooks.remove(key);
+                trim(false);
+                return new Entry(url, key, body, eTag, lastModified, now);
+            }
+        }
+
+        // Drops the written body, leaving the cached response untouched.
+        public void abort() {
+            try {
+                out.close();
+            } catch (IOException ignored) {
+            }
+            temp.delete();
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package com.example.android.booklistingapp;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+import static com.example.android.booklistingapp.BookDbHelper.COLUMN_AUTHOR;
+import static com.example.android.booklistingapp.BookDbHelper.COLUMN_DESCRIPTION;
+import static com.example.android.booklistingapp.BookDbHelper.COLUMN_ID;
+import static com.example.android.booklistingapp.BookDbHelper.COLUMN_THUMBNAIL;
+import static com.example.android.booklistingapp.BookDbHelper.COLUMN_TITLE;
+import static com.example.android.booklistingapp.BookDbHelper.COLUMN_UPDATED;
+import static com.example.android.booklistingapp.BookDbHelper.COLUMN_VOLUME_ID;
+import static com.example.android.booklistingapp.BookDbHelper.TABLE_BOOKS;
+import static com.example.android.booklistingapp.BookDbHelper.TABLE_BOOKS_FTS;
+
+/**
+ * Local store of every book downloaded from Google Books, so that queries can be answered
+ * from the device when there is no internet connection, or before the network answers.
+ * Books are written in batched transactions on a background thread, and the oldest books are
+ * evicted when the store holds more than its maximum number of books.
+ */
+public final class BookStore {
+
+    // Tag for the log messages
+    private static final String LOG_TAG = BookStore.class.getSimpleName();
+    // Anything that is not a letter or a digit separates two terms of a query
+    private static final Pattern TERM_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+    // Weights of the title, author and description columns when ranking the results
+    private static final double[] COLUMN_WEIGHTS = {3.0, 2.0, 1.0};
+
+    // The store installed by the app, or null when books are not stored
+    private static BookStore installed;
+
+    // Helper opening the database
+    private final BookDbHelper dbHelper;
+    // The maximum number of books kept in the store
+    private final int maxBooks;
+    // Single thread running every write, so the UI thread never waits for the database
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+
+    private BookStore(Context context, int maxBooks) {
+        this.dbHelper = new BookDbHelper(context.getApplicationContext());
+        this.maxBooks = maxBooks;
+    }
+
+    /**
+     * Installs the book store of the app.
+     * Installing it again returns the store that is already installed.
+     *
+     * @param context  of the app
+     * @param maxBooks is the maximum number of books kept in the store
+     */
+    public static synchronized BookStore install(Context context, int maxBooks) {
+        if (installed == null) {
+            installed = new BookStore(context, maxBooks);
+        }
+        return installed;
+    }
+
+    // Returns the installed store, or null when there is none.
+    public static synchronized BookStore getInstalled() {
+        return installed;
+    }
+
+    /**
+     * Writes the given books into the store on a background thread, in a single transaction.
+     * Books already in the store are updated and count as just downloaded.
+     *
+     * @return the write, done once the books and the ones given before are stored, or null when
+     * there is no book to store
+     */
+    public Future<?> saveAsync(List<Book> books) {
+        if (books.isEmpty()) {
+            return null;
+        }
+        final ArrayList<Book> batch = new ArrayList<>(books);
+        return writer.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    save(batch);
+                } catch (SQLException e) {
+                    Log.e(LOG_TAG, "Problem storing the books:", e);
+                }
+            }
+        });
+    }
+
+    // Write the given books in a single transaction, then evict the oldest books if needed.
+    private void save(List<Book> books) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        long now = System.currentTimeMillis();
+        db.beginTransaction();
+        try {
+            SQLiteStatement update = db.compileStatement("UPDATE " + TABLE_BOOKS + " SET "
+                    + COLUMN_TITLE + " = ?, " + COLUMN_AUTHOR + " = ?, " + COLUMN_DESCRIPTION + " = ?, "
+                    + COLUMN_THUMBNAIL + " = ?, " + COLUMN_UPDATED + " = ? WHERE " + COLUMN_VOLUME_ID + " = ?");
+            SQLiteStatement insert = db.compileStatement("INSERT INTO " + TABLE_BOOKS + " ("
+                    + COLUMN_TITLE + ", " + COLUMN_AUTHOR + ", " + COLUMN_DESCRIPTION + ", "
+                    + COLUMN_THUMBNAIL + ", " + COLUMN_UPDATED + ", " + COLUMN_VOLUME_ID
+                    + ") VALUES (?, ?, ?, ?, ?, ?)");
+            for (Book book : books) {
+                // Books without a volume id cannot be recognized when they are downloaded again
+                if (book.getId() == null || book.getId().isEmpty()) {
+                    continue;
+                }
+                // Update the book if it is already stored, otherwise insert it. INSERT OR REPLACE
+                // is not used since it would delete the row without running the index triggers.
+                bindBook(update, book, now);
+                if (update.executeUpdateDelete() == 0) {
+                    bindBook(insert, book, now);
+                    insert.executeInsert();
+                }
+            }
+            update.close();
+            insert.close();
+
+            // Evict the books that were downloaded the longest time ago
+            long count = DatabaseUtils.queryNumEntries(db, TABLE_BOOKS);
+            if (count > maxBooks) {
+                db.execSQL("DELETE FROM " + TABLE_BOOKS + " WHERE " + COLUMN_ID + " IN (SELECT "
+                        + COLUMN_ID + " FROM " + TABLE_BOOKS + " ORDER BY " + COLUMN_UPDATED
+                        + " ASC LIMIT " + (count - maxBooks) + ")");
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static void bindBook(SQLiteStatement statement, Book book, long updated) {
+        statement.clearBindings();
+        statement.bindString(1, book.getTitle());
+        statement.bindString(2, book.getAuthor());
+        statement.bindString(3, book.getDescription());
+        statement.bindString(4, book.getThumbnail());
+        statement.bindLong(5, updated);
+        statement.bindString(6, book.getId());
+    }
+
+    /**
+     * Returns the stored books matching every term of the given query, best matches first.
+     * This reads the database, so it must not be called on the UI thread.
+     *
+     * @param query is the query typed by the user
+     * @param limit is the maximum number of books returned
+     */
+    public ArrayList<Book> search(String query, int limit) {
+        ArrayList<Book> books = new ArrayList<>();
+        String match = toMatchExpression(query);
+        if (match.isEmpty()) {
+            return books;
+        }
+
+        final ArrayList<Double> scores = new ArrayList<>();
+        Cursor cursor = null;
+        try {
+            cursor = dbHelper.getReadableDatabase().rawQuery("SELECT b." + COLUMN_VOLUME_ID + ", b."
+                    + COLUMN_TITLE + ", b." + COLUMN_AUTHOR + ", b." + COLUMN_DESCRIPTION
+                    + ", b." + COLUMN_THUMBNAIL + ", matchinfo(" + TABLE_BOOKS_FTS + ", 'pcnx') FROM " + TABLE_BOOKS_FTS
+                    + " JOIN " + TABLE_BOOKS + " b ON b." + COLUMN_ID + " = " + TABLE_BOOKS_FTS
+                    + ".docid WHERE " + TABLE_BOOKS_FTS + " MATCH ?", new String[]{match});
+            while (cursor.moveToNext()) {
+                books.add(new Book(cursor.getString(0), cursor.getString(1), cursor.getString(2),
+                        cursor.getString(3), cursor.getString(4)));
+                scores.add(score(cursor.getBlob(5)));
+            }
+        } catch (SQLException e) {
+            Log.e(LOG_TAG, "Problem searching the stored books:", e);
+            return new ArrayList<>();
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+
+        // Sort the books by descending score
+        ArrayList<Integer> order = new ArrayList<>(books.size());
+        for (int i = 0; i < books.size(); i++) {
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(scores.get(b), scores.get(a));
+            }
+        });
+        ArrayList<Book> ranked = new ArrayList<>(Math.min(limit, books.size()));
+        for (int i = 0; i < order.size() && i < limit; i++) {
+            ranked.add(books.get(order.get(i)));
+        }
+        return ranked;
+    }
+
+    /**
+     * Returns the stored books with the given volume ids, in no particular order. Ids that are
+     * not in the store are skipped. This reads the database, so it must not be called on the
+     * UI thread.
+     */
+    public ArrayList<Book> getBooks(List<String> volumeIds) {
+        ArrayList<Book> books = new ArrayList<>(volumeIds.size());
+        // SQLite allows at most 999 arguments in a statement
+        for (int start = 0; start < volumeIds.size(); start += 500) {
+            List<String> batch = volumeIds.subList(start, Math.min(volumeIds.size(), start + 500));
+            StringBuilder placeholders = new StringBuilder();
+            for (int i = 0; i < batch.size(); i++) {
+                placeholders.append(i == 0 ? "?" : ", ?");
+            }
+            Cursor cursor = null;
+            try {
+                cursor = dbHelper.getReadableDatabase().rawQuery("SELECT " + COLUMN_VOLUME_ID + ", "
+                        + COLUMN_TITLE + ", " + COLUMN_AUTHOR + ", " + COLUMN_DESCRIPTION + ", "
+                        + COLUMN_THUMBNAIL + " FROM " + TABLE_BOOKS + " WHERE " + COLUMN_VOLUME_ID
+                        + " IN (" + placeholders + ")", batch.toArray(new String[batch.size()]));
+                while (cursor.moveToNext()) {
+                    books.add(new Book(cursor.getString(0), cursor.getString(1), cursor.getString(2),
+                            cursor.getString(3), cursor.getString(4)));
+                }
+            } catch (SQLException e) {
+                Log.e(LOG_TAG, "Problem reading the stored books:", e);
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+        }
+        return books;
+    }
+
+    // Turns the query typed by the user into an FTS expression matching books that contain
+    // every term, each one as a prefix, so "harr pot" finds "Harry Potter".
+    private static String toMatchExpression(String query) {
+        StringBuilder match = new StringBuilder();
+        for (String term : TERM_SEPARATOR.split(query.toLowerCase(Locale.ROOT))) {
+            if (!term.isEmpty()) {
+                if (match.length() > 0) {
+                    match.append(' ');
+                }
+                match.append(term).append('*');
+            }
+        }
+        return match.toString();
+    }
+
+    // Scores a matching book from its matchinfo 'pcnx' blob with a BM25-like formula:
+    // every term found in a column adds a saturated term frequency, weighted by the rarity of
+    // the term and by the column, so a match in the title counts more than one in the description.
+    private static double score(byte[] matchInfo) {
+        ByteBuffer info = ByteBuffer.wrap(matchInfo).order(ByteOrder.nativeOrder());
+        int phrases = info.getInt();
+        int columns = info.getInt();
+        int rows = info.getInt();
+        double score = 0;
+        for (int phrase = 0; phrase < phrases; phrase++) {
+            for (int column = 0; column < columns; column++) {
+                int hitsInRow = info.getInt();
+                info.getInt(); // hits in all rows
+                int rowsWithHits = info.getInt();
+                if (hitsInRow > 0) {
+                    double rarity = Math.log(1 + (rows - rowsWithHits + 0.5) / (rowsWithHits + 0.5));
+                    double weight = column < COLUMN_WEIGHTS.length ? COLUMN_WEIGHTS[column] : 1.0;
+                    score += weight * rarity * hitsInRow / (hitsInRow + 1.2);
+                }
+            }
+        }
+        return score;
+    }
+}
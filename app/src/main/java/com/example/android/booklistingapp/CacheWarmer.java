@@ -0,0 +1,258 @@
+package com.example.android.booklistingapp;
+
+import android.annotation.TargetApi;
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.res.Resources;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Refreshes the first pages of the pinned queries and of the most searched ones in the
+ * background, while the device is charging and on an unmetered network, so the next search of
+ * these queries finds their books in the response cache and the offline store instead of paying
+ * for the whole download and parse. Every warm-up stops once it has sent a configured number of
+ * requests or downloaded a configured number of bytes.
+ * <p>
+ * The warm-up is scheduled with the JobScheduler from API 21, which waits for the conditions
+ * itself. On older versions, an inexact repeating alarm starts the {@link CacheWarmingService},
+ * which checks the conditions and skips the warm-up when they are not met.
+ */
+public final class CacheWarmer {
+
+    // Tag for the log messages
+    private static final String LOG_TAG = CacheWarmer.class.getSimpleName();
+    // Id of the periodic job of the warm-up
+    private static final int JOB_ID = 1;
+    private static final long HOUR_MILLIS = 60 * 60 * 1000L;
+
+    private CacheWarmer() {
+    }
+
+    /**
+     * Schedules the periodic warm-up, unless it is already scheduled, or cancels it when its
+     * interval is 0. The job survives reboots; the alarm of the older versions does not, and is
+     * scheduled again the next time the app starts.
+     */
+    public static void schedule(Context context) {
+        long intervalMillis = context.getResources().getInteger(R.integer.warm_up_interval_hours) * HOUR_MILLIS;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            scheduleJob(context, intervalMillis);
+        } else {
+            scheduleAlarm(context, intervalMillis);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static void scheduleJob(Context context, long intervalMillis) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (intervalMillis <= 0) {
+            scheduler.cancel(JOB_ID);
+            return;
+        }
+        Resources resources = context.getResources();
+        JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, CacheWarmingJobService.class))
+                .setPeriodic(intervalMillis)
+                .setRequiresCharging(resources.getBoolean(R.bool.warm_up_requires_charging))
+                .setRequiresDeviceIdle(resources.getBoolean(R.bool.warm_up_requires_idle))
+                .setRequiredNetworkType(resources.getBoolean(R.bool.warm_up_requires_unmetered)
+                        ? JobInfo.NETWORK_TYPE_UNMETERED : JobInfo.NETWORK_TYPE_ANY)
+                .setPersisted(true)
+                .build();
+
+        // Scheduling the same job again would start its period over on every launch
+        for (JobInfo pending : scheduler.getAllPendingJobs()) {
+            if (pending.getId() == JOB_ID && pending.getIntervalMillis() == job.getIntervalMillis()
+                    && pending.isRequireCharging() == job.isRequireCharging()
+                    && pending.isRequireDeviceIdle() == job.isRequireDeviceIdle()
+                    && pending.getNetworkType() == job.getNetworkType()) {
+                return;
+            }
+        }
+        scheduler.schedule(job);
+    }
+
+    private static void scheduleAlarm(Context context, long intervalMillis) {
+        AlarmManager alarms = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        Intent intent = new Intent(context, CacheWarmingService.class);
+        if (intervalMillis <= 0) {
+            PendingIntent scheduled = PendingIntent.getService(context, 0, intent, PendingIntent.FLAG_NO_CREATE);
+            if (scheduled != null) {
+                alarms.cancel(scheduled);
+                scheduled.cancel();
+            }
+            return;
+        }
+
+        // The pending intent only exists while the alarm is set
+        if (PendingIntent.getService(context, 0, intent, PendingIntent.FLAG_NO_CREATE) != null) {
+            return;
+        }
+        alarms.setInexactRepeating(AlarmManager.ELAPSED_REALTIME, SystemClock.elapsedRealtime() + intervalMillis,
+                intervalMillis, PendingIntent.getService(context, 0, intent, 0));
+    }
+
+    /**
+     * Returns true if the device meets the configured conditions of the warm-up: charging,
+     * on an unmetered network, and not in use. Only needed before API 21, since the JobScheduler
+     * waits for the conditions itself.
+     */
+    @SuppressWarnings("deprecation")
+    static boolean canWarmUpNow(Context context) {
+        Resources resources = context.getResources();
+        ConnectivityManager connectivity = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo network = connectivity.getActiveNetworkInfo();
+        if (network == null || !network.isConnected()) {
+            return false;
+        }
+        if (resources.getBoolean(R.bool.warm_up_requires_unmetered) && connectivity.isActiveNetworkMetered()) {
+            return false;
+        }
+        if (resources.getBoolean(R.bool.warm_up_requires_charging)) {
+            // The battery status is a sticky broadcast, so no receiver is registered
+            Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+            if (battery == null || battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) == 0) {
+                return false;
+            }
+        }
+        if (resources.getBoolean(R.bool.warm_up_requires_idle)) {
+            // PowerManager.isInteractive() only exists from API 20
+            PowerManager power = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+            if (power.isScreenOn()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Refreshes the first pages of the pinned queries, then of the most searched ones, until the
+     * budget of the warm-up is spent. Runs on a background thread, and returns once the books are
+     * stored.
+     *
+     * @param context            of the app
+     * @param cancellationSignal stops the warm-up, and disconnects its request in flight
+     * @return false if the warm-up was cancelled
+     */
+    static boolean warmUp(Context context, CancellationSignal cancellationSignal) {
+        Resources resources = context.getResources();
+
+        // The process may have been started for the warm-up alone
+        if (QueryHistory.getInstalled() == null) {
+            BookActivity.installNetworkAndCaches(context);
+        }
+        QueryHistory queryHistory = QueryHistory.getInstalled();
+        if (queryHistory == null) {
+            return true;
+        }
+        LinkedHashSet<String> queries = new LinkedHashSet<>(queryHistory.getPinnedQueries());
+        queries.addAll(queryHistory.getFrequentQueries(resources.getInteger(R.integer.warm_up_min_searches),
+                resources.getInteger(R.integer.warm_up_frequent_queries)));
+
+        // The pages a new query requests first
+        return warmUp(queries, resources.getString(R.string.books_base_url),
+                resources.getInteger(R.integer.page_size),
+                Math.max(1, resources.getInteger(R.integer.fan_out_pages)),
+                resources.getInteger(R.integer.loader_timeout_ms),
+                resources.getInteger(R.integer.warm_up_max_requests),
+                resources.getInteger(R.integer.warm_up_max_kb) * 1024L, cancellationSignal);
+    }
+
+    /**
+     * Refreshes the first pages of the given queries, in their order, until maxRequests requests
+     * were sent or maxBytes bytes were downloaded. The books are written into the response cache
+     * by the request itself, and into the result cache and the offline store here.
+     *
+     * @param queries            are the queries to refresh
+     * @param baseUrl            is the volumes endpoint the pages are requested from
+     * @param pageSize           is the number of books of a page
+     * @param pages              is the number of first pages refreshed per query
+     * @param timeoutMillis      is the timeout of a request
+     * @param maxRequests        is the number of requests sent at most
+     * @param maxBytes           is the number of bytes after which no request is sent anymore
+     * @param cancellationSignal stops the warm-up, and disconnects its request in flight
+     * @return false if the warm-up was cancelled
+     */
+    static boolean warmUp(Collection<String> queries, String baseUrl, int pageSize, int pages,
+                          int timeoutMillis, int maxRequests, long maxBytes,
+                          CancellationSignal cancellationSignal) {
+        // The requests of the warm-up are measured apart from the ones of the app, so the
+        // budget only counts the bytes downloaded here
+        RequestMetrics metrics = new RequestMetrics();
+        QueryResultCache resultCache = QueryResultCache.getInstalled();
+        BookStore bookStore = BookStore.getInstalled();
+        Future<?> lastWrite = null;
+        int requests = 0;
+        int warmedQueries = 0;
+        boolean cancelled = false;
+
+        search:
+        for (String query : queries) {
+            for (int page = 0; page < pages; page++) {
+                if (cancellationSignal.isCanceled()) {
+                    cancelled = true;
+                    break search;
+                }
+                if (requests >= maxRequests || metrics.getBytes().getSum() >= maxBytes) {
+                    Log.i(LOG_TAG, "Warm-up budget spent after " + warmedQueries + " of " + queries.size() + " queries");
+                    break search;
+                }
+                int startIndex = page * pageSize;
+                RequestMetrics.Request request = metrics.newRequest();
+                ArrayList<Book> books = Utils.fetchBooksData(Utils.buildSearchUrl(baseUrl,
+                        query, startIndex, pageSize), false, cancellationSignal, timeoutMillis, request);
+                requests++;
+                if (books == null) {
+                    request.failed();
+                    break;
+                }
+                request.delivered();
+                if (resultCache != null) {
+                    resultCache.put(QueryResultCache.keyOf(query, startIndex, pageSize), books);
+                }
+                if (bookStore != null && !books.isEmpty()) {
+                    lastWrite = bookStore.saveAsync(books);
+                }
+                if (page == 0) {
+                    warmedQueries++;
+                }
+                // The query has no more books
+                if (books.size() < pageSize) {
+                    break;
+                }
+            }
+        }
+
+        // The store writes in order, so the last write finishing means every book is stored
+        if (lastWrite != null) {
+            try {
+                lastWrite.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                Log.e(LOG_TAG, "Problem storing the warmed up books:", e);
+            }
+        }
+        Log.i(LOG_TAG, "Warmed up " + warmedQueries + " queries with " + requests + " requests, "
+                + metrics.getBytes().getSum() / 1024 + " KB downloaded");
+        return !cancelled;
+    }
+}
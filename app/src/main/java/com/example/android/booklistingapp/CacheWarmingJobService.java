@@ -0,0 +1,65 @@
+package com.example.android.booklistingapp;
+
+import android.annotation.TargetApi;
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.os.AsyncTask;
+import android.os.Build;
+import android.os.CancellationSignal;
+
+/**
+ * Runs the periodic warm-up of the {@link CacheWarmer} once the JobScheduler finds the device
+ * charging, idle or on an unmetered network, as configured. Only used from API 21.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class CacheWarmingJobService extends JobService {
+
+    // The warm-up running, or null
+    private WarmUpTask task;
+
+    // The job runs on the main thread, so the warm-up is run on a background thread, and the job
+    // is only finished once it is done.
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        task = new WarmUpTask(params);
+        task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        return true;
+    }
+
+    // The conditions are no longer met: stop the warm-up, and wait for the next period rather
+    // than retrying right away.
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        if (task != null) {
+            task.cancellationSignal.cancel();
+            task = null;
+        }
+        return false;
+    }
+
+    private class WarmUpTask extends AsyncTask<Void, Void, Void> {
+
+        // The job running the warm-up
+        private final JobParameters params;
+        // Stops the warm-up when the job is stopped
+        private final CancellationSignal cancellationSignal = new CancellationSignal();
+
+        WarmUpTask(JobParameters params) {
+            this.params = params;
+        }
+
+        @Override
+        protected Void doInBackground(Void... ignored) {
+            CacheWarmer.warmUp(getApplicationContext(), cancellationSignal);
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(Void ignored) {
+            if (task == this) {
+                task = null;
+                jobFinished(params, false);
+            }
+        }
+    }
+}
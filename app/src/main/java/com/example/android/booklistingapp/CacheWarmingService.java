@@ -0,0 +1,25 @@
+package com.example.android.booklistingapp;
+
+import android.app.IntentService;
+import android.content.Intent;
+import android.os.CancellationSignal;
+
+/**
+ * Runs the periodic warm-up of the {@link CacheWarmer} when its alarm goes off, before API 21.
+ * The alarm cannot wait for the device to be charging or on an unmetered network, so the
+ * warm-up is skipped until the next alarm when it is not.
+ */
+public class CacheWarmingService extends IntentService {
+
+    public CacheWarmingService() {
+        super(CacheWarmingService.class.getSimpleName());
+    }
+
+    // Runs on the background thread of the service.
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        if (CacheWarmer.canWarmUpNow(this)) {
+            CacheWarmer.warmUp(getApplicationContext(), new CancellationSignal());
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.example.android.booklistingapp;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.text.TextUtils;
+import android.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Lays out the descriptions of the books on a background thread, for the width of the rows, so
+ * binding a row never measures text on the main thread. A description is first laid out as a
+ * preview of a few lines ending with an ellipsis; the whole description is only laid out when
+ * the row is expanded. The layouts are cached by book, width and expansion, and the rows about
+ * to scroll into view can be laid out ahead of time.
+ */
+final class DescriptionLayouts {
+
+    // Appended to a description cut short
+    private static final String ELLIPSIS = "…";
+    // Characters measured at most per line of a preview; a longer description is cut before
+    // being measured, since the rest of it can never be shown in the preview
+    private static final int PREVIEW_CHARS_PER_LINE = 160;
+
+    // Single background thread laying out the descriptions
+    private static final ExecutorService LAYOUT_EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "DescriptionLayouts");
+        }
+    });
+
+    // Handler of the main thread, where the layouts are delivered
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // The paint of the descriptions, never changed, so both threads can read it
+    private final TextPaint paint;
+    // Lays out the text of the descriptions
+    private final LayoutFactory layoutFactory;
+    // Number of lines of the preview of a description
+    private final int previewLines;
+    // The layouts computed, by key
+    private final LruCache<String, Entry> layouts;
+    // The views waiting for the layouts being computed, by key; only touched on the main thread
+    private final HashMap<String, ArrayList<DescriptionView>> waiting = new HashMap<>();
+    // Width of the text of the descriptions, in pixels, once a row has been measured, or 0
+    private int width;
+
+    /**
+     * Creates the layouts of the descriptions of a list.
+     *
+     * @param paint        is the paint of the descriptions, which must not change afterwards
+     * @param previewLines is the number of lines of the preview of a description
+     * @param maxLayouts   is the number of layouts kept in memory
+     */
+    DescriptionLayouts(final TextPaint paint, int previewLines, int maxLayouts) {
+        this(paint, new LayoutFactory() {
+            @Override
+            public Layout newLayout(CharSequence text, int width) {
+                return new StaticLayout(text, paint, Math.max(1, width), Layout.Alignment.ALIGN_NORMAL, 1f, 0f, false);
+            }
+        }, previewLines, maxLayouts);
+    }
+
+    // Creates the layouts of the descriptions of a list, laid out by the given factory.
+    DescriptionLayouts(TextPaint paint, LayoutFactory layoutFactory, int previewLines, int maxLayouts) {
+        this.paint = paint;
+        this.layoutFactory = layoutFactory;
+        this.previewLines = Math.max(1, previewLines);
+        this.layouts = new LruCache<>(maxLayouts);
+    }
+
+    // Returns the height of the preview of a description of previewLines lines, in pixels, used
+    // for the rows whose layout is not computed yet.
+    int getPreviewHeight() {
+        return previewLines * paint.getFontMetricsInt(null);
+    }
+
+    // Remembers the width of the text of the rows, so the next rows can be laid out ahead.
+    void setWidth(int width) {
+        this.width = width;
+    }
+
+    /**
+     * Returns the layout of the description of the given book, or null if it has not been
+     * computed yet.
+     */
+    Entry get(Book book, int width, boolean expanded) {
+        return layouts.get(keyOf(book, width, expanded));
+    }
+
+    /**
+     * Computes the layout of the description of the given book in the background, and delivers
+     * it to the given view on the main thread unless the view was bound to another layout since.
+     */
+    void load(Book book, int width, boolean expanded, DescriptionView view) {
+        compute(keyOf(book, width, expanded), book, width, expanded).add(view);
+    }
+
+    /**
+     * Computes the preview of the description of the given book in the background, for the
+     * width of the rows measured so far, so it is ready when the row is bound.
+     */
+    void prefetch(Book book) {
+        if (width <= 0) {
+            return;
+        }
+        String key = keyOf(book, width, false);
+        if (layouts.get(key) == null) {
+            compute(key, book, width, false);
+        }
+    }
+
+    // Returns the key of a layout of the description of a book.
+    static String keyOf(Book book, int width, boolean expanded) {
+        String id = TextUtils.isEmpty(book.getId()) ? "@" + System.identityHashCode(book) : book.getId();
+        return id + '/' + width + (expanded ? "/all" : "/preview");
+    }
+
+    // Starts computing the given layout, unless it is already being computed, and returns the
+    // views waiting for it.
+    private ArrayList<DescriptionView> compute(final String key, final Book book, final int width,
+                                               final boolean expanded) {
+        ArrayList<DescriptionView> views = waiting.get(key);
+        if (views != null) {
+            return views;
+        }
+        views = new ArrayList<>(1);
+        waiting.put(key, views);
+        LAYOUT_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Entry entry = layOut(book.getDescription(), width, expanded);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        layouts.put(key, entry);
+                        ArrayList<DescriptionView> views = waiting.remove(key);
+                        if (views != null) {
+                            for (DescriptionView view : views) {
+                                view.onLayoutComputed(key, entry);
+                            }
+                        }
+                    }
+                });
+            }
+        });
+        return views;
+    }
+
+    // Lays out the given text, or its first previewLines lines ending with an ellipsis.
+    Entry layOut(String text, int width, boolean expanded) {
+        if (text == null) {
+            text = "";
+        }
+        if (expanded) {
+            return new Entry(layoutFactory.newLayout(text, width), false, text);
+        }
+        int maxChars = previewLines * PREVIEW_CHARS_PER_LINE;
+        String measured = text.length() > maxChars ? text.substring(0, maxChars) : text;
+        Layout layout = layoutFactory.newLayout(measured, width);
+        if (layout.getLineCount() <= previewLines && measured.length() == text.length()) {
+            return new Entry(layout, false, text);
+        }
+
+        // Keep the words of the first lines, dropping the last ones until the ellipsis fits. On
+        // a wide row, the text cut short may take fewer lines than the preview.
+        int lastLine = Math.min(previewLines, layout.getLineCount()) - 1;
+        String preview = measured.substring(0, layout.getLineEnd(lastLine)).trim();
+        while (true) {
+            layout = layoutFactory.newLayout(preview + ELLIPSIS, width);
+            int lastSpace = preview.lastIndexOf(' ');
+            if (layout.getLineCount() <= previewLines || lastSpace <= 0) {
+                return new Entry(layout, true, text);
+            }
+            preview = preview.substring(0, lastSpace).trim();
+        }
+    }
+
+    /**
+     * Lays out a text for a width, with a StaticLayout unless the tests replace it.
+     */
+    interface LayoutFactory {
+        Layout newLayout(CharSequence text, int width);
+    }
+
+    /**
+     * The layout of a description, whether it is a preview cut short, and the whole description,
+     * decoded on the layout thread for the screen readers.
+     */
+    static final class Entry {
+
+        final Layout layout;
+        final boolean truncated;
+        final String text;
+
+        Entry(Layout layout, boolean truncated, String text) {
+            this.layout = layout;
+            this.truncated = truncated;
+            this.text = text;
+        }
+    }
+}
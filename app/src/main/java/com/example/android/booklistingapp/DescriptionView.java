@@ -0,0 +1,123 @@
+package com.example.android.booklistingapp;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.text.Layout;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * Shows the description of a book from a layout computed in the background by
+ * {@link DescriptionLayouts}, instead of measuring the text on the main thread like a TextView.
+ * Until its layout is ready, the view takes the height of a preview and draws nothing. Screen
+ * readers read the whole description from its content description, since no text is drawn by a
+ * TextView; it is set with the layout, whose thread decoded the description, rather than decoding
+ * it on the main thread while binding.
+ */
+public class DescriptionView extends View {
+
+    // Computes the layouts of the descriptions, or null until the view is bound
+    private DescriptionLayouts layouts;
+    // The book whose description is shown
+    private Book book;
+    // True when the whole description is shown rather than its preview
+    private boolean expanded;
+    // The key of the layout the view waits for or shows
+    private String key;
+    // The layout drawn, which may still be the one of the previous state of the same book
+    private DescriptionLayouts.Entry entry;
+
+    public DescriptionView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+    }
+
+    /**
+     * Shows the description of the given book, whole or as a preview. While the layout of an
+     * expanded or collapsed description is computed, the previous one of the same book stays.
+     */
+    void bind(DescriptionLayouts layouts, Book book, boolean expanded) {
+        if (this.book != book) {
+            entry = null;
+            setContentDescription(null);
+        }
+        this.layouts = layouts;
+        this.book = book;
+        this.expanded = expanded;
+        this.key = null;
+        updateClickable();
+        int width = getWidth() - getPaddingLeft() - getPaddingRight();
+        if (width > 0) {
+            requestLayoutOf(width);
+        }
+        requestLayout();
+        invalidate();
+    }
+
+    // Returns true if the description is cut short or expanded, so tapping it changes it.
+    boolean isExpandable() {
+        return expanded || (entry != null && entry.truncated);
+    }
+
+    // Only a description that tapping changes is announced as clickable.
+    private void updateClickable() {
+        setClickable(isExpandable());
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int width = MeasureSpec.getSize(widthMeasureSpec);
+        int textWidth = width - getPaddingLeft() - getPaddingRight();
+        int height = getPaddingTop() + getPaddingBottom();
+        if (layouts != null && book != null && textWidth > 0) {
+            layouts.setWidth(textWidth);
+            requestLayoutOf(textWidth);
+            height += entry != null ? entry.layout.getHeight() : layouts.getPreviewHeight();
+        }
+        setMeasuredDimension(width, resolveSize(height, heightMeasureSpec));
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (entry == null) {
+            return;
+        }
+        canvas.save();
+        canvas.translate(getPaddingLeft(), getPaddingTop());
+        entry.layout.draw(canvas);
+        canvas.restore();
+    }
+
+    // Shows the layout of the current state right away if it is cached, otherwise asks for it.
+    private void requestLayoutOf(int textWidth) {
+        String wanted = DescriptionLayouts.keyOf(book, textWidth, expanded);
+        if (wanted.equals(key)) {
+            return;
+        }
+        key = wanted;
+        DescriptionLayouts.Entry cached = layouts.get(book, textWidth, expanded);
+        if (cached != null) {
+            // Used by the measure in progress, or the one requested by bind()
+            entry = cached;
+            setContentDescription(entry.text);
+            updateClickable();
+            invalidate();
+            return;
+        }
+        layouts.load(book, textWidth, expanded, this);
+    }
+
+    // Called on the main thread with a computed layout; ignored if the view was bound since.
+    void onLayoutComputed(String key, DescriptionLayouts.Entry entry) {
+        if (!key.equals(this.key)) {
+            return;
+        }
+        Layout previous = this.entry == null ? null : this.entry.layout;
+        this.entry = entry;
+        setContentDescription(entry.text);
+        updateClickable();
+        if (previous == null || previous.getHeight() != entry.layout.getHeight()) {
+            requestLayout();
+        }
+        invalidate();
+    }
+}
@@ -0,0 +1,482 @@
+package com.example.android.booklistingapp;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.text.TextUtils;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads the cover thumbnails of the books into ImageViews. Covers are downloaded and decoded on
+ * a small pool of background threads, downsampled to the size of the view they are shown in, and
+ * kept in a memory cache bounded in bytes, backed by a disk cache of the downloaded images.
+ * A view only ever waits for its latest cover: loading another one, or cancelling the view when
+ * its row is recycled, stops the previous request unless another view is waiting for it.
+ * Every method must be called on the main thread.
+ */
+public final class ImageLoader {
+
+    // Tag for the log messages
+    private static final String LOG_TAG = ImageLoader.class.getSimpleName();
+    // Suffix of the images being downloaded, which are not in the disk cache yet
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    // The loader installed by the app, or null when covers are not shown
+    private static ImageLoader installed;
+
+    // The decoding threads. Their queue needs no bound: it holds at most one job per bound row,
+    // since recycled rows cancel theirs, plus the limited number of prefetched covers.
+    private final ThreadPoolExecutor executor;
+    // Handler of the main thread, where the covers are set on their views
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Decoded covers by URL and size, bounded by their number of bytes
+    private final LruCache<String, Bitmap> memoryCache;
+    // Directory of the downloaded images
+    private final File directory;
+    // The maximum number of bytes of the downloaded images
+    private final long maxDiskBytes;
+    // The maximum number of covers prefetched at the same time
+    private final int maxPrefetches;
+    // The covers being loaded, by URL and size; only touched on the main thread
+    private final HashMap<String, Job> jobs = new HashMap<>();
+    // The cover each view is waiting for. Weak, so a view dropped without being cancelled
+    // does not leak its activity.
+    private final WeakHashMap<ImageView, Job> targets = new WeakHashMap<>();
+    // The prefetched covers no view is waiting for yet, oldest first
+    private final ArrayDeque<Job> prefetches = new ArrayDeque<>();
+    // Number of bytes of the downloaded images, or -1 until the directory has been measured
+    private long diskSize = -1;
+
+    private ImageLoader(File directory, int memoryCacheBytes, long maxDiskBytes, int parallelism,
+                        int maxPrefetches) {
+        this.directory = directory;
+        this.maxDiskBytes = maxDiskBytes;
+        this.maxPrefetches = maxPrefetches;
+        this.memoryCache = new LruCache<String, Bitmap>(memoryCacheBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+        this.executor = new ThreadPoolExecutor(parallelism, parallelism, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "ImageLoader #" + count.incrementAndGet());
+            }
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Installs the image loader of the app, deleting the images left half downloaded.
+     * Installing it again returns the loader that is already installed.
+     *
+     * @param directory        is the directory of the disk cache
+     * @param memoryCacheBytes is the maximum number of bytes of the decoded covers kept in memory
+     * @param maxDiskBytes     is the maximum number of bytes of the downloaded images
+     * @param parallelism      is the number of covers loaded at the same time
+     * @param maxPrefetches    is the maximum number of covers prefetched at the same time
+     */
+    public static synchronized ImageLoader install(File directory, int memoryCacheBytes,
+                                                   long maxDiskBytes, int parallelism,
+                                                   int maxPrefetches) {
+        if (installed == null) {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                Log.e(LOG_TAG, "Cannot create the image cache directory " + directory);
+            }
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (file.getName().endsWith(TEMP_SUFFIX)) {
+                        file.delete();
+                    }
+                }
+            }
+            installed = new ImageLoader(directory, memoryCacheBytes, maxDiskBytes, parallelism,
+                    maxPrefetches);
+        }
+        return installed;
+    }
+
+    // Returns the installed loader, or null when there is none.
+    public static synchronized ImageLoader getInstalled() {
+        return installed;
+    }
+
+    /**
+     * Shows the cover at the given URL in the given view, downsampled to the given size.
+     * A cover in the memory cache is shown right away; otherwise the view is cleared until the
+     * cover has been loaded in the background. The previous request of the view is cancelled.
+     *
+     * @param url    is the URL of the cover, or an empty string when there is none
+     * @param view   is the view showing the cover
+     * @param width  is the width of the view, in pixels
+     * @param height is the height of the view, in pixels
+     */
+    public void load(String url, ImageView view, int width, int height) {
+        cancel(view);
+        if (TextUtils.isEmpty(url)) {
+            view.setImageDrawable(null);
+            return;
+        }
+        String key = keyOf(url, width, height);
+        Bitmap bitmap = memoryCache.get(key);
+        if (bitmap != null) {
+            view.setImageBitmap(bitmap);
+            return;
+        }
+        view.setImageDrawable(null);
+
+        Job job = jobs.get(key);
+        if (job == null) {
+            job = start(key, url, width, height);
+        } else if (job.prefetch) {
+            // The prefetched cover is now on screen, so it is no longer dropped for newer ones
+            job.prefetch = false;
+            prefetches.remove(job);
+        }
+        job.views.add(view);
+        targets.put(view, job);
+    }
+
+    /**
+     * Loads the cover at the given URL into the memory cache, so it can be shown right away when
+     * its row scrolls into view. Only the newest prefetches are kept: the oldest one is cancelled
+     * once there are too many, so a fling does not pile up covers that are already behind.
+     */
+    public void prefetch(String url, int width, int height) {
+        if (TextUtils.isEmpty(url)) {
+            return;
+        }
+        String key = keyOf(url, width, height);
+        if (jobs.containsKey(key) || memoryCache.get(key) != null) {
+            return;
+        }
+        Job job = start(key, url, width, height);
+        job.prefetch = true;
+        prefetches.addLast(job);
+        while (prefetches.size() > maxPrefetches) {
+            cancel(prefetches.removeFirst());
+        }
+    }
+
+    /**
+     * Stops loading a cover into the given view, typically because its row was recycled.
+     * The download itself is only stopped when no other view is waiting for it.
+     */
+    public void cancel(ImageView view) {
+        Job job = targets.remove(view);
+        if (job != null && job.views.remove(view) && job.views.isEmpty() && !job.prefetch) {
+            cancel(job);
+        }
+    }
+
+    /**
+     * Evicts decoded covers from memory when the system asks the app to release memory.
+     *
+     * @param level is the level passed to {@link ComponentCallbacks2#onTrimMemory(int)}
+     */
+    public void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            // The process is likely to be killed soon, so keep nothing
+            memoryCache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            memoryCache.trimToSize(memoryCache.maxSize() / 2);
+        }
+    }
+
+    // Start loading a cover on the decoding threads.
+    private Job start(String key, String url, int width, int height) {
+        Job job = new Job(key, url, width, height);
+        jobs.put(key, job);
+        executor.execute(job.task);
+        return job;
+    }
+
+    // Stop a job: a waiting job never starts, a running one stops before decoding.
+    private void cancel(Job job) {
+        jobs.remove(job.key);
+        prefetches.remove(job);
+        job.cancelled = true;
+        job.task.cancel(false);
+        executor.remove(job.task);
+    }
+
+    // Show a loaded cover in every view waiting for it. Runs on the main thread.
+    private void finish(Job job, Bitmap bitmap) {
+        if (jobs.get(job.key) != job) {
+            // Already cancelled
+            return;
+        }
+        jobs.remove(job.key);
+        prefetches.remove(job);
+        for (ImageView view : job.views) {
+            targets.remove(view);
+            if (bitmap != null) {
+                view.setImageBitmap(bitmap);
+            }
+        }
+        job.views.clear();
+    }
+
+    // Load a cover from the disk cache, downloading it first if needed, and decode it.
+    // Runs on a decoding thread.
+    private Bitmap loadBitmap(Job job) {
+        File file = new File(directory, hashOf(job.url));
+        if (file.isFile()) {
+            // Mark the image as recently used, so it is the last one evicted
+            file.setLastModified(System.currentTimeMillis());
+        } else if (!download(job, file)) {
+            return null;
+        }
+        if (job.cancelled) {
+            return null;
+        }
+        return decode(file, job.width, job.height);
+    }
+
+    // Download an image into the given file of the disk cache, and return true if it succeeded.
+    private boolean download(Job job, File file) {
+        File temp = new File(directory, file.getName() + TEMP_SUFFIX);
+        HttpURLConnection urlConnection = null;
+        InputStream in = null;
+        OutputStream out = null;
+        try {
+            // Google Books gives http links to the covers, which are also served over https
+            URL url = new URL(job.url.replaceFirst("^http://", "https://"));
+            urlConnection = (HttpURLConnection) url.openConnection();
+            urlConnection.setConnectTimeout(Utils.getConnectTimeoutMillis());
+            urlConnection.setReadTimeout(Utils.getReadTimeoutMillis());
+            if (urlConnection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                Log.e(LOG_TAG, "Error response code " + urlConnection.getResponseCode() + " for a cover");
+                return false;
+            }
+            in = urlConnection.getInputStream();
+            out = new FileOutputStream(temp);
+            byte[] buffer = new byte[8192];
+            long length = 0;
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                if (job.cancelled) {
+                    return false;
+                }
+                out.write(buffer, 0, count);
+                length += count;
+            }
+            out.close();
+            out = null;
+            if (!temp.renameTo(file)) {
+                return false;
+            }
+            addToDisk(length);
+            return true;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem downloading a cover:", e);
+            return false;
+        } finally {
+            closeQuietly(out);
+            closeQuietly(in);
+            if (urlConnection != null) {
+                urlConnection.disconnect();
+            }
+            temp.delete();
+        }
+    }
+
+    // Count a newly downloaded image, and evict the least recently used images once the disk
+    // cache is over its size.
+    private synchronized void addToDisk(long bytes) {
+        if (diskSize < 0) {
+            diskSize = 0;
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    diskSize += file.length();
+                }
+            }
+        } else {
+            diskSize += bytes;
+        }
+        if (diskSize <= maxDiskBytes) {
+            return;
+        }
+
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long difference = a.lastModified() - b.lastModified();
+                return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+            }
+        });
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+        for (int i = 0; i < files.length && size > maxDiskBytes; i++) {
+            if (!files[i].getName().endsWith(TEMP_SUFFIX)) {
+                long length = files[i].length();
+                if (files[i].delete()) {
+                    size -= length;
+                }
+            }
+        }
+        diskSize = size;
+    }
+
+    // Decode an image no larger than needed for the given size. Covers have no transparency, so
+    // they are decoded with two bytes per pixel. An image that cannot be decoded is deleted.
+    private static Bitmap decode(File file, int width, int height) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+        if (options.outWidth > 0 && options.outHeight > 0) {
+            options.inSampleSize = sampleSizeOf(options.outWidth, options.outHeight, width, height);
+            options.inJustDecodeBounds = false;
+            options.inPreferredConfig = Bitmap.Config.RGB_565;
+            Bitmap bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+            if (bitmap != null) {
+                return bitmap;
+            }
+        }
+        Log.e(LOG_TAG, "Cannot decode the cover " + file.getName());
+        file.delete();
+        return null;
+    }
+
+    // Returns the largest power of two the image can be divided by while still covering the
+    // requested size.
+    static int sampleSizeOf(int imageWidth, int imageHeight, int width, int height) {
+        int sampleSize = 1;
+        while (imageWidth / (sampleSize * 2) >= width && imageHeight / (sampleSize * 2) >= height) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    // Returns the key of a decoded cover in the memory cache.
+    private static String keyOf(String url, int width, int height) {
+        return width + "x" + height + ":" + url;
+    }
+
+    // Returns the name of the file of a downloaded image: the hex MD5 of its URL.
+    private static String hashOf(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(url.getBytes(Charset.forName("UTF-8")));
+            StringBuilder hash = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hash.append(Character.forDigit((b >> 4) & 0xf, 16));
+                hash.append(Character.forDigit(b & 0xf, 16));
+            }
+            return hash.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(url.hashCode());
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Nothing left to do with it
+            }
+        }
+    }
+
+    /**
+     * A cover being loaded, with every view waiting for it.
+     */
+    private final class Job {
+
+        private final String key;
+        private final String url;
+        private final int width;
+        private final int height;
+        private final ArrayList<ImageView> views = new ArrayList<>();
+        private final FutureTask<Bitmap> task;
+        // True while no view is waiting for the cover, so it may be dropped for newer prefetches
+        private boolean prefetch;
+        // Set on the main thread, read by the decoding thread to stop early
+        private volatile boolean cancelled;
+
+        Job(String key, String url, int width, int height) {
+            this.key = key;
+            this.url = url;
+            this.width = width;
+            this.height = height;
+            this.task = new FutureTask<Bitmap>(new Callable<Bitmap>() {
+                @Override
+                public Bitmap call() {
+                    Bitmap bitmap = loadBitmap(Job.this);
+                    if (bitmap != null) {
+                        memoryCache.put(Job.this.key, bitmap);
+                    }
+                    return bitmap;
+                }
+            }) {
+                @Override
+                protected void done() {
+                    if (isCancelled()) {
+                        return;
+                    }
+                    Bitmap bitmap = null;
+                    try {
+                        bitmap = get();
+                    } catch (Exception e) {
+                        Log.e(LOG_TAG, "Problem loading a cover:", e);
+                    }
+                    final Bitmap result = bitmap;
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            finish(Job.this, result);
+                        }
+                    });
+                }
+            };
+        }
+    }
+}
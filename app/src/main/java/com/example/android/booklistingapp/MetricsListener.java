@@ -0,0 +1,48 @@
+package com.example.android.booklistingapp;
+
+import com.example.android.booklistingapp.core.RequestListener;
+
+// Adds the phases of a request measured by the search core to the metrics of the request, and
+// gives its sections to the tracer of the RequestMetrics.
+final class MetricsListener implements RequestListener {
+
+    // The measures of the request, or null when requests are not measured
+    private final RequestMetrics.Request metrics;
+    // Size of the last body received, or -1 before any was received
+    private long bytesReceived = -1;
+
+    MetricsListener(RequestMetrics.Request metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void beginSection(String name) {
+        RequestMetrics.beginSection(name);
+    }
+
+    @Override
+    public void endSection() {
+        RequestMetrics.endSection();
+    }
+
+    @Override
+    public void onPhase(Phase phase, long nanos) {
+        if (metrics != null) {
+            metrics.add(RequestMetrics.Phase.valueOf(phase.name()), nanos);
+        }
+    }
+
+    // Returns the size of the body received as it was sent, or -1 when there was none.
+    long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    @Override
+    public void onBody(long bytesReceived, int itemsParsed) {
+        this.bytesReceived = bytesReceived;
+        if (metrics != null) {
+            metrics.setBytesReceived(bytesReceived);
+            metrics.setItemsParsed(itemsParsed);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.example.android.booklistingapp;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The queries the user pinned, and how many times every recent query was submitted, kept in
+ * shared preferences so the {@link CacheWarmer} can refresh them in the background while the app
+ * is not running. Queries are kept as they were typed, since that is how they are sent to Google
+ * Books and cached. A bounded number of queries is counted; among the least searched ones, the
+ * one searched longest ago is forgotten first, so a new query stays long enough to be searched
+ * again.
+ */
+public final class QueryHistory {
+
+    // Name of the preferences holding the pinned queries
+    private static final String PINNED_PREFERENCES = "pinned-queries";
+    // Name of the preferences holding the number of searches of every query
+    private static final String COUNTS_PREFERENCES = "query-counts";
+    // Name of the preferences holding the order of the last search of every query
+    private static final String RECENCY_PREFERENCES = "query-recency";
+
+    // The history installed by the app, or null
+    private static QueryHistory installed;
+
+    // The pinned queries, as keys
+    private final SharedPreferences pinned;
+    // The number of searches, by query
+    private final SharedPreferences counts;
+    // The order of the last search, by query; a later search has a greater order
+    private final SharedPreferences recency;
+    // Number of queries counted at most
+    private final int maxQueries;
+
+    QueryHistory(Context context, int maxQueries) {
+        Context appContext = context.getApplicationContext();
+        this.pinned = appContext.getSharedPreferences(PINNED_PREFERENCES, Context.MODE_PRIVATE);
+        this.counts = appContext.getSharedPreferences(COUNTS_PREFERENCES, Context.MODE_PRIVATE);
+        this.recency = appContext.getSharedPreferences(RECENCY_PREFERENCES, Context.MODE_PRIVATE);
+        this.maxQueries = Math.max(1, maxQueries);
+    }
+
+    /**
+     * Installs the query history of the app.
+     * Installing it again returns the history that is already installed.
+     *
+     * @param context    of the app
+     * @param maxQueries is the number of queries counted at most
+     */
+    public static synchronized QueryHistory install(Context context, int maxQueries) {
+        if (installed == null) {
+            installed = new QueryHistory(context, maxQueries);
+        }
+        return installed;
+    }
+
+    // Returns the installed history, or null when there is none.
+    public static synchronized QueryHistory getInstalled() {
+        return installed;
+    }
+
+    /**
+     * Counts one more search of the given query, forgetting the least searched query when too
+     * many are counted, the one searched longest ago among them. The preferences are written in
+     * the background.
+     */
+    public synchronized void recordSearch(String query) {
+        query = query.trim();
+        if (query.isEmpty()) {
+            return;
+        }
+        Map<String, ?> all = counts.getAll();
+        Map<String, ?> orders = recency.getAll();
+        SharedPreferences.Editor countsEditor = counts.edit();
+        SharedPreferences.Editor recencyEditor = recency.edit();
+        if (!all.containsKey(query) && all.size() >= maxQueries) {
+            String forgotten = leastValuable(all, orders);
+            countsEditor.remove(forgotten);
+            recencyEditor.remove(forgotten);
+        }
+        countsEditor.putInt(query, counts.getInt(query, 0) + 1);
+        recencyEditor.putLong(query, lastOrder(orders) + 1);
+        countsEditor.apply();
+        recencyEditor.apply();
+    }
+
+    // Returns true if the given query is pinned.
+    public boolean isPinned(String query) {
+        return pinned.contains(query.trim());
+    }
+
+    /**
+     * Pins the given query, so it is refreshed in the background however rarely it is searched,
+     * or unpins it.
+     */
+    public void setPinned(String query, boolean pin) {
+        query = query.trim();
+        if (query.isEmpty()) {
+            return;
+        }
+        if (pin) {
+            pinned.edit().putLong(query, System.currentTimeMillis()).apply();
+        } else {
+            pinned.edit().remove(query).apply();
+        }
+    }
+
+    // Returns the pinned queries, the most recently pinned first.
+    public List<String> getPinnedQueries() {
+        final Map<String, ?> all = pinned.getAll();
+        ArrayList<String> queries = new ArrayList<>(all.keySet());
+        Collections.sort(queries, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                long pinnedA = (Long) all.get(a);
+                long pinnedB = (Long) all.get(b);
+                return pinnedA == pinnedB ? 0 : (pinnedA > pinnedB ? -1 : 1);
+            }
+        });
+        return queries;
+    }
+
+    /**
+     * Returns the queries searched at least minSearches times, the most searched first.
+     *
+     * @param minSearches is the number of searches a query needs to be returned
+     * @param limit       is the number of queries returned at most
+     */
+    public synchronized List<String> getFrequentQueries(int minSearches, int limit) {
+        Map<String, ?> all = counts.getAll();
+        ArrayList<String> frequent = new ArrayList<>();
+        for (String query : rankByCount(all)) {
+            if (frequent.size() >= limit || (Integer) all.get(query) < minSearches) {
+                break;
+            }
+            frequent.add(query);
+        }
+        return frequent;
+    }
+
+    // Returns the query searched the fewest times, the one searched longest ago among them. A
+    // query without an order was counted before the orders were kept, so it is the oldest.
+    private static String leastValuable(Map<String, ?> all, Map<String, ?> orders) {
+        String least = null;
+        int leastCount = Integer.MAX_VALUE;
+        long leastOrder = Long.MAX_VALUE;
+        for (Map.Entry<String, ?> entry : all.entrySet()) {
+            int count = (Integer) entry.getValue();
+            Object value = orders.get(entry.getKey());
+            long order = value instanceof Long ? (Long) value : 0;
+            if (count < leastCount || (count == leastCount && order < leastOrder)) {
+                least = entry.getKey();
+                leastCount = count;
+                leastOrder = order;
+            }
+        }
+        return least;
+    }
+
+    // Returns the order of the latest search, or 0 before the first one.
+    private static long lastOrder(Map<String, ?> orders) {
+        long last = 0;
+        for (Object value : orders.values()) {
+            if (value instanceof Long) {
+                last = Math.max(last, (Long) value);
+            }
+        }
+        return last;
+    }
+
+    // Returns the queries of the given counts, the most searched first; queries searched as many
+    // times are sorted alphabetically, so the ranking is stable.
+    private static List<String> rankByCount(final Map<String, ?> all) {
+        ArrayList<String> queries = new ArrayList<>(all.keySet());
+        Collections.sort(queries, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                int countA = (Integer) all.get(a);
+                int countB = (Integer) all.get(b);
+                return countA != countB ? countB - countA : a.compareTo(b);
+            }
+        });
+        return queries;
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.android.booklistingapp;
+
+import android.content.ComponentCallbacks2;
+import android.util.LruCache;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * An in-memory cache of the books already parsed for a query, so that submitting the same query
+ * again does not parse any JSON or create any Book object.
+ * Results are keyed by the normalized query and page, bounded by their estimated size in bytes,
+ * and expire after a time to live.
+ */
+public final class QueryResultCache {
+
+    // Runs of whitespace collapsed into a single space when normalizing a query
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    // Estimated size of a cached page besides its books: the key, the entry and the list
+    private static final int ENTRY_OVERHEAD_BYTES = 128;
+
+    // The cache installed by the app, or null when results are not cached
+    private static QueryResultCache installed;
+
+    // The cached pages, sized by the estimated number of bytes of their books
+    private final LruCache<String, Entry> entries;
+    // How long a page is kept, in milliseconds
+    private final long timeToLiveMillis;
+
+    // Number of pages found in the cache
+    private long hitCount;
+    // Number of pages not found in the cache, or found after they expired
+    private long missCount;
+    // Number of pages dropped to make room for other pages or because memory is low
+    private long evictionCount;
+
+    // Also used by the tests, which need a cache of their own rather than the installed one.
+    QueryResultCache(int maxSizeBytes, long timeToLiveMillis) {
+        this.timeToLiveMillis = timeToLiveMillis;
+        this.entries = new LruCache<String, Entry>(maxSizeBytes) {
+            @Override
+            protected int sizeOf(String key, Entry entry) {
+                return entry.sizeBytes;
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Entry oldValue, Entry newValue) {
+                if (evicted) {
+                    countEviction();
+                }
+            }
+        };
+    }
+
+    /**
+     * Installs the result cache of the app.
+     * Installing it again returns the cache that is already installed.
+     *
+     * @param maxSizeBytes     is the maximum estimated size of the cached books, in bytes
+     * @param timeToLiveMillis is how long a page is kept, in milliseconds
+     */
+    public static synchronized QueryResultCache install(int maxSizeBytes, long timeToLiveMillis) {
+        if (installed == null) {
+            installed = new QueryResultCache(maxSizeBytes, timeToLiveMillis);
+        }
+        return installed;
+    }
+
+    // Returns the installed cache, or null when there is none.
+    public static synchronized QueryResultCache getInstalled() {
+        return installed;
+    }
+
+    /**
+     * Returns the normalized form of a query: trimmed, case-folded, with every run of whitespace
+     * collapsed into a single space, and URL-encoded. Queries that only differ by these details
+     * return the same books.
+     */
+    public static String normalizeQuery(String query) {
+        String normalized = WHITESPACE.matcher(query.trim()).replaceAll(" ").toLowerCase(Locale.ROOT);
+        try {
+            return URLEncoder.encode(normalized, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            return normalized;
+        }
+    }
+
+    // Returns the key of one page of results of the given query.
+    public static String keyOf(String query, int startIndex, int maxResults) {
+        return normalizeQuery(query) + "&startIndex=" + startIndex + "&maxResults=" + maxResults;
+    }
+
+    /**
+     * Returns a copy of the cached books of the given key, or null if they are not cached
+     * or have expired.
+     */
+    public ArrayList<Book> get(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null && System.currentTimeMillis() - entry.storedAt >= timeToLiveMillis) {
+            entries.remove(key);
+            entry = null;
+        }
+        synchronized (this) {
+            if (entry == null) {
+                missCount++;
+                return null;
+            }
+            hitCount++;
+        }
+        return new ArrayList<>(entry.books);
+    }
+
+    // Caches a copy of the given books under the given key.
+    public void put(String key, List<Book> books) {
+        entries.put(key, new Entry(books, System.currentTimeMillis()));
+    }
+
+    /**
+     * Shrinks the cache when the system asks the app to release memory.
+     *
+     * @param level is the level passed to {@link ComponentCallbacks2#onTrimMemory(int)}
+     */
+    public void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            // The process is likely to be killed soon, so keep nothing
+            entries.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            entries.trimToSize(entries.maxSize() / 2);
+        }
+    }
+
+    // Returns the number of pages found in the cache.
+    public synchronized long hitCount() {
+        return hitCount;
+    }
+
+    // Returns the number of pages not found in the cache, or found after they expired.
+    public synchronized long missCount() {
+        return missCount;
+    }
+
+    // Returns the number of pages dropped for room or because memory was low.
+    public synchronized long evictionCount() {
+        return evictionCount;
+    }
+
+    // Returns the estimated number of bytes of the cached books.
+    public int size() {
+        return entries.size();
+    }
+
+    private synchronized void countEviction() {
+        evictionCount++;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.ROOT, "QueryResultCache[size=%d/%d,hits=%d,misses=%d,evictions=%d]",
+                entries.size(), entries.maxSize(), hitCount, missCount, evictionCount);
+    }
+
+    /**
+     * An immutable page of cached books.
+     */
+    private static final class Entry {
+
+        private final List<Book> books;
+        private final long storedAt;
+        private final int sizeBytes;
+
+        Entry(List<Book> books, long storedAt) {
+            this.books = Collections.unmodifiableList(new ArrayList<>(books));
+            this.storedAt = storedAt;
+            int size = ENTRY_OVERHEAD_BYTES;
+            for (Book book : books) {
+                size += book.estimateSizeBytes();
+            }
+            this.sizeBytes = size;
+        }
+    }
+}
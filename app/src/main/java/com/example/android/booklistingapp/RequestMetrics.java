@@ -0,0 +1,385 @@
+package com.example.android.booklistingapp;
+
+import android.os.Build;
+import android.os.Trace;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.util.EnumMap;
+import java.util.Locale;
+
+/**
+ * Records how long every page request spends in each of its phases, from waiting for a
+ * networking thread to the books reaching the adapter, together with the bytes received and the
+ * books parsed. The numbers go into histograms kept in memory, which can be read at runtime and
+ * dumped to the log or to a file.
+ * <p>
+ * Requests are only measured when the metrics are installed, and the tracing sections are only
+ * emitted when a {@link Tracer} is set; otherwise every hook is a single null check.
+ */
+public final class RequestMetrics {
+
+    // Tag for the log messages
+    private static final String LOG_TAG = RequestMetrics.class.getSimpleName();
+
+    /**
+     * The phases of a request. A request only goes through some of them: a page found in the
+     * result cache never connects, and a response parsed while it is downloaded spends its time
+     * in both DOWNLOAD and PARSE.
+     */
+    public enum Phase {
+        // Waiting for a networking thread
+        QUEUE,
+        // Looking up and reading the cached responses and pages
+        CACHE,
+        // Opening the connection, including DNS and TLS
+        CONNECT,
+        // From the request being sent to the response code being received
+        FIRST_BYTE,
+        // Waiting for the bytes of the body
+        DOWNLOAD,
+        // Decompressing and parsing the body into books, not counting the time waiting for its bytes
+        PARSE,
+        // From the books being loaded to the callback on the main thread returning, including
+        // the adapter update
+        DELIVERY,
+        // The whole request
+        TOTAL
+    }
+
+    /**
+     * Receives the begin and end of the sections of a request, for example to show them in
+     * systrace. Sections are nested and always end on the thread that began them.
+     */
+    public interface Tracer {
+        void beginSection(String name);
+
+        void endSection();
+    }
+
+    // The metrics installed by the app, or null when requests are not measured
+    private static volatile RequestMetrics installed;
+    // The tracer receiving the sections, or null when tracing is disabled
+    private static volatile Tracer tracer;
+
+    // Time spent in each phase, in microseconds
+    private final EnumMap<Phase, Histogram> phases = new EnumMap<>(Phase.class);
+    // Bytes received by the requests that downloaded a body
+    private final Histogram bytes = new Histogram();
+    // Books parsed by the requests that parsed a body
+    private final Histogram items = new Histogram();
+    // Requests answered without any network round-trip
+    private long cacheHits;
+    // Requests that failed or timed out
+    private long failures;
+    // Requests cancelled before they could be delivered
+    private long cancellations;
+
+    // Also used on its own by the CacheWarmer, so its requests are measured apart from the app's
+    RequestMetrics() {
+        for (Phase phase : Phase.values()) {
+            phases.put(phase, new Histogram());
+        }
+    }
+
+    /**
+     * Installs the request metrics of the app.
+     * Installing them again returns the metrics that are already installed.
+     */
+    public static synchronized RequestMetrics install() {
+        if (installed == null) {
+            installed = new RequestMetrics();
+        }
+        return installed;
+    }
+
+    // Returns the installed metrics, or null when there are none.
+    public static RequestMetrics getInstalled() {
+        return installed;
+    }
+
+    // Sets the tracer receiving the sections of the requests, or null to disable tracing.
+    public static void setTracer(Tracer newTracer) {
+        tracer = newTracer;
+    }
+
+    // Returns a tracer writing the sections into systrace, or null before API 18, which has no
+    // public tracing API.
+    public static Tracer systemTracer() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            return null;
+        }
+        return new Tracer() {
+            @Override
+            public void beginSection(String name) {
+                Trace.beginSection(name);
+            }
+
+            @Override
+            public void endSection() {
+                Trace.endSection();
+            }
+        };
+    }
+
+    // Begins a tracing section, when tracing is enabled.
+    static void beginSection(String name) {
+        Tracer current = tracer;
+        if (current != null) {
+            current.beginSection(name);
+        }
+    }
+
+    // Ends the last tracing section, when tracing is enabled.
+    static void endSection() {
+        Tracer current = tracer;
+        if (current != null) {
+            current.endSection();
+        }
+    }
+
+    // Starts measuring a new request, or returns null when the metrics are not installed.
+    static Request start() {
+        RequestMetrics metrics = installed;
+        return metrics == null ? null : metrics.newRequest();
+    }
+
+    // Starts measuring a new request into these metrics.
+    Request newRequest() {
+        return new Request();
+    }
+
+    // Returns the histogram of the time spent in the given phase, in microseconds.
+    public Histogram getPhase(Phase phase) {
+        return phases.get(phase);
+    }
+
+    // Returns the histogram of the bytes received per request.
+    public Histogram getBytes() {
+        return bytes;
+    }
+
+    // Returns the histogram of the books parsed per request.
+    public Histogram getItems() {
+        return items;
+    }
+
+    // Returns the number of requests answered without any network round-trip.
+    public synchronized long getCacheHits() {
+        return cacheHits;
+    }
+
+    // Returns the number of requests that failed or timed out.
+    public synchronized long getFailures() {
+        return failures;
+    }
+
+    // Returns the number of requests cancelled before they could be delivered.
+    public synchronized long getCancellations() {
+        return cancellations;
+    }
+
+    /**
+     * Writes every histogram, one line each, with its count and main percentiles.
+     */
+    public void dump(PrintWriter writer) {
+        synchronized (this) {
+            writer.println("Requests: " + phases.get(Phase.TOTAL).getCount() + " delivered, "
+                    + cacheHits + " from the caches, " + failures + " failed, "
+                    + cancellations + " cancelled");
+        }
+        for (Phase phase : Phase.values()) {
+            writer.println(String.format(Locale.ROOT, "%-10s %s", phase, phases.get(phase).summary("us")));
+        }
+        writer.println(String.format(Locale.ROOT, "%-10s %s", "BYTES", bytes.summary("B")));
+        writer.println(String.format(Locale.ROOT, "%-10s %s", "ITEMS", items.summary("")));
+    }
+
+    // Writes every histogram to the log.
+    public void dumpToLog() {
+        StringWriter text = new StringWriter();
+        PrintWriter writer = new PrintWriter(text);
+        dump(writer);
+        writer.flush();
+        for (String line : text.toString().split("\n")) {
+            Log.i(LOG_TAG, line);
+        }
+    }
+
+    // Writes every histogram to the given file, replacing it.
+    public void dumpToFile(File file) throws IOException {
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file),
+                Charset.forName("UTF-8")));
+        try {
+            dump(writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * The measures of a single request. It is handed from thread to thread with the request
+     * itself, so it is never used by two threads at the same time.
+     */
+    final class Request {
+
+        // Time spent in each phase so far, in nanoseconds
+        private final long[] nanos = new long[Phase.values().length];
+        // Which phases the request went through
+        private final boolean[] seen = new boolean[Phase.values().length];
+        // Start of the request
+        private final long startNanos = System.nanoTime();
+        // Bytes received, or -1 if no body was downloaded
+        private long bytesReceived = -1;
+        // Books parsed, or -1 if no body was parsed
+        private int itemsParsed = -1;
+        // True when the request was answered without any network round-trip
+        private boolean cacheHit;
+
+        private Request() {
+        }
+
+        // Adds the time elapsed since the given System.nanoTime() to the given phase.
+        void addSince(Phase phase, long sinceNanos) {
+            add(phase, System.nanoTime() - sinceNanos);
+        }
+
+        // Adds the given time to the given phase.
+        void add(Phase phase, long elapsedNanos) {
+            nanos[phase.ordinal()] += Math.max(0, elapsedNanos);
+            seen[phase.ordinal()] = true;
+        }
+
+        // Records the number of bytes received for the body of the response.
+        void setBytesReceived(long count) {
+            bytesReceived = count;
+        }
+
+        // Records the number of books parsed from the body of the response.
+        void setItemsParsed(int count) {
+            itemsParsed = count;
+        }
+
+        // Marks the request as answered without any network round-trip.
+        void setCacheHit() {
+            cacheHit = true;
+        }
+
+        // Records the request into the histograms once its books were delivered.
+        void delivered() {
+            add(Phase.TOTAL, System.nanoTime() - startNanos);
+            for (Phase phase : Phase.values()) {
+                if (seen[phase.ordinal()]) {
+                    phases.get(phase).record(nanos[phase.ordinal()] / 1000);
+                }
+            }
+            if (bytesReceived >= 0) {
+                bytes.record(bytesReceived);
+            }
+            if (itemsParsed >= 0) {
+                items.record(itemsParsed);
+            }
+            if (cacheHit) {
+                synchronized (RequestMetrics.this) {
+                    cacheHits++;
+                }
+            }
+        }
+
+        // Counts the request as failed, without recording its phases.
+        void failed() {
+            synchronized (RequestMetrics.this) {
+                failures++;
+            }
+        }
+
+        // Counts the request as cancelled, without recording its phases.
+        void cancelled() {
+            synchronized (RequestMetrics.this) {
+                cancellations++;
+            }
+        }
+    }
+
+    /**
+     * A histogram of positive values in buckets of powers of two, so it takes the same small
+     * amount of memory whatever the number of values. Percentiles are given as the upper bound
+     * of their bucket, so they are at most twice the real value.
+     */
+    public static final class Histogram {
+
+        // Bucket 0 holds the value 0, bucket i the values from 2^(i-1) to 2^i - 1
+        private final long[] buckets = new long[64];
+        private long count;
+        private long sum;
+        private long min = Long.MAX_VALUE;
+        private long max;
+
+        // Adds a value to the histogram.
+        synchronized void record(long value) {
+            value = Math.max(0, value);
+            buckets[64 - Long.numberOfLeadingZeros(value)]++;
+            count++;
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+
+        // Returns the number of values.
+        public synchronized long getCount() {
+            return count;
+        }
+
+        // Returns the sum of the values.
+        public synchronized long getSum() {
+            return sum;
+        }
+
+        // Returns the mean of the values, or 0 when there is none.
+        public synchronized double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        // Returns the largest value, or 0 when there is none.
+        public synchronized long getMax() {
+            return max;
+        }
+
+        /**
+         * Returns an upper bound of the given percentile of the values, or 0 when there is none.
+         *
+         * @param percentile is between 0 and 100
+         */
+        public synchronized long getPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(count * percentile / 100.0);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank && seen > 0) {
+                    long upperBound = i == 0 ? 0 : (i >= 63 ? Long.MAX_VALUE : (1L << i) - 1);
+                    return Math.max(min, Math.min(max, upperBound));
+                }
+            }
+            return max;
+        }
+
+        // Returns the count, mean and main percentiles of the values on one line.
+        public synchronized String summary(String unit) {
+            if (count == 0) {
+                return "count=0";
+            }
+            return String.format(Locale.ROOT, "count=%d mean=%.0f%s p50=%d%s p90=%d%s p99=%d%s max=%d%s",
+                    count, getMean(), unit, getPercentile(50), unit, getPercentile(90), unit,
+                    getPercentile(99), unit, max, unit);
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package com.example.android.booklistingapp;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The last result set shown by the app, with its query and scroll position, saved to a compact
+ * binary file so the next cold start can show it before its first frame, without waiting for
+ * the network.
+ * <p>
+ * The file starts with a magic number, the version of the format and the length of the rest of
+ * the file, so a file of another version or cut short is ignored instead of read wrong. Every
+ * string and every book field is prefixed with its length in bytes, so the file is read
+ * sequentially from a memory-mapped buffer with no parsing: the encoded text of the books goes
+ * straight into the Book objects, which keep it encoded. The file is written on a background
+ * thread to a temporary file first, then renamed, so a crash never leaves half a snapshot.
+ */
+public final class ResultSnapshot {
+
+    // Tag for the log messages
+    private static final String LOG_TAG = ResultSnapshot.class.getSimpleName();
+    // "BKSN", the first bytes of every snapshot
+    private static final int MAGIC = 0x424B534E;
+    // Version of the format written; files of another version are ignored
+    static final int VERSION = 1;
+    // Size of the magic number, the version and the length of the rest of the file
+    private static final int HEADER_BYTES = 12;
+    // Encoding of the query
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Single background thread writing the snapshots, so they are written in order
+    private static final ExecutorService WRITE_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    // When the snapshot was taken, in milliseconds since the epoch
+    private final long savedAtMillis;
+    // The query of the books
+    private final String query;
+    // The startIndex of the next page to request
+    private final int nextStartIndex;
+    // True when the last page of the query had been loaded
+    private final boolean endOfResults;
+    // The startIndex of every page whose books are in the snapshot
+    private final List<Integer> pageStartIndexes;
+    // The position of the first visible row, and how far it was scrolled past the top, in pixels
+    private final int scrollPosition;
+    private final int scrollOffset;
+    // The books of the list, in order
+    private final List<Book> books;
+
+    /**
+     * Creates a snapshot of a result set.
+     *
+     * @param savedAtMillis    is when the snapshot was taken, in milliseconds since the epoch
+     * @param query            is the query of the books
+     * @param nextStartIndex   is the startIndex of the next page to request
+     * @param endOfResults     is true when the last page of the query had been loaded
+     * @param pageStartIndexes is the startIndex of every page whose books are in the list
+     * @param scrollPosition   is the position of the first visible row
+     * @param scrollOffset     is how far the first visible row was scrolled past the top
+     * @param books            are the books of the list, in order
+     */
+    public ResultSnapshot(long savedAtMillis, String query, int nextStartIndex, boolean endOfResults,
+                          List<Integer> pageStartIndexes, int scrollPosition, int scrollOffset,
+                          List<Book> books) {
+        this.savedAtMillis = savedAtMillis;
+        this.query = query;
+        this.nextStartIndex = nextStartIndex;
+        this.endOfResults = endOfResults;
+        this.pageStartIndexes = Collections.unmodifiableList(new ArrayList<>(pageStartIndexes));
+        this.scrollPosition = scrollPosition;
+        this.scrollOffset = scrollOffset;
+        this.books = Collections.unmodifiableList(new ArrayList<>(books));
+    }
+
+    public long getSavedAtMillis() {
+        return savedAtMillis;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public int getNextStartIndex() {
+        return nextStartIndex;
+    }
+
+    public boolean isEndOfResults() {
+        return endOfResults;
+    }
+
+    public List<Integer> getPageStartIndexes() {
+        return pageStartIndexes;
+    }
+
+    public int getScrollPosition() {
+        return scrollPosition;
+    }
+
+    public int getScrollOffset() {
+        return scrollOffset;
+    }
+
+    public List<Book> getBooks() {
+        return books;
+    }
+
+    /**
+     * Reads the snapshot saved in the given file through a memory map. Returns null when there
+     * is none, or when it cannot be read: written by another version, cut short or corrupted.
+     */
+    public static ResultSnapshot read(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            FileChannel channel = in.getChannel();
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return read(buffer);
+        } catch (IOException | RuntimeException e) {
+            Log.e(LOG_TAG, "Problem reading the result snapshot " + file, e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // The snapshot was read already
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a snapshot from the given buffer. Returns null when it was written by another
+     * version or does not hold a whole snapshot.
+     */
+    static ResultSnapshot read(ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            return null;
+        }
+        int length = buffer.getInt();
+        if (length != buffer.remaining()) {
+            return null;
+        }
+        try {
+            long savedAtMillis = buffer.getLong();
+            String query = readString(buffer);
+            int nextStartIndex = buffer.getInt();
+            boolean endOfResults = buffer.get() != 0;
+            int pageCount = readCount(buffer, 4);
+            ArrayList<Integer> pageStartIndexes = new ArrayList<>(pageCount);
+            for (int i = 0; i < pageCount; i++) {
+                pageStartIndexes.add(buffer.getInt());
+            }
+            int scrollPosition = buffer.getInt();
+            int scrollOffset = buffer.getInt();
+            // Every book takes at least the lengths of its five fields
+            int bookCount = readCount(buffer, 20);
+            ArrayList<Book> books = new ArrayList<>(bookCount);
+            for (int i = 0; i < bookCount; i++) {
+                books.add(Book.readFrom(buffer));
+            }
+            return new ResultSnapshot(savedAtMillis, query, nextStartIndex, endOfResults,
+                    pageStartIndexes, scrollPosition, scrollOffset, books);
+        } catch (BufferUnderflowException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Saves the snapshot to the given file on a background thread.
+     */
+    public void writeAsync(final File file) {
+        WRITE_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    write(file);
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Problem writing the result snapshot " + file, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Saves the snapshot to the given file, replacing the previous one only once it is complete.
+     */
+    void write(File file) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(body);
+        out.writeLong(savedAtMillis);
+        writeString(out, query);
+        out.writeInt(nextStartIndex);
+        out.writeByte(endOfResults ? 1 : 0);
+        out.writeInt(pageStartIndexes.size());
+        for (int startIndex : pageStartIndexes) {
+            out.writeInt(startIndex);
+        }
+        out.writeInt(scrollPosition);
+        out.writeInt(scrollOffset);
+        out.writeInt(books.size());
+        for (Book book : books) {
+            book.writeTo(out);
+        }
+        out.flush();
+
+        File temporary = new File(file.getPath() + ".tmp");
+        DataOutputStream fileOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+        try {
+            fileOut.writeInt(MAGIC);
+            fileOut.writeInt(VERSION);
+            fileOut.writeInt(body.size());
+            body.writeTo(fileOut);
+        } finally {
+            fileOut.close();
+        }
+        if (!temporary.renameTo(file)) {
+            temporary.delete();
+            throw new IOException("Cannot rename " + temporary + " to " + file);
+        }
+    }
+
+    /**
+     * Deletes the snapshot saved in the given file on the background thread, after the
+     * snapshots being written.
+     */
+    public static void deleteAsync(final File file) {
+        WRITE_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                file.delete();
+            }
+        });
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    // Reads a number of items, checking that the rest of the buffer can hold that many items of
+    // at least the given size, so a corrupted count never allocates a huge list.
+    private static int readCount(ByteBuffer in, int minItemBytes) {
+        int count = in.getInt();
+        if (count < 0 || (long) count * minItemBytes > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        return count;
+    }
+}
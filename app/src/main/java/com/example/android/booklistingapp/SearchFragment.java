@@ -0,0 +1,835 @@
+package com.example.android.booklistingapp;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.support.v4.app.Fragment;
+import android.support.v7.widget.LinearLayoutManager;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.booklistingapp.core.FanOutMerger;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * A headless Fragment retained across configuration changes, which holds the books of the
+ * current query and the pages being loaded for it. A rotation recreates the Activity but not
+ * this Fragment, so the new Activity shows the books already loaded and receives the pages still
+ * in flight, without requesting them again. The Fragment only talks to the Activity it is
+ * attached to through a {@link Listener}, so the loads never keep a destroyed Activity alive.
+ * When the process is killed, the volume ids of the books are saved, and the books are found
+ * again in the caches once the Fragment is recreated. When the app is started from scratch, the
+ * last result set is read back from its {@link ResultSnapshot}, and refreshed in the background
+ * if it is stale.
+ */
+public class SearchFragment extends Fragment {
+
+    // Tag of the Fragment in the FragmentManager of the Activity
+    public static final String TAG = "search";
+    // This is the tag for LOG message
+    private static final String LOG_TAG = SearchFragment.class.getName();
+    // Key used for the volume ids of the books in the Saved Instance State of the app
+    private static final String BOOK_IDS = "book_ids";
+    // Key used for the startIndex of every loaded page in the Saved Instance State of the app
+    private static final String PAGE_START_INDEXES = "page_start_indexes";
+    // Key used for the query in the Saved Instance State of the app
+    private static final String QUERY = "query";
+    // Key used for the start index of the next page in the Saved Instance State of the app
+    private static final String NEXT_START_INDEX = "next_start_index";
+    // Key used for the end of the results in the Saved Instance State of the app
+    private static final String END_OF_RESULTS = "end_of_results";
+    // Key used for the offline store results flag in the Saved Instance State of the app
+    private static final String SHOWING_LOCAL_RESULTS = "showing_local_results";
+    // Key used for the first page flag in the Saved Instance State of the app
+    private static final String FIRST_PAGE_LOADED = "first_page_loaded";
+    // Name of the file, inside the cache directory of the app, holding the last result set
+    private static final String SNAPSHOT_FILE = "last-results.bin";
+
+    // Every book of the current query, in the order of the list
+    private ArrayList<Book> bookList = new ArrayList<>();
+    // The volume ids of the books in the list, so repeated books across pages are skipped
+    private HashSet<String> bookIds = new HashSet<>();
+    // The query of the books in the list
+    private String currentQuery;
+    // The startIndex of the next page to request
+    private int nextStartIndex;
+    // The startIndex of every page whose books are in the list
+    private ArrayList<Integer> pageStartIndexes = new ArrayList<>();
+    // True when the last page of the current query has been loaded
+    private boolean endOfResults = true;
+    // The current page being loaded, or null when no page is being loaded
+    private PageLoad pageLoad;
+    // The first pages of the current query being loaded in parallel, or null
+    private FanOutLoad fanOutLoad;
+    // The task searching the offline book store for the current query, or null
+    private LocalSearchTask localSearchTask;
+    // The task finding the books of the saved instance state, or null
+    private RestoreTask restoreTask;
+    // True when the list shows books from the offline store instead of the first page
+    private boolean showingLocalResults;
+    // True once the first page of the current query has been answered
+    private boolean firstPageLoaded;
+    // True while the first books of the query are awaited, to show the progress bar
+    private boolean loading;
+    // The text shown when the list is empty, or 0 for none
+    private int emptyStateText;
+    // The volume ids of the saved instance state, whose books are found once the Activity is
+    // created, or null
+    private ArrayList<String> restoredBookIds;
+    // The Activity the Fragment is attached to, or null between two Activities
+    private Listener listener;
+    // The application context, which outlives the Activities
+    private Context appContext;
+    // The volumes endpoint the searches are sent to, Google Books unless configured otherwise
+    private String baseUrl;
+    // Number of books requested per page
+    private int pageSize;
+    // Number of pages of a new query requested in parallel
+    private int fanOutPages;
+    // True when a new query is also searched in the titles and in the authors only
+    private boolean fanOutVariants;
+    // Maximum number of stored books shown for a query
+    private int offlineResultsLimit;
+    // The file the last result set is saved to, or null when it is not saved
+    private File snapshotFile;
+    // Age after which the result set of a snapshot is requested again, in milliseconds
+    private long snapshotMaxAgeMillis;
+    // When the books of the list were saved to the snapshot they were restored from, or 0 when
+    // they were loaded since the app started
+    private long snapshotSavedAtMillis;
+    // True when the books restored from the snapshot should be requested again
+    private boolean snapshotStale;
+    // The scroll position restored from the snapshot and not applied yet, or -1
+    private int restoredScrollPosition = -1;
+    private int restoredScrollOffset;
+
+    /**
+     * Receives the changes of the search state on the main thread. Implemented by the Activity
+     * the Fragment is attached to.
+     */
+    public interface Listener {
+
+        // The books of the list were replaced by the given ones.
+        void onBooksReplaced(List<Book> books);
+
+        // The given books were appended to the list.
+        void onBooksAppended(List<Book> books);
+
+        // The progress bar should be shown or hidden.
+        void onLoadingChanged(boolean loading);
+
+        // The text shown when the list is empty changed.
+        void onEmptyStateChanged(int textId);
+    }
+
+    @Override
+    public void onAttach(Context context) {
+        super.onAttach(context);
+        listener = (Listener) context;
+        appContext = context.getApplicationContext();
+    }
+
+    @Override
+    public void onDetach() {
+        // The Activity is being destroyed; the loads keep updating the state until the next one
+        listener = null;
+        super.onDetach();
+    }
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setRetainInstance(true);
+
+        // Read the paging configuration
+        baseUrl = getResources().getString(R.string.books_base_url);
+        pageSize = getResources().getInteger(R.integer.page_size);
+        fanOutPages = getResources().getInteger(R.integer.fan_out_pages);
+        fanOutVariants = getResources().getBoolean(R.bool.fan_out_variants);
+        offlineResultsLimit = getResources().getInteger(R.integer.offline_results_limit);
+        if (getResources().getBoolean(R.bool.restore_last_results)) {
+            snapshotFile = new File(appContext.getCacheDir(), SNAPSHOT_FILE);
+            snapshotMaxAgeMillis = getResources().getInteger(R.integer.snapshot_max_age_seconds) * 1000L;
+        }
+
+        // The process was killed since the state was saved
+        if (savedInstanceState != null) {
+            currentQuery = savedInstanceState.getString(QUERY);
+            nextStartIndex = savedInstanceState.getInt(NEXT_START_INDEX);
+            endOfResults = savedInstanceState.getBoolean(END_OF_RESULTS, true);
+            showingLocalResults = savedInstanceState.getBoolean(SHOWING_LOCAL_RESULTS);
+            firstPageLoaded = savedInstanceState.getBoolean(FIRST_PAGE_LOADED);
+            ArrayList<Integer> startIndexes = savedInstanceState.getIntegerArrayList(PAGE_START_INDEXES);
+            if (startIndexes != null) {
+                pageStartIndexes = startIndexes;
+            }
+            restoredBookIds = savedInstanceState.getStringArrayList(BOOK_IDS);
+            if (restoredBookIds == null) {
+                restoredBookIds = new ArrayList<>();
+            }
+        } else if (snapshotFile != null) {
+            // A cold start: show the last result set right away, before the first frame
+            restoreSnapshot(ResultSnapshot.read(snapshotFile));
+        }
+    }
+
+    // The caches and the loaders are installed by the Activity, so the books of the saved
+    // instance state are only looked for once it is created.
+    @Override
+    public void onActivityCreated(Bundle savedInstanceState) {
+        super.onActivityCreated(savedInstanceState);
+        if (snapshotStale) {
+            snapshotStale = false;
+            refreshFirstPages();
+        }
+        if (restoredBookIds == null) {
+            return;
+        }
+        ArrayList<String> bookIds = restoredBookIds;
+        restoredBookIds = null;
+        restoreBooks(bookIds);
+
+        // The first page was still loading when the state was saved
+        if (currentQuery != null && !firstPageLoaded) {
+            loadFirstPages();
+        }
+    }
+
+    // Only the volume ids of the books are saved, with the query and the pages they came from.
+    // The books themselves are found again in the result caches, so no text goes through the
+    // Bundle.
+    @Override
+    public void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        ArrayList<String> bookIds = new ArrayList<>(bookList.size());
+        for (Book book : bookList) {
+            // Books without a volume id cannot be found again
+            if (!TextUtils.isEmpty(book.getId())) {
+                bookIds.add(book.getId());
+            }
+        }
+        outState.putStringArrayList(BOOK_IDS, restoredBookIds != null ? restoredBookIds : bookIds);
+        outState.putIntegerArrayList(PAGE_START_INDEXES, pageStartIndexes);
+        outState.putString(QUERY, currentQuery);
+        outState.putInt(NEXT_START_INDEX, nextStartIndex);
+        outState.putBoolean(END_OF_RESULTS, endOfResults);
+        outState.putBoolean(SHOWING_LOCAL_RESULTS, showingLocalResults);
+        outState.putBoolean(FIRST_PAGE_LOADED, firstPageLoaded);
+    }
+
+    // Only called when the Activity is finishing, since the Fragment is retained otherwise.
+    @Override
+    public void onDestroy() {
+        cancelLoads();
+        super.onDestroy();
+    }
+
+    // Show the result set of the given snapshot, or nothing when there is none.
+    private void restoreSnapshot(ResultSnapshot snapshot) {
+        if (snapshot == null || snapshot.getQuery() == null || snapshot.getBooks().isEmpty()) {
+            return;
+        }
+        currentQuery = snapshot.getQuery();
+        nextStartIndex = snapshot.getNextStartIndex();
+        endOfResults = snapshot.isEndOfResults();
+        pageStartIndexes = new ArrayList<>(snapshot.getPageStartIndexes());
+        firstPageLoaded = true;
+        replaceBooks(snapshot.getBooks());
+        snapshotSavedAtMillis = snapshot.getSavedAtMillis();
+        restoredScrollPosition = snapshot.getScrollPosition();
+        restoredScrollOffset = snapshot.getScrollOffset();
+        long age = System.currentTimeMillis() - snapshotSavedAtMillis;
+        snapshotStale = age < 0 || age >= snapshotMaxAgeMillis;
+    }
+
+    // Request the first pages of the current query again. The books on screen stay until they
+    // are replaced, like the books shown from the offline store, and stay if the pages fail.
+    private void refreshFirstPages() {
+        showingLocalResults = true;
+        firstPageLoaded = false;
+        nextStartIndex = 0;
+        pageStartIndexes = new ArrayList<>();
+        endOfResults = false;
+        loadFirstPages();
+    }
+
+    /**
+     * Saves the books of the list with the given scroll position in the background, so the next
+     * cold start shows them right away. A list without books deletes the saved one.
+     *
+     * @param scrollPosition is the position of the first visible book in the list
+     * @param scrollOffset   is how far the first visible book is scrolled past the top, in pixels
+     */
+    public void saveSnapshot(int scrollPosition, int scrollOffset) {
+        if (snapshotFile == null) {
+            return;
+        }
+        if (currentQuery == null || bookList.isEmpty()) {
+            ResultSnapshot.deleteAsync(snapshotFile);
+            return;
+        }
+        // Books restored from a snapshot keep their age, so they are refreshed when stale
+        long savedAt = snapshotSavedAtMillis != 0 ? snapshotSavedAtMillis : System.currentTimeMillis();
+        new ResultSnapshot(savedAt, currentQuery, nextStartIndex, endOfResults, pageStartIndexes,
+                scrollPosition, scrollOffset, bookList).writeAsync(snapshotFile);
+    }
+
+    // Scroll the list to the position restored from the snapshot, the first time only.
+    public void restoreScrollPosition(LinearLayoutManager layoutManager) {
+        if (restoredScrollPosition >= 0 && restoredScrollPosition < bookList.size()) {
+            layoutManager.scrollToPositionWithOffset(restoredScrollPosition, -restoredScrollOffset);
+        }
+        restoredScrollPosition = -1;
+    }
+
+    // Returns every book of the current query, in the order of the list.
+    public List<Book> getBooks() {
+        return Collections.unmodifiableList(bookList);
+    }
+
+    // Returns the query of the books in the list, or null before the first search.
+    public String getQuery() {
+        return currentQuery;
+    }
+
+    // Returns true while the first books of the query are awaited.
+    public boolean isLoading() {
+        return loading;
+    }
+
+    // Returns the text shown when the list is empty, or 0 for none.
+    public int getEmptyStateText() {
+        return emptyStateText;
+    }
+
+    /**
+     * Start searching the given query, replacing the books of the previous query.
+     */
+    public void startSearch(String query) {
+
+        // Forget the books and the pages of the previous query. Its requests are cancelled, so
+        // their books can never reach the list. The Activity clears its adapter itself.
+        cancelLoads();
+        snapshotSavedAtMillis = 0;
+        bookList = new ArrayList<>();
+        bookIds = new HashSet<>();
+        restoredBookIds = null;
+        currentQuery = query;
+        nextStartIndex = 0;
+        pageStartIndexes = new ArrayList<>();
+        endOfResults = false;
+        showingLocalResults = false;
+        firstPageLoaded = false;
+
+        // Show the circle indicator
+        setLoading(true);
+
+        // Search the books stored on the device in parallel with the network, so they
+        // can be shown until the first page arrives, or instead of it when offline
+        localSearchTask = new LocalSearchTask(query);
+        localSearchTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+
+        // Start loading the first pages of books data. Without an internet
+        // connection, the books can still come from the cached responses.
+        loadFirstPages();
+    }
+
+    /**
+     * Start loading the next page of the current query, unless a page is already being loaded
+     * or the last page has been reached.
+     */
+    public void loadNextPage() {
+        if (pageLoad != null || fanOutLoad != null || endOfResults || currentQuery == null) {
+            return;
+        }
+        boolean offline = !checkInternetConnection();
+        if (offline) {
+            Log.e(LOG_TAG, "No internet connection");
+        }
+        pageLoad = new PageLoad(currentQuery, nextStartIndex, offline);
+        pageLoad.start(BookLoader.getInstalled());
+    }
+
+    // Show again the books with the given volume ids. They are looked up in the result cache in
+    // memory first; when the process was restarted, they are read from the response cache and
+    // the offline store on a background thread instead.
+    private void restoreBooks(ArrayList<String> bookIds) {
+        if (bookIds.isEmpty() || currentQuery == null) {
+            return;
+        }
+        HashMap<String, Book> found = new HashMap<>();
+        ArrayList<Integer> missingPages = new ArrayList<>();
+        QueryResultCache resultCache = QueryResultCache.getInstalled();
+        for (int startIndex : pageStartIndexes) {
+            ArrayList<Book> page = resultCache == null ? null
+                    : resultCache.get(QueryResultCache.keyOf(currentQuery, startIndex, pageSize));
+            if (page == null) {
+                missingPages.add(startIndex);
+            } else {
+                addById(found, page);
+            }
+        }
+
+        ArrayList<Book> books = orderById(bookIds, found);
+        if (books.size() == bookIds.size()) {
+            appendBooks(books);
+            return;
+        }
+        setLoading(true);
+        restoreTask = new RestoreTask(currentQuery, bookIds, missingPages, found);
+        restoreTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    private static void addById(HashMap<String, Book> booksById, List<Book> books) {
+        for (Book book : books) {
+            booksById.put(book.getId(), book);
+        }
+    }
+
+    // Returns the books with the given volume ids in the same order, skipping the ones not found.
+    private static ArrayList<Book> orderById(List<String> bookIds, HashMap<String, Book> booksById) {
+        ArrayList<Book> books = new ArrayList<>(bookIds.size());
+        for (String id : bookIds) {
+            Book book = booksById.get(id);
+            if (book != null) {
+                books.add(book);
+            }
+        }
+        return books;
+    }
+
+    // Start loading the first pages of the current query: several of them in parallel in
+    // fan-out mode, otherwise only the first one.
+    private void loadFirstPages() {
+        if (fanOutPages <= 1 && !fanOutVariants) {
+            loadNextPage();
+            return;
+        }
+        boolean offline = !checkInternetConnection();
+        if (offline) {
+            Log.e(LOG_TAG, "No internet connection");
+        }
+        fanOutLoad = new FanOutLoad(currentQuery, offline);
+        fanOutLoad.start(BookLoader.getInstalled());
+    }
+
+    // Cancel the pages being loaded, disconnecting their HTTP requests, and the background
+    // tasks of the current query.
+    private void cancelLoads() {
+        if (pageLoad != null) {
+            pageLoad.cancel();
+            pageLoad = null;
+        }
+        if (fanOutLoad != null) {
+            fanOutLoad.cancel();
+            fanOutLoad = null;
+        }
+        if (localSearchTask != null) {
+            localSearchTask.cancel(true);
+            localSearchTask = null;
+        }
+        if (restoreTask != null) {
+            restoreTask.cancel(true);
+            restoreTask = null;
+        }
+    }
+
+    // Append the given books to the list, skipping the books already in it. Returns the books
+    // that were actually added.
+    private ArrayList<Book> appendBooks(List<Book> books) {
+        ArrayList<Book> newBooks = new ArrayList<>(books.size());
+        for (Book book : books) {
+            // Books without a volume id cannot be recognized, so they are always added
+            if (TextUtils.isEmpty(book.getId()) || bookIds.add(book.getId())) {
+                newBooks.add(book);
+            }
+        }
+        bookList.addAll(newBooks);
+        if (listener != null && !newBooks.isEmpty()) {
+            listener.onBooksAppended(newBooks);
+        }
+        return newBooks;
+    }
+
+    // Replace the books of the list with the given ones, skipping repeated ones.
+    private void replaceBooks(List<Book> books) {
+        snapshotSavedAtMillis = 0;
+        bookList = new ArrayList<>(books.size());
+        bookIds = new HashSet<>();
+        for (Book book : books) {
+            if (TextUtils.isEmpty(book.getId()) || bookIds.add(book.getId())) {
+                bookList.add(book);
+            }
+        }
+        if (listener != null) {
+            listener.onBooksReplaced(bookList);
+        }
+    }
+
+    private void setLoading(boolean loading) {
+        this.loading = loading;
+        if (listener != null) {
+            listener.onLoadingChanged(loading);
+        }
+    }
+
+    private void setEmptyState(int textId) {
+        emptyStateText = textId;
+        if (listener != null) {
+            listener.onEmptyStateChanged(textId);
+        }
+    }
+
+    // Returns the text of the empty state after a page came back without books: the page is
+    // null when it failed, which is not the same as a search without results.
+    private static int emptyStateTextOf(ArrayList<Book> books, boolean offline) {
+        if (offline) {
+            return R.string.no_internet_connection;
+        }
+        return books == null ? R.string.server_error : R.string.no_books_found;
+    }
+
+    // Check the internet connection
+    private boolean checkInternetConnection() {
+        // Get a reference to the ConnectivityManager to check the state of network connectivity
+        ConnectivityManager connectivityManager = (ConnectivityManager)
+                appContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+
+        // Get details on the currently active default network
+        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+        if (networkInfo != null && networkInfo.isConnected()) {
+            return true;
+        } else {
+            // Update empty state with no connection error message
+            setEmptyState(R.string.no_internet_connection);
+            return false;
+        }
+    }
+
+    // Receives a page of books loaded by the {@link BookLoader} on one of its networking threads,
+    // and updates the list with the books in the response. The books are delivered on the UI
+    // thread, so they can be used to update the UI.
+    private class PageLoad implements BookLoader.Callback {
+
+        // The query of the page
+        private final String query;
+        // The startIndex of the page
+        private final int startIndex;
+        // True when there is no internet connection, so only cached responses can be used
+        private final boolean offline;
+        // The request of the page, cancelled when the page is no longer wanted
+        private BookLoader.Request request;
+
+        PageLoad(String query, int startIndex, boolean offline) {
+            this.query = query;
+            this.startIndex = startIndex;
+            this.offline = offline;
+        }
+
+        // Start loading the page. The progress bar is shown for the first page, when the list
+        // is still empty.
+        void start(BookLoader bookLoader) {
+            if (startIndex == 0 && bookList.isEmpty()) {
+                setLoading(true);
+            }
+            request = bookLoader.load(Utils.buildSearchUrl(baseUrl, query, startIndex, pageSize),
+                    QueryResultCache.keyOf(query, startIndex, pageSize), offline, this);
+        }
+
+        // Cancel the page, so onBooksLoaded() will not be called. Its HTTP request is
+        // disconnected unless another screen is waiting for the same page.
+        void cancel() {
+            request.cancel();
+        }
+
+        // This method runs on the main UI thread once the page has been loaded. The page is
+        // appended to the list, skipping the books that were already returned by a previous
+        // page, which will trigger the RecyclerView to bind only the new rows.
+        @Override
+        public void onBooksLoaded(ArrayList<Book> books) {
+
+            // Only the page of the newest query may reach the list
+            if (pageLoad != this || !query.equals(currentQuery)) {
+                return;
+            }
+
+            // First, hide loading indicator so error will be visible
+            setLoading(false);
+            pageLoad = null;
+            if (startIndex == 0) {
+                firstPageLoaded = true;
+            }
+
+            // An empty page means there are no more books for this query. A failed page keeps
+            // nextStartIndex, so the next scroll asks for it again.
+            if (books != null && books.isEmpty()) {
+                endOfResults = true;
+            } else if (books != null) {
+                nextStartIndex = startIndex + books.size();
+            }
+
+            // The first page replaces the books shown from the offline store. If it failed,
+            // the stored books stay on screen instead of an error message. The two lists are
+            // diffed, so the rows of the books found in both are kept.
+            if (showingLocalResults && books != null && !books.isEmpty()) {
+                showingLocalResults = false;
+                replaceBooks(books);
+                pageStartIndexes.add(startIndex);
+            } else if (books != null && !books.isEmpty()) {
+                // If there is a valid list of Books, then add them to the list. This will
+                // trigger the RecyclerView to update.
+                ArrayList<Book> newBooks = appendBooks(books);
+                pageStartIndexes.add(startIndex);
+                // A page made only of repeated books does not change the list, so no scroll
+                // event will ask for the page after it.
+                if (newBooks.isEmpty()) {
+                    loadNextPage();
+                }
+            } else if (bookList.isEmpty()) {
+                // Update empty state with no books found error message, with no connection
+                // error message when nothing was cached for this query, or with the server
+                // error message when Google Books failed
+                setEmptyState(emptyStateTextOf(books, offline));
+            }
+        }
+    }
+
+    // Loads the first pages of a new query in parallel, and its intitle: and inauthor: variants
+    // when they are enabled. The books of every sub-request are merged into the list as soon as
+    // it arrives, so the first books are shown when the fastest sub-request completes. Every
+    // sub-request goes through the {@link BookLoader}, so it is cached and shared like a page.
+    private class FanOutLoad {
+
+        // The query of the pages
+        private final String query;
+        // True when there is no internet connection, so only cached responses can be used
+        private final boolean offline;
+        // Ranks the books of the sub-requests and removes the repeated ones
+        private final FanOutMerger<Book> merger = new FanOutMerger<>(Book.ID_OF);
+        // The requests of the sub-requests, cancelled when the query is no longer wanted
+        private final ArrayList<BookLoader.Request> requests = new ArrayList<>();
+        // Number of sub-requests not answered yet
+        private int pending;
+        // The startIndex following the books of the query itself received so far
+        private int endIndex;
+        // The lowest startIndex of a page of the query itself that failed, so its books are
+        // requested again by loadNextPage()
+        private int firstFailedIndex = Integer.MAX_VALUE;
+        // True once the last page of the query itself came back empty
+        private boolean lastPageEmpty;
+        // True once a sub-request was answered, even without books
+        private boolean answered;
+
+        FanOutLoad(String query, boolean offline) {
+            this.query = query;
+            this.offline = offline;
+        }
+
+        // Start every sub-request: the first pages of the query, then one page of each variant.
+        void start(BookLoader bookLoader) {
+            // The progress bar is shown while the list is still empty
+            if (bookList.isEmpty()) {
+                setLoading(true);
+            }
+            List<String> queries = fanOutVariants
+                    ? FanOutMerger.variantsOf(query) : Collections.singletonList(query);
+            for (int priority = 0; priority < queries.size(); priority++) {
+                int pages = priority == 0 ? Math.max(1, fanOutPages) : 1;
+                for (int page = 0; page < pages; page++) {
+                    String subQuery = queries.get(priority);
+                    int startIndex = page * pageSize;
+                    pending++;
+                    requests.add(bookLoader.load(Utils.buildSearchUrl(baseUrl, subQuery, startIndex, pageSize),
+                            QueryResultCache.keyOf(subQuery, startIndex, pageSize), offline,
+                            new SubRequest(priority, startIndex, page == pages - 1)));
+                }
+            }
+        }
+
+        // Cancel every sub-request not answered yet.
+        void cancel() {
+            for (BookLoader.Request request : requests) {
+                request.cancel();
+            }
+        }
+
+        // Merge the books of a sub-request into the list. Runs on the main UI thread.
+        private void onSubRequestLoaded(int priority, int startIndex, boolean lastPage,
+                                        ArrayList<Book> books) {
+
+            // Only the pages of the newest query may reach the list
+            if (fanOutLoad != this || !query.equals(currentQuery)) {
+                return;
+            }
+            pending--;
+            answered |= books != null;
+            boolean hasBooks = books != null && !books.isEmpty();
+
+            // Only the pages of the query itself are continued by loadNextPage()
+            if (priority == 0) {
+                if (hasBooks) {
+                    endIndex = Math.max(endIndex, startIndex + books.size());
+                    pageStartIndexes.add(startIndex);
+                } else if (books == null) {
+                    firstFailedIndex = Math.min(firstFailedIndex, startIndex);
+                } else if (lastPage) {
+                    lastPageEmpty = true;
+                }
+            }
+
+            // The merged list replaces the books shown from the offline store, or the merged
+            // list of the sub-requests answered before. The lists are diffed, so the rows of
+            // the books already shown are kept.
+            if (hasBooks) {
+                setLoading(false);
+                firstPageLoaded = true;
+                showingLocalResults = false;
+                replaceBooks(merger.add(priority, startIndex, books));
+            }
+
+            if (pending > 0) {
+                return;
+            }
+            fanOutLoad = null;
+            setLoading(false);
+            firstPageLoaded = true;
+            // A failed page is requested again before the pages after the books received, and
+            // the results only end when no page before the empty one is missing
+            nextStartIndex = Math.min(endIndex, firstFailedIndex);
+            endOfResults = nextStartIndex == endIndex && (lastPageEmpty || endIndex == 0);
+            if (bookList.isEmpty()) {
+                // Show the empty state with no books found error message, with no connection
+                // error message when nothing was cached for this query, or with the server
+                // error message when every sub-request failed
+                setEmptyState(emptyStateTextOf(answered ? new ArrayList<Book>() : null, offline));
+            }
+        }
+
+        // Receives the books of one sub-request.
+        private class SubRequest implements BookLoader.Callback {
+
+            private final int priority;
+            private final int startIndex;
+            private final boolean lastPage;
+
+            SubRequest(int priority, int startIndex, boolean lastPage) {
+                this.priority = priority;
+                this.startIndex = startIndex;
+                this.lastPage = lastPage;
+            }
+
+            @Override
+            public void onBooksLoaded(ArrayList<Book> books) {
+                onSubRequestLoaded(priority, startIndex, lastPage, books);
+            }
+        }
+    }
+
+    // {@link AsyncTask} searching the offline book store on a background thread. Its results
+    // are only shown if the first page of the query has not been answered yet.
+    private class LocalSearchTask extends AsyncTask<Void, Void, ArrayList<Book>> {
+
+        // The query searched by this task
+        private final String query;
+
+        LocalSearchTask(String query) {
+            this.query = query;
+        }
+
+        @Override
+        protected ArrayList<Book> doInBackground(Void... params) {
+            BookStore bookStore = BookStore.getInstalled();
+            if (bookStore == null) {
+                return null;
+            }
+            return bookStore.search(query, offlineResultsLimit);
+        }
+
+        @Override
+        protected void onPostExecute(ArrayList<Book> books) {
+            localSearchTask = null;
+            if (books == null || books.isEmpty() || !query.equals(currentQuery)) {
+                return;
+            }
+
+            // Show the stored books, unless the network was faster or already gave books
+            if (!firstPageLoaded || bookList.isEmpty()) {
+                setLoading(false);
+                showingLocalResults = true;
+                replaceBooks(books);
+            }
+        }
+    }
+
+    // {@link AsyncTask} finding the books of the saved instance state that are no longer in the
+    // result cache in memory: first in the cached responses of their pages, then in the offline
+    // store, which also holds the books shown from it instead of the first page.
+    private class RestoreTask extends AsyncTask<Void, Void, ArrayList<Book>> {
+
+        // The query of the books
+        private final String query;
+        // The volume ids of the books, in the order of the list
+        private final ArrayList<String> bookIds;
+        // The startIndex of the pages not found in the result cache
+        private final ArrayList<Integer> missingPages;
+        // The books already found, by volume id
+        private final HashMap<String, Book> found;
+
+        RestoreTask(String query, ArrayList<String> bookIds, ArrayList<Integer> missingPages,
+                    HashMap<String, Book> found) {
+            this.query = query;
+            this.bookIds = bookIds;
+            this.missingPages = missingPages;
+            this.found = found;
+        }
+
+        @Override
+        protected ArrayList<Book> doInBackground(Void... params) {
+            for (int startIndex : missingPages) {
+                if (isCancelled()) {
+                    return null;
+                }
+                ArrayList<Book> page = Utils.fetchBooksData(
+                        Utils.buildSearchUrl(baseUrl, query, startIndex, pageSize), true);
+                if (page != null) {
+                    addById(found, page);
+                }
+            }
+
+            ArrayList<String> missingIds = new ArrayList<>();
+            for (String id : bookIds) {
+                if (!found.containsKey(id)) {
+                    missingIds.add(id);
+                }
+            }
+            BookStore bookStore = BookStore.getInstalled();
+            if (!missingIds.isEmpty() && bookStore != null && !isCancelled()) {
+                addById(found, bookStore.getBooks(missingIds));
+            }
+            return orderById(bookIds, found);
+        }
+
+        @Override
+        protected void onPostExecute(ArrayList<Book> books) {
+            restoreTask = null;
+            if (!query.equals(currentQuery)) {
+                return;
+            }
+            if (pageLoad == null && fanOutLoad == null) {
+                setLoading(false);
+            }
+            // A page that arrived in the meantime already replaced the restored books
+            if (bookList.isEmpty()) {
+                appendBooks(books);
+            }
+        }
+    }
+}
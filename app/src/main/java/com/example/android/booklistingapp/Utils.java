@@ -1,8 +1,21 @@
 package com.example.android.booklistingapp;
 
+import android.os.CancellationSignal;
+import android.os.Process;
 import android.text.TextUtils;
 import android.util.Log;
 
+import com.example.android.booklistingapp.core.BookParser;
+import com.example.android.booklistingapp.core.BookSearchClient;
+import com.example.android.booklistingapp.core.Cancellation;
+import com.example.android.booklistingapp.core.CircuitBreaker;
+import com.example.android.booklistingapp.core.HttpUrlConnectionTransport;
+import com.example.android.booklistingapp.core.RequestListener;
+import com.example.android.booklistingapp.core.ResilientTransport;
+import com.example.android.booklistingapp.core.SearchUrls;
+import com.example.android.booklistingapp.core.Transport;
+import com.example.android.booklistingapp.core.TransportPolicy;
+
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -11,86 +24,238 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
+import java.io.OutputStream;
 import java.net.URL;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 // Helper methods related to requesting and receiving books data from Google Books.
 public final class Utils {
 
     // first key is the JSONArray "items"
-    private static final String ITEMS = "items";
+    private static final String ITEMS = BookParser.KEY_ITEMS;
+    // key for the volume id of every item
+    private static final String ID = BookParser.KEY_ID;
     // second key is the JSONObject "volumeInfo"
-    private static final String VOLUME_INFO = "volumeInfo";
+    private static final String VOLUME_INFO = BookParser.KEY_VOLUME_INFO;
     // key for the book title
-    private static final String TITLE = "title";
+    private static final String TITLE = BookParser.KEY_TITLE;
     // key for the book author
-    private static final String AUTHORS = "authors";
+    private static final String AUTHORS = BookParser.KEY_AUTHORS;
     // Key for the book description
-    private static final String DESCRIPTION = "description";
-
+    private static final String DESCRIPTION = BookParser.KEY_DESCRIPTION;
+    // Key for the links to the cover images of the book
+    private static final String IMAGE_LINKS = BookParser.KEY_IMAGE_LINKS;
+    // Key for the link to the small cover thumbnail
+    private static final String SMALL_THUMBNAIL = BookParser.KEY_SMALL_THUMBNAIL;
+
+    // Default connect and read timeouts of a request, in milliseconds
+    private static final int DEFAULT_TIMEOUT_MILLIS = 15000;
+    // Number of threads waiting for the first and the hedged requests of the pages loaded at the
+    // same time. When they are all busy, a page is requested without hedging.
+    private static final int HEDGE_THREADS = 6;
+    // Number of complete responses waiting to be measured; the pages loaded while it is full
+    // are not measured
+    private static final int PAYLOAD_QUEUE = 16;
+
+    // Connect timeout of a request, unless a shorter one is given
+    private static volatile int connectTimeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+    // Read timeout of a request, unless a shorter one is given
+    private static volatile int readTimeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+    // When true, the size of every projected response is logged next to the size of the
+    // complete response, which is downloaded a second time only for that purpose
+    private static volatile boolean logPayloadSavings;
+    // How the requests are retried, broken off and rate limited; until the app configures it,
+    // every request is sent once
+    private static TransportPolicy transportPolicy = new TransportPolicy()
+            .setMaxAttempts(1).setHedging(0, 0).setCircuitBreaker(0, 0).setRateLimit(0, 0);
+    // Sends the requests following the transport policy, and the client parsing their books.
+    // Both are created when first needed, and again once the configuration changed.
+    private static ResilientTransport transport;
+    private static BookSearchClient<Book> client;
+    // Runs the first and the hedged requests of a page at the same time
+    private static final ThreadPoolExecutor HEDGE_EXECUTOR = new ThreadPoolExecutor(0, HEDGE_THREADS,
+            30, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), backgroundThreads("Hedge"));
+    // Downloads the complete responses measured by logPayloadSavings, one at a time, so the
+    // loader threads do not wait for them
+    private static final ThreadPoolExecutor PAYLOAD_EXECUTOR = new ThreadPoolExecutor(0, 1,
+            30, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(PAYLOAD_QUEUE),
+            backgroundThreads("Payload savings"), new ThreadPoolExecutor.DiscardPolicy());
 
     // Tag for the log messages
     private static final String LOG_TAG = Utils.class.getSimpleName();
 
+    // Returns a factory of background priority threads with the given name and their number.
+    private static ThreadFactory backgroundThreads(final String name) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, name + " #" + count.incrementAndGet());
+            }
+        };
+    }
+
     // Create a private constructor.
     // This class is only meant to hold static variables and methods, which can be accessed
     // directly from the class name Utils (and an object instance of Utils is not needed).
     private Utils() {
     }
 
-    // Make an HTTP request to the given URL and return a String as the response.
-    private static String makeHTTPRequest(URL url) throws IOException {
-        String jsonResponse = "";
+    // Configure the HTTP requests made to Google Books. Up to maxIdleConnections keep-alive
+    // connections are kept open between requests, so a repeated query reuses the socket and TLS
+    // session of the previous one instead of connecting again.
+    public static void configureHttp(int connectTimeout, int readTimeout, int maxIdleConnections) {
+        connectTimeoutMillis = connectTimeout;
+        readTimeoutMillis = readTimeout;
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", String.valueOf(maxIdleConnections));
+        synchronized (Utils.class) {
+            client = null;
+        }
+    }
+
+    // Returns the connect timeout of the requests, in milliseconds.
+    static int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
 
-        // If the URL is null, then return early.
-        if (url == null) {
-            return jsonResponse;
+    // Returns the read timeout of the requests, in milliseconds.
+    static int getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    // Configure how the requests to Google Books are retried, broken off while it keeps failing,
+    // rate limited, and when they are worth hedging.
+    public static synchronized void configureTransport(TransportPolicy policy) {
+        transportPolicy = policy;
+        client = null;
+    }
+
+    // Returns the client requesting the searches, created with the current configuration.
+    private static synchronized BookSearchClient<Book> getClient() {
+        if (client == null) {
+            transport = new ResilientTransport(
+                    new HttpUrlConnectionTransport(connectTimeoutMillis, readTimeoutMillis),
+                    transportPolicy, HEDGE_EXECUTOR, AndroidLogger.INSTANCE);
+            client = new BookSearchClient<>(transport, Book.FACTORY, AndroidLogger.INSTANCE,
+                    DEFAULT_TIMEOUT_MILLIS);
+        }
+        return client;
+    }
+
+    // Returns the circuit breaker of the requests, or null when there is none.
+    static synchronized CircuitBreaker getCircuitBreaker() {
+        getClient();
+        return transport.getCircuitBreaker();
+    }
+
+    // Enable or disable logging how many bytes the fields= projection saves on every request.
+    // This downloads every page twice, so it is only meant for measurements.
+    public static void setLogPayloadSavings(boolean enabled) {
+        logPayloadSavings = enabled;
+    }
+
+    // Log the number of bytes received for a projected response, next to the number of bytes
+    // the same response has without its fields= projection. The complete response is downloaded
+    // in the background, with the connect and read timeouts of the other requests.
+    private static void logPayloadSavings(final String projectedUrl, final long projectedBytes) {
+        int fields = projectedUrl.indexOf(SearchUrls.FIELDS_PARAMETER);
+        if (fields == -1) {
+            return;
         }
+        int end = projectedUrl.indexOf('&', fields + 1);
+        final String fullUrl = projectedUrl.substring(0, fields) + (end == -1 ? "" : projectedUrl.substring(end));
+        final Transport payloadTransport = new HttpUrlConnectionTransport(connectTimeoutMillis, readTimeoutMillis);
+
+        PAYLOAD_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    long fullBytes = downloadedBytes(payloadTransport, fullUrl);
+                    long savedPercent = fullBytes == 0 ? 0 : 100 * (fullBytes - projectedBytes) / fullBytes;
+                    Log.i(LOG_TAG, "Payload of " + projectedUrl + ": " + projectedBytes + " bytes projected, "
+                            + fullBytes + " bytes complete, " + savedPercent + "% saved");
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Problem measuring the complete response:", e);
+                }
+            }
+        });
+    }
 
-        HttpURLConnection urlConnection = null;
-        InputStream inputStream = null;
+    // Download the given URL, gzip-compressed, and return the number of bytes of its body.
+    private static long downloadedBytes(Transport transport, String url) throws IOException {
+        Transport.Response response = transport.get(new URL(url),
+                Collections.singletonMap("Accept-Encoding", "gzip"), Integer.MAX_VALUE,
+                new Cancellation(), RequestListener.NONE);
         try {
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setReadTimeout(15000 /* milliseconds */);
-            urlConnection.setConnectTimeout(15000 /* milliseconds */);
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // If the request was successful (response code 200),
-            // then read the input stream and parse the response.
-            if (urlConnection.getResponseCode() == 200) {
-                inputStream = urlConnection.getInputStream();
-                jsonResponse = readFromStream(inputStream);
-            } else {
-                Log.e(LOG_TAG, "Error response code: " + urlConnection.getResponseCode());
+            InputStream body = response.getBody();
+            long count = 0;
+            if (body != null) {
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = body.read(buffer)) != -1) {
+                    count += read;
+                }
             }
+            response.close();
+            return count;
         } catch (IOException e) {
-            Log.e(LOG_TAG, "Problem retrieving the book JSON result:", e);
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if (inputStream != null) {
-                // Closing the input stream could throw an IOException, which is why
-                // the makeHttpRequest(URL url) method signature specifies that an IOException
-                // could be thrown.
+            response.abort();
+            throw e;
+        }
+    }
+
+    // Return the books of a cached response, parsing its body only if it was not parsed before.
+    private static ArrayList<Book> readCachedBooks(BookResponseCache cache,
+                                                   BookResponseCache.Entry entry) throws IOException {
+        ArrayList<Book> books = cache.getParsedBooks(entry);
+        if (books == null) {
+            InputStream inputStream = entry.openBody();
+            try {
+                books = extractFeatureFromStream(inputStream);
+            } finally {
                 inputStream.close();
             }
+            cache.putParsedBooks(entry, books);
         }
-        return jsonResponse;
+        return books;
     }
 
     // Return a list of Book objects that has been built up from parsing the given JSON response.
-    private static ArrayList<Book> extractFeatureFromJson(String bookJSON) {
+    // This whole-string parser is kept as the reference for extractFeatureFromStream().
+    static ArrayList<Book> extractFeatureFromJson(String bookJSON) {
 
         // If the JSON string is empty or null, then return early.
         if (TextUtils.isEmpty(bookJSON)) {
             return null;
         }
 
+        RequestMetrics.beginSection("extractFeatureFromJson");
+        try {
+            return extractBooks(bookJSON);
+        } finally {
+            RequestMetrics.endSection();
+        }
+    }
+
+    // Parse the given JSON string with JSONObject.
+    private static ArrayList<Book> extractBooks(String bookJSON) {
+
         // Create an empty ArrayList that we can start adding books to
         ArrayList<Book> books = new ArrayList<>();
 
@@ -113,6 +278,9 @@ public final class Utils {
                     // Get a single book at position i within the list of books
                     JSONObject currentBook = bookArray.getJSONObject(i);
 
+                    // get the volume id, used to recognize the same book across pages
+                    String id = currentBook.optString(ID);
+
                     // For a given book, extract the JSONObject associated with the
                     // key called "volumeInfo", which represents a list of all information
                     // for a book.
@@ -130,8 +298,7 @@ public final class Utils {
                     if (volumeInfo.has(AUTHORS)) {
                         // Extract the value for the key called "authors" and refactor it
                         authors = volumeInfo.getString(AUTHORS);
-                        authors = authors.replaceAll("[\\[\\](){}]", "");
-                        authors = authors.replace("\"", "");
+                        authors = BookParser.cleanUpAuthors(authors);
                     }
 
                     String description = "";
@@ -140,8 +307,15 @@ public final class Utils {
                         description = volumeInfo.getString(DESCRIPTION);
                     }
 
-                    // Create a new Book object with the title, author and description from the JSON response.
-                    Book book = new Book(title, authors, description);
+                    // get the cover thumbnail
+                    String thumbnail = "";
+                    JSONObject imageLinks = volumeInfo.optJSONObject(IMAGE_LINKS);
+                    if (imageLinks != null && imageLinks.has(SMALL_THUMBNAIL)) {
+                        thumbnail = imageLinks.getString(SMALL_THUMBNAIL);
+                    }
+
+                    // Create a new Book object with the title, author, description and cover from the JSON response.
+                    Book book = new Book(id, title, authors, description, thumbnail);
 
                     // Add the new Book to the list of books.
                     books.add(book);
@@ -158,38 +332,160 @@ public final class Utils {
         return books;
     }
 
+    // Return a list of Book objects that is built up while the given JSON stream is being read,
+    // by the parser of the search core.
+    static ArrayList<Book> extractFeatureFromStream(InputStream inputStream) throws IOException {
+
+        // If there is no stream, then return early.
+        if (inputStream == null) {
+            return null;
+        }
+
+        // Create an empty ArrayList that we can start adding books to
+        ArrayList<Book> books = new ArrayList<>();
+        readBooks(inputStream, books);
+
+        // Return the list of books
+        return books;
+    }
+
+    // Add the books read from the given JSON stream to the given list, and return true if the
+    // whole JSON document could be read.
+    private static boolean readBooks(InputStream inputStream, ArrayList<Book> books)
+            throws IOException {
+        return BookParser.readBooks(inputStream, books, Book.FACTORY, AndroidLogger.INSTANCE);
+    }
+
     // Query the Google Books API and return an object with an ArrayList of books.
     public static ArrayList<Book> fetchBooksData(String searchUrl) {
+        return fetchBooksData(searchUrl, false);
+    }
 
-        // Create a URL object
-        URL url = createUrl(searchUrl);
+    // Query the Google Books API and return an object with an ArrayList of books.
+    // When offline is true, only the response cache is used.
+    public static ArrayList<Book> fetchBooksData(String searchUrl, boolean offline) {
+        return fetchBooksData(searchUrl, offline, null, Integer.MAX_VALUE);
+    }
 
-        //Make a HTTP request to the given URL and return a JSON as the response.
-        String jsonResponse = null;
+    // Query the Google Books API and return an object with an ArrayList of books, or null if
+    // the given signal is cancelled before the books are read.
+    // When offline is true, only the response cache is used. The connect and read timeouts
+    // never exceed the given timeout, so a request cannot outlive the caller's deadline.
+    public static ArrayList<Book> fetchBooksData(String searchUrl, boolean offline,
+                                                 CancellationSignal cancellationSignal,
+                                                 int timeoutMillis) {
+        return fetchBooksData(searchUrl, offline, cancellationSignal, timeoutMillis, null);
+    }
+
+    // Query the Google Books API like the method above, adding the time spent in every phase of
+    // the request to the given metrics, unless they are null.
+    // When a response cache is installed, a fresh cached response is returned without any
+    // network round-trip, and a stale one is revalidated with a conditional GET.
+    // The request itself is sent by the search core, which retries it, hedges it when it is
+    // slower than the recent ones, breaks it off while Google Books keeps failing, and
+    // disconnects it when the given signal is cancelled.
+    static ArrayList<Book> fetchBooksData(String searchUrl, boolean offline,
+                                          CancellationSignal cancellationSignal,
+                                          int timeoutMillis, RequestMetrics.Request metrics) {
+
+        // Don't start a request that is no longer wanted
+        if (cancellationSignal != null && cancellationSignal.isCanceled()) {
+            return null;
+        }
+
+        // Look for a cached response of the same URL
+        long phaseStart = System.nanoTime();
+        BookResponseCache cache = BookResponseCache.getInstalled();
+        BookResponseCache.Entry cached = cache == null ? null : cache.get(searchUrl);
         try {
-            jsonResponse = makeHTTPRequest(url);
+            if (cached != null && (offline || cache.isFresh(cached))) {
+                ArrayList<Book> books = readCachedBooks(cache, cached);
+                if (metrics != null) {
+                    metrics.setCacheHit();
+                }
+                return books;
+            }
         } catch (IOException e) {
-            Log.e(LOG_TAG, "Error performing the HTTP request:", e);
+            Log.e(LOG_TAG, "Problem reading the cached response:", e);
+            return null;
+        } finally {
+            if (metrics != null) {
+                metrics.addSince(RequestMetrics.Phase.CACHE, phaseStart);
+            }
+        }
+        if (offline) {
+            return null;
+        }
 
+        final Cancellation cancellation = new Cancellation();
+        if (cancellationSignal != null) {
+            // Runs right away if the request was already cancelled
+            cancellationSignal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+                @Override
+                public void onCancel() {
+                    cancellation.cancel();
+                }
+            });
+        }
+        CacheCopy copy = cache == null ? null : new CacheCopy(cache, searchUrl);
+        MetricsListener listener = new MetricsListener(metrics);
+        try {
+            BookSearchClient.Result<Book> result = getClient().search(searchUrl,
+                    cached == null || cached.getETag().isEmpty() ? null : cached.getETag(),
+                    cached == null || cached.getLastModified().isEmpty() ? null : cached.getLastModified(),
+                    copy, timeoutMillis, cancellation, listener);
+
+            phaseStart = System.nanoTime();
+            ArrayList<Book> books;
+            if (result.isNotModified()) {
+                // The cached body is still valid, so there is nothing to download or parse
+                cache.markRevalidated(cached);
+                books = readCachedBooks(cache, cached);
+            } else {
+                books = new ArrayList<>(result.getBooks());
+                // Only a response that was parsed to its end is worth caching
+                if (result.isComplete() && copy != null) {
+                    copy.commit(books);
+                }
+            }
+            if (metrics != null) {
+                metrics.addSince(RequestMetrics.Phase.CACHE, phaseStart);
+            }
+            if (logPayloadSavings && result.isComplete() && !result.isNotModified()) {
+                logPayloadSavings(searchUrl, listener.getBytesReceived());
+            }
+            return cancellation.isCancelled() ? null : books;
+        } catch (IOException e) {
+            // A cancelled request fails once its connection is disconnected
+            if (!cancellation.isCancelled()) {
+                Log.e(LOG_TAG, "Error performing the HTTP request:", e);
+            }
+            return null;
+        } finally {
+            if (cancellationSignal != null) {
+                cancellationSignal.setOnCancelListener(null);
+            }
+            if (copy != null) {
+                copy.abort();
+            }
         }
+    }
 
-        // Return the list of Books.
-        return extractFeatureFromJson(jsonResponse);
+    // Returns the search URL for one page of results, with maxResults books starting at startIndex.
+    // The response is projected to the fields a Book is made of.
+    public static String buildSearchUrl(String baseUrl, String query, int startIndex, int maxResults) {
+        return SearchUrls.build(baseUrl, query, startIndex, maxResults);
     }
 
-    // Returns new URL object from the given search query.
-    private static URL createUrl(String searchBook) {
-        URL url = null;
-        try {
-            url = new URL(searchBook);
-        } catch (MalformedURLException e) {
-            Log.e(LOG_TAG, "Problem building the URL:", e);
-        }
-        return url;
+    // Returns the partial response asked from Google Books: the id and the volumeInfo keys of
+    // a Book for every item, which is
+    // "items(id,volumeInfo(title,authors,description,imageLinks/smallThumbnail))".
+    static String getFieldsProjection() {
+        return BookParser.getFieldsProjection();
     }
 
     // Convert the InputStream into a String which contains the whole JSON response from the server.
-    private static String readFromStream(InputStream inputStream) throws IOException {
+    static String readFromStream(InputStream inputStream) throws IOException {
         StringBuilder output = new StringBuilder();
         if (inputStream != null) {
             InputStreamReader inputStreamReader = new InputStreamReader(inputStream, Charset.forName("UTF-8"));
@@ -202,4 +498,41 @@ public final class Utils {
         }
         return output.toString();
     }
-}
\ No newline at end of file
+
+    // Copies the body of a response into the response cache, under the validators of the response.
+    private static final class CacheCopy implements BookSearchClient.BodySink {
+
+        private final BookResponseCache cache;
+        private final String url;
+        // The cache entry being written, until it is committed or aborted
+        private BookResponseCache.Editor editor;
+
+        CacheCopy(BookResponseCache cache, String url) {
+            this.cache = cache;
+            this.url = url;
+        }
+
+        @Override
+        public OutputStream open(String eTag, String lastModified) throws IOException {
+            editor = cache.edit(url, eTag, lastModified);
+            return editor.getOutputStream();
+        }
+
+        // Keeps the copied body in the cache, together with the books parsed from it.
+        void commit(ArrayList<Book> books) throws IOException {
+            if (editor != null) {
+                BookResponseCache.Entry entry = editor.commit();
+                editor = null;
+                cache.putParsedBooks(entry, books);
+            }
+        }
+
+        // Drops the copied body, unless it was committed.
+        void abort() {
+            if (editor != null) {
+                editor.abort();
+                editor = null;
+            }
+        }
+    }
+}
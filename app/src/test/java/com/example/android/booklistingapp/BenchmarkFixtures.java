@@ -0,0 +1,98 @@
+package com.example.android.booklistingapp;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Google Books responses of 10, 40 and 1000 items for the benchmarks.
+ * The 10 items one is the recorded fixture; the larger ones repeat its items with their own ids,
+ * every fourth one with a long description, and with titles and descriptions in several scripts,
+ * so the parsers also go through long strings and multi-byte UTF-8.
+ */
+final class BenchmarkFixtures {
+
+    // Number of items of the responses benchmarked
+    static final int[] SIZES = {10, 40, 1000};
+
+    // Recorded response the larger ones are made from
+    private static final String RECORDED = "fixtures/volumes_10.json";
+    // Length every fourth description is grown to
+    private static final int LONG_DESCRIPTION_LENGTH = 4000;
+    // Text appended to the titles and descriptions, one per book in turn
+    private static final String[] UNICODE_SAMPLES = {
+            "Crème brûlée – naïve café",
+            "Ελληνικά βιβλία",
+            "日本語の本",
+            "Русская литература",
+            "العربية",
+            "Books 📚 and stars ✨",
+    };
+
+    // The responses already built, by number of items
+    private static final HashMap<Integer, byte[]> RESPONSES = new HashMap<>();
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * Returns the UTF-8 bytes of a response with the given number of items.
+     */
+    static synchronized byte[] response(int items) throws Exception {
+        byte[] response = RESPONSES.get(items);
+        if (response == null) {
+            String json = items == 10 ? readRecorded() : synthesize(items);
+            response = json.getBytes(Charset.forName("UTF-8"));
+            RESPONSES.put(items, response);
+        }
+        return response;
+    }
+
+    /**
+     * Returns the books of a response with the given number of items.
+     */
+    static ArrayList<Book> books(int items) throws Exception {
+        return Utils.extractFeatureFromJson(new String(response(items), Charset.forName("UTF-8")));
+    }
+
+    private static String synthesize(int items) throws Exception {
+        JSONObject response = new JSONObject(readRecorded());
+        JSONArray recordedItems = response.getJSONArray("items");
+        JSONArray newItems = new JSONArray();
+        for (int i = 0; i < items; i++) {
+            JSONObject item = new JSONObject(recordedItems.getJSONObject(i % recordedItems.length()).toString());
+            String sample = UNICODE_SAMPLES[i % UNICODE_SAMPLES.length];
+            item.put("id", item.getString("id") + "-" + i);
+
+            JSONObject volumeInfo = item.getJSONObject("volumeInfo");
+            volumeInfo.put("title", volumeInfo.optString("title") + " " + sample);
+            StringBuilder description = new StringBuilder(volumeInfo.optString("description"));
+            if (i % 4 == 0) {
+                String paragraph = description.length() > 0 ? description.toString() : sample;
+                while (description.length() < LONG_DESCRIPTION_LENGTH) {
+                    description.append(' ').append(paragraph);
+                }
+            }
+            description.append(' ').append(sample);
+            volumeInfo.put("description", description.toString());
+            newItems.put(item);
+        }
+        response.put("items", newItems);
+        response.put("totalItems", items);
+        return response.toString();
+    }
+
+    private static String readRecorded() throws IOException {
+        InputStream in = BenchmarkFixtures.class.getClassLoader().getResourceAsStream(RECORDED);
+        try {
+            return Utils.readFromStream(in);
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.example.android.booklistingapp;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.security.CodeSource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A small benchmark harness for the JVM unit tests, in the spirit of JMH: every benchmark is
+ * warmed up, then measured over several timed iterations, and its average time and allocated
+ * bytes per operation are written as JMH-compatible JSON, so results of two runs or two parser
+ * implementations can be compared with the usual JMH tools.
+ * <p>
+ * The benchmarks only run with {@code ./gradlew testDebugUnitTest -Pbenchmark}. The results are
+ * written to {@code app/build/benchmarks/<suite>.json}. The timings can be changed with the
+ * {@code benchmark.warmupMillis}, {@code benchmark.iterations} and
+ * {@code benchmark.iterationMillis} properties, e.g. {@code -Pbenchmark.iterations=20}.
+ */
+final class BenchmarkRunner {
+
+    // Total warmup time of a benchmark before it is measured
+    private static final long WARMUP_MILLIS = Long.getLong("benchmark.warmupMillis", 1000);
+    // Number of measured iterations of a benchmark
+    private static final int ITERATIONS = Integer.getInteger("benchmark.iterations", 10);
+    // Duration of one measured iteration
+    private static final long ITERATION_MILLIS = Long.getLong("benchmark.iterationMillis", 200);
+    // Two-sided 99.9% quantile of the normal distribution, used for the error of a score
+    private static final double Z_999 = 3.29;
+
+    // Results of the operations are written here, so the JIT cannot drop the work
+    static volatile Object sink;
+
+    // Name of the suite, which is also the name of its result file
+    private final String suite;
+    // The results of the benchmarks run so far, in the JMH JSON format
+    private final JSONArray results = new JSONArray();
+
+    BenchmarkRunner(String suite) {
+        this.suite = suite;
+    }
+
+    /**
+     * An operation being measured. It returns its result, which is kept so it is not optimized
+     * away.
+     */
+    interface Operation {
+        Object run() throws Exception;
+    }
+
+    /**
+     * Warms up and measures the given operation, and records its result.
+     *
+     * @param name        is the name of the benchmark
+     * @param params      are the parameters of the benchmark, such as the number of items
+     * @param itemsPerOp  is the number of items handled by one operation, to also report the
+     *                    allocation per item
+     * @param operation   is the operation measured
+     * @return the recorded result, to which more metrics can be added
+     */
+    JSONObject measure(String name, Map<String, String> params, int itemsPerOp, Operation operation)
+            throws Exception {
+        long warmupEnd = System.nanoTime() + WARMUP_MILLIS * 1000000L;
+        while (System.nanoTime() < warmupEnd) {
+            sink = operation.run();
+        }
+
+        double[] nanosPerOp = new double[ITERATIONS];
+        long totalOps = 0;
+        long allocatedBefore = allocatedBytes();
+        for (int i = 0; i < ITERATIONS; i++) {
+            long ops = 0;
+            long start = System.nanoTime();
+            long end = start + ITERATION_MILLIS * 1000000L;
+            long now;
+            do {
+                sink = operation.run();
+                ops++;
+                now = System.nanoTime();
+            } while (now < end);
+            nanosPerOp[i] = (double) (now - start) / ops;
+            totalOps += ops;
+        }
+        long allocated = allocatedBytes() - allocatedBefore;
+
+        double mean = 0;
+        for (double value : nanosPerOp) {
+            mean += value;
+        }
+        mean /= ITERATIONS;
+        double variance = 0;
+        for (double value : nanosPerOp) {
+            variance += (value - mean) * (value - mean);
+        }
+        double error = ITERATIONS > 1 ? Z_999 * Math.sqrt(variance / (ITERATIONS - 1)) / Math.sqrt(ITERATIONS) : 0;
+
+        JSONArray rawData = new JSONArray();
+        for (double value : nanosPerOp) {
+            rawData.put(value / 1000.0);
+        }
+        JSONObject primary = new JSONObject()
+                .put("score", mean / 1000.0)
+                .put("scoreError", error / 1000.0)
+                .put("scoreUnit", "us/op")
+                .put("rawData", new JSONArray().put(rawData));
+
+        JSONObject result = new JSONObject()
+                .put("benchmark", getClass().getPackage().getName() + "." + suite + "." + name)
+                .put("mode", "avgt")
+                .put("warmupTime", WARMUP_MILLIS + " ms")
+                .put("measurementIterations", ITERATIONS)
+                .put("measurementTime", ITERATION_MILLIS + " ms")
+                .put("params", new JSONObject(params == null ? new LinkedHashMap<String, String>() : params))
+                .put("primaryMetric", primary)
+                .put("secondaryMetrics", new JSONObject());
+        if (allocated >= 0) {
+            addMetric(result, "gc.alloc.rate.norm", (double) allocated / totalOps, "B/op");
+            if (itemsPerOp > 0) {
+                addMetric(result, "gc.alloc.rate.norm.item", (double) allocated / totalOps / itemsPerOp, "B/item");
+            }
+        }
+        if (itemsPerOp > 0) {
+            addMetric(result, "time.item", mean / itemsPerOp, "ns/item");
+        }
+        results.put(result);
+
+        System.out.println(String.format("%s.%s %s: %.3f ± %.3f us/op", suite, name,
+                params == null ? "" : params, mean / 1000.0, error / 1000.0));
+        return result;
+    }
+
+    // Adds a secondary metric to a recorded result.
+    static void addMetric(JSONObject result, String name, double score, String unit) throws JSONException {
+        result.getJSONObject("secondaryMetrics").put(name, new JSONObject()
+                .put("score", score)
+                .put("scoreUnit", unit));
+    }
+
+    // Returns a map of benchmark parameters from pairs of names and values.
+    static Map<String, String> params(String... namesAndValues) {
+        LinkedHashMap<String, String> params = new LinkedHashMap<>();
+        for (int i = 0; i + 1 < namesAndValues.length; i += 2) {
+            params.put(namesAndValues[i], namesAndValues[i + 1]);
+        }
+        return params;
+    }
+
+    /**
+     * Writes the results of the suite to its JSON file.
+     */
+    void writeResults() throws IOException, JSONException {
+        String output = System.getProperty("benchmark.output");
+        File directory = output != null ? new File(output) : defaultOutputDirectory();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        File file = new File(directory, suite + ".json");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), Charset.forName("UTF-8"));
+        try {
+            writer.write(results.toString(2));
+        } finally {
+            writer.close();
+        }
+        System.out.println("Benchmark results written to " + file.getAbsolutePath());
+    }
+
+    // Returns the benchmarks directory of the build directory the tests were compiled into, when
+    // they are not run by Gradle, which sets the directory. The working directory of the run is
+    // not used, since it may be anywhere in the sources.
+    private static File defaultOutputDirectory() {
+        try {
+            CodeSource source = BenchmarkRunner.class.getProtectionDomain().getCodeSource();
+            if (source != null) {
+                File classes = new File(source.getLocation().toURI());
+                for (File parent = classes; parent != null; parent = parent.getParentFile()) {
+                    if (parent.getName().equals("build")) {
+                        return new File(parent, "benchmarks");
+                    }
+                }
+            }
+        } catch (URISyntaxException | SecurityException e) {
+            // Falls through to the temporary directory
+        }
+        return new File(System.getProperty("java.io.tmpdir"), "benchmarks");
+    }
+
+    // Returns the number of bytes allocated by the current thread so far, or -1 when the JVM
+    // cannot tell.
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+            if (sunThreads.isThreadAllocatedMemorySupported() && sunThreads.isThreadAllocatedMemoryEnabled()) {
+                return sunThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+}
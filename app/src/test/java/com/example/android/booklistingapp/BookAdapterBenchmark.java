@@ -0,0 +1,68 @@
+package com.example.android.booklistingapp;
+
+import android.content.Context;
+import android.widget.FrameLayout;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+
+import static com.example.android.booklistingapp.BenchmarkRunner.params;
+
+/**
+ * Measures the cost of the list rows: inflating a row and binding books to it. No image loader
+ * is installed, so only the text of the rows is measured.
+ * The views are Robolectric views, so the numbers compare changes of the adapter with each
+ * other rather than predict the time taken on a device.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class BookAdapterBenchmark {
+
+    private static final BenchmarkRunner runner = new BenchmarkRunner("BookAdapterBenchmark");
+
+    @AfterClass
+    public static void writeResults() throws Exception {
+        runner.writeResults();
+    }
+
+    @Test
+    public void createViewHolder() throws Exception {
+        Context context = RuntimeEnvironment.application;
+        final FrameLayout parent = new FrameLayout(context);
+        final BookAdapter adapter = new BookAdapter(context, BenchmarkFixtures.books(10));
+        runner.measure("createViewHolder", null, 1, new BenchmarkRunner.Operation() {
+            @Override
+            public Object run() {
+                return adapter.onCreateViewHolder(parent, 0);
+            }
+        });
+    }
+
+    @Test
+    public void bindViewHolder() throws Exception {
+        Context context = RuntimeEnvironment.application;
+        FrameLayout parent = new FrameLayout(context);
+        for (final int items : BenchmarkFixtures.SIZES) {
+            ArrayList<Book> books = BenchmarkFixtures.books(items);
+            final BookAdapter adapter = new BookAdapter(context, books);
+            final BookAdapter.BookViewHolder holder = adapter.onCreateViewHolder(parent, 0);
+            final int count = adapter.getItemCount();
+            runner.measure("bindViewHolder", params("items", String.valueOf(items)), count,
+                    new BenchmarkRunner.Operation() {
+                        @Override
+                        public Object run() {
+                            for (int i = 0; i < count; i++) {
+                                adapter.onBindViewHolder(holder, i);
+                            }
+                            return holder;
+                        }
+                    });
+        }
+    }
+}
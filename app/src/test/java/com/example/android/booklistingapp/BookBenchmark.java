@@ -0,0 +1,111 @@
+package com.example.android.booklistingapp;
+
+import android.os.Parcel;
+
+import org.json.JSONObject;
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+
+import static com.example.android.booklistingapp.BenchmarkRunner.params;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures creating books, reading their text, and parcelling them as the saved instance state
+ * of the activity used to, with the time and the allocated bytes per book.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class BookBenchmark {
+
+    private static final BenchmarkRunner runner = new BenchmarkRunner("BookBenchmark");
+
+    @AfterClass
+    public static void writeResults() throws Exception {
+        runner.writeResults();
+    }
+
+    @Test
+    public void create() throws Exception {
+        for (final int items : BenchmarkFixtures.SIZES) {
+            ArrayList<Book> books = BenchmarkFixtures.books(items);
+            final String[][] fields = new String[books.size()][];
+            for (int i = 0; i < books.size(); i++) {
+                Book book = books.get(i);
+                fields[i] = new String[]{book.getId(), book.getTitle(), book.getAuthor(),
+                        book.getDescription(), book.getThumbnail()};
+            }
+            JSONObject result = runner.measure("create", params("items", String.valueOf(items)), items,
+                    new BenchmarkRunner.Operation() {
+                        @Override
+                        public Object run() {
+                            Book[] created = new Book[fields.length];
+                            for (int i = 0; i < fields.length; i++) {
+                                String[] book = fields[i];
+                                created[i] = new Book(book[0], book[1], book[2], book[3], book[4]);
+                            }
+                            return created;
+                        }
+                    });
+
+            // The estimated size is what the result cache is bounded by
+            long estimatedSize = 0;
+            for (Book book : books) {
+                estimatedSize += book.estimateSizeBytes();
+            }
+            BenchmarkRunner.addMetric(result, "estimateSizeBytes.item", (double) estimatedSize / items, "B/item");
+        }
+    }
+
+    @Test
+    public void readText() throws Exception {
+        for (final int items : BenchmarkFixtures.SIZES) {
+            final ArrayList<Book> books = BenchmarkFixtures.books(items);
+            runner.measure("readText", params("items", String.valueOf(items)), items,
+                    new BenchmarkRunner.Operation() {
+                        @Override
+                        public Object run() {
+                            int length = 0;
+                            for (Book book : books) {
+                                length += book.getTitle().length() + book.getAuthor().length()
+                                        + book.getDescription().length();
+                            }
+                            return length;
+                        }
+                    });
+        }
+    }
+
+    @Test
+    public void parcel() throws Exception {
+        for (final int items : BenchmarkFixtures.SIZES) {
+            final ArrayList<Book> books = BenchmarkFixtures.books(items);
+            JSONObject result = runner.measure("parcel", params("items", String.valueOf(items)), items,
+                    new BenchmarkRunner.Operation() {
+                        @Override
+                        public Object run() {
+                            Parcel parcel = Parcel.obtain();
+                            try {
+                                parcel.writeTypedList(books);
+                                parcel.setDataPosition(0);
+                                return parcel.createTypedArrayList(Book.CREATOR);
+                            } finally {
+                                parcel.recycle();
+                            }
+                        }
+                    });
+
+            Parcel parcel = Parcel.obtain();
+            parcel.writeTypedList(books);
+            int parcelSize = parcel.dataSize();
+            parcel.setDataPosition(0);
+            assertEquals(items, parcel.createTypedArrayList(Book.CREATOR).size());
+            parcel.recycle();
+            BenchmarkRunner.addMetric(result, "parcel.bytes", parcelSize, "B/op");
+        }
+    }
+}
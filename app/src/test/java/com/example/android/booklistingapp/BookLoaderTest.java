@@ -0,0 +1,126 @@
+package com.example.android.booklistingapp;
+
+import com.example.android.booklistingapp.loadtest.StubBooksServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the loader shares one download between the requests for the same page, rejects the
+ * requests its queue has no room for, and gives up on a page that takes longer than its timeout,
+ * against a local stand-in for Google Books.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class BookLoaderTest {
+
+    private static final int PAGE_SIZE = 10;
+
+    private StubBooksServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubBooksServer(new StubBooksServer.Config().setGeneratedBooks(100, 100), 0);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void samePage_isDownloadedOnce() throws Exception {
+        BookLoader loader = new BookLoader(2, 4, 20000);
+        server.delayNext(1, 300);
+        Delivery first = load(loader, "java", 0);
+        Delivery second = load(loader, "java", 0);
+        Delivery cancelled = load(loader, "java", 0);
+        cancelled.request.cancel();
+
+        assertEquals(PAGE_SIZE, first.await().size());
+        assertEquals(PAGE_SIZE, second.await().size());
+        // Every request gets its own list
+        assertNotSame(first.books, second.books);
+        assertEquals(0, cancelled.count);
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void fullQueue_rejectsTheRequest() throws Exception {
+        // One thread, and room for one waiting request
+        BookLoader loader = new BookLoader(1, 1, 20000);
+        server.delayNext(2, 300);
+        Delivery running = load(loader, "java", 0);
+        Delivery waiting = load(loader, "java", PAGE_SIZE);
+        Delivery rejected = load(loader, "java", 2 * PAGE_SIZE);
+
+        assertNull(rejected.await());
+        assertEquals(PAGE_SIZE, running.await().size());
+        assertEquals(PAGE_SIZE, waiting.await().size());
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void slowPage_timesOutAndFreesItsThread() throws Exception {
+        BookLoader loader = new BookLoader(1, 1, 1000);
+        server.delayNext(1, 5000);
+        Delivery slow = load(loader, "java", 0);
+        long deadline = System.nanoTime() + 5000000000L;
+        while (server.getRequestCount() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        // The timeout runs on the main thread, whose clock is run forward
+        ShadowLooper.idleMainLooper(1000);
+        assertEquals(1, slow.count);
+        assertNull(slow.books);
+
+        // The slow request was disconnected, so the only thread loads the next page right away
+        long start = System.nanoTime();
+        assertEquals(PAGE_SIZE, load(loader, "java", PAGE_SIZE).await().size());
+        assertTrue((System.nanoTime() - start) / 1000000 < 2000);
+        assertEquals(1, slow.count);
+    }
+
+    private Delivery load(BookLoader loader, String query, int startIndex) {
+        Delivery delivery = new Delivery();
+        delivery.request = loader.load(Utils.buildSearchUrl(server.getBaseUrl(), query, startIndex, PAGE_SIZE),
+                QueryResultCache.keyOf(query, startIndex, PAGE_SIZE), false, delivery);
+        return delivery;
+    }
+
+    // Receives the books of a request on the main thread.
+    private static final class Delivery implements BookLoader.Callback {
+
+        BookLoader.Request request;
+        ArrayList<Book> books;
+        // Number of times the books were delivered
+        int count;
+
+        @Override
+        public void onBooksLoaded(ArrayList<Book> books) {
+            this.books = books;
+            count++;
+        }
+
+        // Runs the tasks posted to the main thread until the books are delivered, and returns them.
+        ArrayList<Book> await() throws InterruptedException {
+            long deadline = System.nanoTime() + 10000000000L;
+            while (count == 0 && System.nanoTime() < deadline) {
+                ShadowLooper.runUiThreadTasks();
+                Thread.sleep(10);
+            }
+            assertEquals(1, count);
+            return books;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.android.booklistingapp;
+
+import android.os.CancellationSignal;
+
+import com.example.android.booklistingapp.loadtest.StubBooksServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the response cache serves its fresh responses, revalidates the stale ones with a
+ * conditional GET, serves them while offline, and evicts the least recently used ones, against a
+ * local stand-in for Google Books answering 304 Not Modified to a matching ETag.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class BookResponseCacheTest {
+
+    private static final int PAGE_SIZE = 10;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private StubBooksServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubBooksServer(new StubBooksServer.Config().setGeneratedBooks(100, 100), 0);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        BookResponseCache.uninstall();
+    }
+
+    @Test
+    public void freshResponse_isServedWithoutARequest() throws Exception {
+        BookResponseCache.install(folder.newFolder(), 1 << 20, 60000);
+        List<String> first = ids(fetch("java", false));
+        assertEquals(first, ids(fetch("java", false)));
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void staleResponse_isRevalidatedWithoutItsBody() throws Exception {
+        BookResponseCache.install(folder.newFolder(), 1 << 20, 0);
+        List<String> first = ids(fetch("java", false));
+        long bytesSent = server.getBytesSent();
+
+        // The server answers 304 Not Modified, so the cached books are served again
+        assertEquals(first, ids(fetch("java", false)));
+        assertEquals(2, server.getRequestCount());
+        assertEquals(bytesSent, server.getBytesSent());
+    }
+
+    @Test
+    public void offline_servesTheCachedResponse() throws Exception {
+        File directory = folder.newFolder();
+        BookResponseCache.install(directory, 1 << 20, 0);
+        List<String> first = ids(fetch("java", false));
+
+        // A new process has no parsed books, so the body is read from its file
+        BookResponseCache.uninstall();
+        BookResponseCache.install(directory, 1 << 20, 0);
+        assertEquals(first, ids(fetch("java", true)));
+        assertNull(fetch("tolkien", true));
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void fullCache_evictsTheLeastRecentlyUsed() throws Exception {
+        // Room for two bodies of 1000 bytes, with their metadata
+        BookResponseCache cache = BookResponseCache.install(folder.newFolder(), 2500, 60000);
+        put(cache, "http://books/a");
+        put(cache, "http://books/b");
+        assertNotNull(cache.get("http://books/a"));
+        put(cache, "http://books/c");
+
+        assertNull(cache.get("http://books/b"));
+        assertNotNull(cache.get("http://books/a"));
+        assertNotNull(cache.get("http://books/c"));
+    }
+
+    // Caches a body of 1000 bytes for the given URL. Waits a little first, so the entries are
+    // ordered by their times of use.
+    private static void put(BookResponseCache cache, String url) throws Exception {
+        Thread.sleep(20);
+        BookResponseCache.Editor editor = cache.edit(url, "\"1\"", null);
+        editor.getOutputStream().write(new byte[1000]);
+        editor.commit();
+        Thread.sleep(20);
+    }
+
+    private ArrayList<Book> fetch(String query, boolean offline) {
+        return Utils.fetchBooksData(Utils.buildSearchUrl(server.getBaseUrl(), query, 0, PAGE_SIZE),
+                offline, new CancellationSignal(), 20000);
+    }
+
+    private static List<String> ids(List<Book> books) {
+        List<String> ids = new ArrayList<>();
+        for (Book book : books) {
+            ids.add(book.getId());
+        }
+        return ids;
+    }
+}
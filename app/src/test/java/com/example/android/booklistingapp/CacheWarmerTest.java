@@ -0,0 +1,104 @@
+package com.example.android.booklistingapp;
+
+import android.os.CancellationSignal;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the warm-up stops once it has sent its requests or downloaded its bytes, against a
+ * local server answering full pages of books.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class CacheWarmerTest {
+
+    private static final int PAGE_SIZE = 10;
+    private static final List<String> QUERIES = Arrays.asList("java", "tolkien", "austen");
+
+    // The body of every response: a full page of books
+    private byte[] page;
+    private HttpServer server;
+    private final AtomicInteger requestCount = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        StringBuilder json = new StringBuilder("{\"kind\":\"books#volumes\",\"totalItems\":100,\"items\":[");
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"id\":\"book").append(i)
+                    .append("\",\"volumeInfo\":{\"title\":\"Title ").append(i)
+                    .append("\",\"authors\":[\"Author\"],\"description\":\"A description\"}}");
+        }
+        page = json.append("]}").toString().getBytes(Charset.forName("UTF-8"));
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/books/v1/volumes", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requestCount.incrementAndGet();
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, page.length);
+                OutputStream body = exchange.getResponseBody();
+                body.write(page);
+                body.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void warmUp_refreshesTheFirstPagesOfEveryQuery() {
+        assertTrue(warmUp(2, 100, Long.MAX_VALUE, new CancellationSignal()));
+        assertEquals(6, requestCount.get());
+    }
+
+    @Test
+    public void warmUp_stopsOnceItsRequestsAreSent() {
+        assertTrue(warmUp(2, 3, Long.MAX_VALUE, new CancellationSignal()));
+        assertEquals(3, requestCount.get());
+    }
+
+    @Test
+    public void warmUp_stopsOnceItsBytesAreDownloaded() {
+        assertTrue(warmUp(2, 100, 2L * page.length, new CancellationSignal()));
+        assertEquals(2, requestCount.get());
+    }
+
+    @Test
+    public void warmUp_sendsNothingOnceCancelled() {
+        CancellationSignal cancellationSignal = new CancellationSignal();
+        cancellationSignal.cancel();
+        assertFalse(warmUp(2, 100, Long.MAX_VALUE, cancellationSignal));
+        assertEquals(0, requestCount.get());
+    }
+
+    private boolean warmUp(int pages, int maxRequests, long maxBytes, CancellationSignal cancellationSignal) {
+        String baseUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/books/v1/volumes";
+        return CacheWarmer.warmUp(QUERIES, baseUrl, PAGE_SIZE, pages, 5000, maxRequests, maxBytes,
+                cancellationSignal);
+    }
+}
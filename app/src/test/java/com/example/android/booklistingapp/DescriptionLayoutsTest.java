@@ -0,0 +1,182 @@
+package com.example.android.booklistingapp;
+
+import android.text.Layout;
+import android.text.TextPaint;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the previews of the descriptions: a description that fits is shown whole, and a longer
+ * one is cut at a word and ends with an ellipsis within the lines of the preview. Robolectric
+ * does not break a StaticLayout into lines, so the text is laid out with one character per pixel.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class DescriptionLayoutsTest {
+
+    private static final int PREVIEW_LINES = 3;
+
+    private DescriptionLayouts layouts;
+
+    @Before
+    public void setUp() {
+        final TextPaint paint = new TextPaint();
+        layouts = new DescriptionLayouts(paint, new DescriptionLayouts.LayoutFactory() {
+            @Override
+            public Layout newLayout(CharSequence text, int width) {
+                return new MonospaceLayout(text, paint, width);
+            }
+        }, PREVIEW_LINES, 10);
+    }
+
+    @Test
+    public void shortDescription_isShownWhole() {
+        DescriptionLayouts.Entry entry = layouts.layOut("A short story", 20, false);
+        assertFalse(entry.truncated);
+        assertEquals("A short story", entry.layout.getText().toString());
+        assertEquals(1, entry.layout.getLineCount());
+    }
+
+    @Test
+    public void descriptionOfExactlyThePreviewLines_isShownWhole() {
+        // Three lines of 10 characters
+        String text = "aaaa bbbbb cccc ddddd eeee fffff";
+        DescriptionLayouts.Entry entry = layouts.layOut(text, 10, false);
+        assertFalse(entry.truncated);
+        assertEquals(text, entry.layout.getText().toString());
+        assertEquals(PREVIEW_LINES, entry.layout.getLineCount());
+    }
+
+    @Test
+    public void longerDescription_isCutAtAWordWithAnEllipsis() {
+        String text = "aaaa bbbbb cccc ddddd eeee fffff gggg hhhhh";
+        DescriptionLayouts.Entry entry = layouts.layOut(text, 10, false);
+        assertTrue(entry.truncated);
+        assertEquals("aaaa bbbbb cccc ddddd eeee…", entry.layout.getText().toString());
+        assertTrue(entry.layout.getLineCount() <= PREVIEW_LINES);
+        // Screen readers still read the whole description
+        assertEquals(text, entry.text);
+    }
+
+    @Test
+    public void descriptionCutShortOnAWideRow_keepsItsFirstWords() {
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 2000) {
+            text.append("word ");
+        }
+        DescriptionLayouts.Entry entry = layouts.layOut(text.toString(), 5000, false);
+        assertTrue(entry.truncated);
+        assertEquals(1, entry.layout.getLineCount());
+        String preview = entry.layout.getText().toString();
+        assertTrue(preview.startsWith("word word "));
+        assertTrue(preview.endsWith("word…"));
+        assertTrue(preview.length() < text.length());
+    }
+
+    @Test
+    public void expandedDescription_isShownWhole() {
+        String text = "aaaa bbbbb cccc ddddd eeee fffff gggg hhhhh";
+        DescriptionLayouts.Entry entry = layouts.layOut(text, 10, true);
+        assertFalse(entry.truncated);
+        assertEquals(text, entry.layout.getText().toString());
+        assertEquals(4, entry.layout.getLineCount());
+    }
+
+    /**
+     * Breaks a text into lines of at most width characters at its spaces, or within a word that
+     * is longer than a line. Every line is 10 pixels high.
+     */
+    private static final class MonospaceLayout extends Layout {
+
+        private static final int LINE_HEIGHT = 10;
+
+        // The start of every line, followed by the length of the text
+        private final int[] lineStarts;
+
+        MonospaceLayout(CharSequence text, TextPaint paint, int width) {
+            super(text, paint, width, Alignment.ALIGN_NORMAL, 1f, 0f);
+            ArrayList<Integer> starts = new ArrayList<>();
+            int start = 0;
+            do {
+                starts.add(start);
+                int end = Math.min(text.length(), start + width);
+                if (end < text.length()) {
+                    // Break after the last space that fits, or within the word
+                    int lastSpace = text.subSequence(start, end + 1).toString().lastIndexOf(' ');
+                    if (lastSpace > 0) {
+                        end = start + lastSpace + 1;
+                    }
+                }
+                start = end;
+            } while (start < text.length());
+            lineStarts = new int[starts.size() + 1];
+            for (int i = 0; i < starts.size(); i++) {
+                lineStarts[i] = starts.get(i);
+            }
+            lineStarts[starts.size()] = text.length();
+        }
+
+        @Override
+        public int getLineCount() {
+            return lineStarts.length - 1;
+        }
+
+        @Override
+        public int getLineTop(int line) {
+            return line * LINE_HEIGHT;
+        }
+
+        @Override
+        public int getLineDescent(int line) {
+            return 0;
+        }
+
+        @Override
+        public int getLineStart(int line) {
+            return lineStarts[line];
+        }
+
+        @Override
+        public int getParagraphDirection(int line) {
+            return DIR_LEFT_TO_RIGHT;
+        }
+
+        @Override
+        public boolean getLineContainsTab(int line) {
+            return false;
+        }
+
+        @Override
+        public Directions getLineDirections(int line) {
+            return null;
+        }
+
+        @Override
+        public int getTopPadding() {
+            return 0;
+        }
+
+        @Override
+        public int getBottomPadding() {
+            return 0;
+        }
+
+        @Override
+        public int getEllipsisStart(int line) {
+            return 0;
+        }
+
+        @Override
+        public int getEllipsisCount(int line) {
+            return 0;
+        }
+    }
+}
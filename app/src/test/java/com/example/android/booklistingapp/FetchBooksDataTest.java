@@ -0,0 +1,207 @@
+package com.example.android.booklistingapp;
+
+import android.os.CancellationSignal;
+
+import com.example.android.booklistingapp.core.TransportPolicy;
+import com.example.android.booklistingapp.loadtest.StubBooksServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the retries, the circuit breaker, the hedged requests, the cancellation, the keep-alive
+ * connections and the compression of the pages requested by the app against a local stand-in
+ * for Google Books injecting faults and delays.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class FetchBooksDataTest {
+
+    private static final int PAGE_SIZE = 10;
+
+    private StubBooksServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubBooksServer(new StubBooksServer.Config().setGeneratedBooks(100, 100), 0);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        Utils.setLogPayloadSavings(false);
+        Utils.configureTransport(new TransportPolicy()
+                .setMaxAttempts(1).setHedging(0, 0).setCircuitBreaker(0, 0).setRateLimit(0, 0));
+    }
+
+    @Test
+    public void retries_recoverFromTransientErrors() {
+        Utils.configureTransport(new TransportPolicy()
+                .setMaxAttempts(3).setBackoff(10, 50).setHedging(0, 0).setRateLimit(0, 0));
+        server.failNext(2, 503);
+        assertEquals(PAGE_SIZE, fetch("java").size());
+        assertEquals(3, server.getRequestCount());
+    }
+
+    @Test
+    public void retries_giveUpWithoutBooks() {
+        Utils.configureTransport(new TransportPolicy()
+                .setMaxAttempts(2).setBackoff(10, 50).setHedging(0, 0).setRateLimit(0, 0));
+        server.failNext(5, 429);
+        assertNull(fetch("java"));
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void circuitBreaker_refusesRequestsOnceOpen() {
+        Utils.configureTransport(new TransportPolicy()
+                .setMaxAttempts(1).setHedging(0, 0).setCircuitBreaker(2, 60000).setRateLimit(0, 0));
+        server.failNext(10, 500);
+        for (int i = 0; i < 3; i++) {
+            assertNull(fetch("java"));
+        }
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void hedging_answersWithTheFasterRequest() {
+        Utils.configureTransport(new TransportPolicy()
+                .setMaxAttempts(1).setHedging(90, 50).setRateLimit(0, 0));
+        // Learn the latency of the server
+        for (int i = 0; i < 10; i++) {
+            assertEquals(PAGE_SIZE, fetch("java").size());
+        }
+        server.delayNext(1, 3000);
+        long start = System.nanoTime();
+        assertEquals(PAGE_SIZE, fetch("java").size());
+        assertTrue((System.nanoTime() - start) / 1000000 < 2000);
+        assertEquals(12, server.getRequestCount());
+    }
+
+    @Test
+    public void hedging_measuresTheRequestThatAnswered() {
+        Utils.configureTransport(new TransportPolicy()
+                .setMaxAttempts(1).setHedging(90, 50).setRateLimit(0, 0));
+        for (int i = 0; i < 10; i++) {
+            assertEquals(PAGE_SIZE, fetch("java").size());
+        }
+        server.delayNext(1, 3000);
+        RequestMetrics metrics = new RequestMetrics();
+        RequestMetrics.Request request = metrics.newRequest();
+        assertEquals(PAGE_SIZE, Utils.fetchBooksData(url("java"), false, new CancellationSignal(),
+                20000, request).size());
+        request.delivered();
+
+        // The slow first request is not measured, only the hedged one that answered
+        RequestMetrics.Histogram firstByte = metrics.getPhase(RequestMetrics.Phase.FIRST_BYTE);
+        assertEquals(1, firstByte.getCount());
+        assertTrue(firstByte.getMax() < 2000 * 1000);
+        assertEquals(1, metrics.getPhase(RequestMetrics.Phase.CONNECT).getCount());
+        assertEquals(1, metrics.getItems().getCount());
+    }
+
+    @Test
+    public void cancellation_stopsWaitingForTheRetry() throws Exception {
+        Utils.configureTransport(new TransportPolicy()
+                .setMaxAttempts(3).setBackoff(5000, 5000).setHedging(0, 0).setRateLimit(0, 0));
+        // Every request fails, without telling when to retry
+        server.stop();
+        server = new StubBooksServer(new StubBooksServer.Config().setErrorRate(1, 503), 0);
+        final CancellationSignal cancellationSignal = new CancellationSignal();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                cancellationSignal.cancel();
+            }
+        }).start();
+        long start = System.nanoTime();
+        assertNull(Utils.fetchBooksData(url("java"), false, cancellationSignal, 20000));
+        assertTrue((System.nanoTime() - start) / 1000000 < 2000);
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void keepAlive_repeatQueryReusesTheConnection() throws Exception {
+        // Every new connection waits 300 ms more, like its TCP and TLS handshakes
+        server.stop();
+        server = new StubBooksServer(new StubBooksServer.Config()
+                .setGeneratedBooks(100, 100).setHandshake(300), 0);
+        RequestMetrics first = new RequestMetrics();
+        fetchMeasured("java", first);
+        RequestMetrics repeat = new RequestMetrics();
+        fetchMeasured("java", repeat);
+
+        assertEquals(2, server.getRequestCount());
+        assertEquals(1, server.getConnectionCount());
+        assertTrue(timeToFirstByteMillis(first) >= 300);
+        assertTrue(timeToFirstByteMillis(repeat) < 150);
+    }
+
+    @Test
+    public void gzip_bodyIsReceivedCompressed() throws Exception {
+        RequestMetrics metrics = new RequestMetrics();
+        fetchMeasured("java", metrics);
+        long received = metrics.getBytes().getSum();
+        assertEquals(server.getBytesSent(), received);
+
+        // The same page, asked without compression
+        InputStream inputStream = new URL(url("java")).openStream();
+        long uncompressed = 0;
+        try {
+            while (inputStream.read() != -1) {
+                uncompressed++;
+            }
+        } finally {
+            inputStream.close();
+        }
+        assertTrue(received < uncompressed / 2);
+    }
+
+    @Test
+    public void payloadSavings_requestTheCompleteResponse() throws Exception {
+        Utils.setLogPayloadSavings(true);
+        assertEquals(PAGE_SIZE, fetch("java").size());
+        long deadline = System.nanoTime() + 5000000000L;
+        while (server.getRequestCount() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, server.getRequestCount());
+    }
+
+    // Fetches the first page of the given query, adding its measures to the given metrics.
+    private void fetchMeasured(String query, RequestMetrics metrics) {
+        RequestMetrics.Request request = metrics.newRequest();
+        assertEquals(PAGE_SIZE, Utils.fetchBooksData(url(query), false, new CancellationSignal(),
+                20000, request).size());
+        request.delivered();
+    }
+
+    // Returns the time from the start of the only request measured to its first byte.
+    private static long timeToFirstByteMillis(RequestMetrics metrics) {
+        return (metrics.getPhase(RequestMetrics.Phase.CONNECT).getSum()
+                + metrics.getPhase(RequestMetrics.Phase.FIRST_BYTE).getSum()) / 1000;
+    }
+
+    private ArrayList<Book> fetch(String query) {
+        return Utils.fetchBooksData(url(query), false, new CancellationSignal(), 20000);
+    }
+
+    private String url(String query) {
+        return Utils.buildSearchUrl(server.getBaseUrl(), query, 0, PAGE_SIZE);
+    }
+}
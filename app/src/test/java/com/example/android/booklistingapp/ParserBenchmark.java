@@ -0,0 +1,88 @@
+package com.example.android.booklistingapp;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+
+import static com.example.android.booklistingapp.BenchmarkRunner.params;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures reading and parsing Google Books responses of 10, 40 and 1000 items: reading the
+ * response into a String, parsing it with JSONObject, and parsing it straight from the stream.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class ParserBenchmark {
+
+    private static final BenchmarkRunner runner = new BenchmarkRunner("ParserBenchmark");
+
+    @AfterClass
+    public static void writeResults() throws Exception {
+        runner.writeResults();
+    }
+
+    @Test
+    public void readFromStream() throws Exception {
+        for (final int items : BenchmarkFixtures.SIZES) {
+            final byte[] response = BenchmarkFixtures.response(items);
+            runner.measure("readFromStream", params("items", String.valueOf(items)), items,
+                    new BenchmarkRunner.Operation() {
+                        @Override
+                        public Object run() throws Exception {
+                            return Utils.readFromStream(new ByteArrayInputStream(response));
+                        }
+                    });
+        }
+    }
+
+    @Test
+    public void extractFeatureFromJson() throws Exception {
+        for (final int items : BenchmarkFixtures.SIZES) {
+            final String json = Utils.readFromStream(new ByteArrayInputStream(BenchmarkFixtures.response(items)));
+            assertEquals(items, Utils.extractFeatureFromJson(json).size());
+            runner.measure("extractFeatureFromJson", params("items", String.valueOf(items)), items,
+                    new BenchmarkRunner.Operation() {
+                        @Override
+                        public Object run() {
+                            return Utils.extractFeatureFromJson(json);
+                        }
+                    });
+        }
+    }
+
+    // The whole path of the JSONObject parser, from the bytes of the response to the books
+    @Test
+    public void readFromStreamAndExtractFeatureFromJson() throws Exception {
+        for (final int items : BenchmarkFixtures.SIZES) {
+            final byte[] response = BenchmarkFixtures.response(items);
+            runner.measure("readFromStreamAndExtractFeatureFromJson", params("items", String.valueOf(items)),
+                    items, new BenchmarkRunner.Operation() {
+                        @Override
+                        public Object run() throws Exception {
+                            return Utils.extractFeatureFromJson(
+                                    Utils.readFromStream(new ByteArrayInputStream(response)));
+                        }
+                    });
+        }
+    }
+
+    @Test
+    public void extractFeatureFromStream() throws Exception {
+        for (final int items : BenchmarkFixtures.SIZES) {
+            final byte[] response = BenchmarkFixtures.response(items);
+            assertEquals(items, Utils.extractFeatureFromStream(new ByteArrayInputStream(response)).size());
+            runner.measure("extractFeatureFromStream", params("items", String.valueOf(items)), items,
+                    new BenchmarkRunner.Operation() {
+                        @Override
+                        public Object run() throws Exception {
+                            return Utils.extractFeatureFromStream(new ByteArrayInputStream(response));
+                        }
+                    });
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.android.booklistingapp;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks how the query history ranks the queries searched, which ones it forgets once full, and
+ * the pinned queries.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class QueryHistoryTest {
+
+    private QueryHistory history;
+
+    @Before
+    public void setUp() {
+        history = new QueryHistory(RuntimeEnvironment.application, 3);
+    }
+
+    @Test
+    public void frequentQueries_areRankedByTheirSearches() {
+        record("java", "tolkien", "java", "austen", "java", "tolkien");
+        assertEquals(Arrays.asList("java", "tolkien"), history.getFrequentQueries(2, 10));
+        assertEquals(Collections.singletonList("java"), history.getFrequentQueries(2, 1));
+        assertEquals(Arrays.asList("java", "tolkien", "austen"), history.getFrequentQueries(1, 10));
+    }
+
+    @Test
+    public void queries_areCountedAsTyped_withoutTheirSpaces() {
+        record("java ", " java", "");
+        assertEquals(Collections.singletonList("java"), history.getFrequentQueries(2, 10));
+    }
+
+    @Test
+    public void fullHistory_forgetsTheOldestOfTheLeastSearched() {
+        record("java", "java", "austen", "tolkien");
+
+        // The history is full: austen is forgotten, then tolkien, never the new query
+        record("zola");
+        record("zweig");
+        assertEquals(Arrays.asList("java", "zola", "zweig"), history.getFrequentQueries(1, 10));
+
+        // So a new query can be searched often enough to be warmed up
+        record("zweig");
+        assertEquals(Arrays.asList("java", "zweig"), history.getFrequentQueries(2, 10));
+    }
+
+    @Test
+    public void pinnedQueries_areKeptUntilUnpinned() {
+        history.setPinned(" tolkien ", true);
+        assertTrue(history.isPinned("tolkien"));
+        assertEquals(Collections.singletonList("tolkien"), history.getPinnedQueries());
+
+        history.setPinned("tolkien", false);
+        assertFalse(history.isPinned("tolkien"));
+        assertTrue(history.getPinnedQueries().isEmpty());
+    }
+
+    private void record(String... queries) {
+        for (String query : queries) {
+            history.recordSearch(query);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.android.booklistingapp;
+
+import android.content.ComponentCallbacks2;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks how the result cache normalizes the queries, bounds the size of its pages, expires them,
+ * and counts its hits, misses and evictions.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class QueryResultCacheTest {
+
+    @Test
+    public void normalizeQuery_ignoresCaseAndSpaces() {
+        assertEquals("java+programming", QueryResultCache.normalizeQuery("  Java \t Programming "));
+        assertEquals(QueryResultCache.keyOf("java programming", 10, 10),
+                QueryResultCache.keyOf("JAVA  programming ", 10, 10));
+        assertNotEquals(QueryResultCache.keyOf("java", 0, 10), QueryResultCache.keyOf("java", 10, 10));
+        // The query is URL-encoded, so it cannot be mistaken for the page parameters
+        assertEquals("c%26a", QueryResultCache.normalizeQuery("C&A"));
+    }
+
+    @Test
+    public void fullCache_evictsTheLeastRecentlyUsedPage() {
+        // Room for two pages of one book with a description of 1000 characters
+        QueryResultCache cache = new QueryResultCache(3000, 60000);
+        cache.put("a", page("a"));
+        cache.put("b", page("b"));
+        assertNotNull(cache.get("a"));
+        cache.put("c", page("c"));
+
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+        assertTrue(cache.size() <= 3000);
+        assertEquals(1, cache.evictionCount());
+        assertEquals(3, cache.hitCount());
+        assertEquals(1, cache.missCount());
+    }
+
+    @Test
+    public void expiredPage_isMissed() throws Exception {
+        QueryResultCache cache = new QueryResultCache(1 << 20, 50);
+        cache.put("a", page("a"));
+        assertNotNull(cache.get("a"));
+        Thread.sleep(80);
+        assertNull(cache.get("a"));
+        assertEquals(1, cache.hitCount());
+        assertEquals(1, cache.missCount());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void cachedPage_isCopied() {
+        QueryResultCache cache = new QueryResultCache(1 << 20, 60000);
+        List<Book> books = new ArrayList<>(page("a"));
+        cache.put("a", books);
+        books.clear();
+        ArrayList<Book> cached = cache.get("a");
+        assertEquals(1, cached.size());
+        cached.clear();
+        assertEquals(1, cache.get("a").size());
+    }
+
+    @Test
+    public void trimMemory_dropsThePages() {
+        QueryResultCache cache = new QueryResultCache(1 << 20, 60000);
+        cache.put("a", page("a"));
+        cache.put("b", page("b"));
+        cache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_MODERATE);
+        assertEquals(0, cache.size());
+        assertEquals(2, cache.evictionCount());
+    }
+
+    // Returns a page of one book with a description of 1000 characters.
+    private static List<Book> page(String id) {
+        char[] description = new char[1000];
+        Arrays.fill(description, 'x');
+        return Collections.singletonList(new Book(id, "Title " + id, "Author", new String(description)));
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.android.booklistingapp;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the percentiles given by the histograms of the request metrics.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class RequestMetricsTest {
+
+    @Test
+    public void histogram_isEmptyAtFirst() {
+        RequestMetrics.Histogram histogram = new RequestMetrics.Histogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(50));
+        assertEquals("count=0", histogram.summary("us"));
+    }
+
+    @Test
+    public void histogram_percentilesAreUpperBoundsOfTheirBucket() {
+        RequestMetrics.Histogram histogram = new RequestMetrics.Histogram();
+        for (int value = 1; value <= 100; value++) {
+            histogram.record(value);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(50.5, histogram.getMean(), 0.001);
+        assertEquals(5050, histogram.getSum());
+        // 50 is in the bucket from 32 to 63
+        assertEquals(63, histogram.getPercentile(50));
+        // 90 and 99 are in the bucket from 64 to 127, bounded by the largest value
+        assertEquals(100, histogram.getPercentile(90));
+        assertEquals(100, histogram.getPercentile(99));
+        assertEquals(1, histogram.getPercentile(0));
+    }
+
+    @Test
+    public void histogram_keepsZeroValues() {
+        RequestMetrics.Histogram histogram = new RequestMetrics.Histogram();
+        histogram.record(0);
+        histogram.record(0);
+        histogram.record(1000);
+        assertEquals(0, histogram.getPercentile(50));
+        assertEquals(1000, histogram.getMax());
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.android.booklistingapp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that a result snapshot reads back as it was written, and that a snapshot of another
+ * version or cut short is ignored.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class ResultSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static ResultSnapshot newSnapshot() {
+        return new ResultSnapshot(1234L, "tolkien", 20, false, Arrays.asList(0, 10), 7, 42,
+                Arrays.asList(new Book("a", "The Hobbit", "J. R. R. Tolkien", "Dragons é", "http://c/a"),
+                        new Book("", "Untitled", null, "", "")));
+    }
+
+    @Test
+    public void read_returnsTheWrittenSnapshot() throws Exception {
+        File file = folder.newFile("snapshot.bin");
+        newSnapshot().write(file);
+
+        ResultSnapshot snapshot = ResultSnapshot.read(file);
+        assertNotNull(snapshot);
+        assertEquals(1234L, snapshot.getSavedAtMillis());
+        assertEquals("tolkien", snapshot.getQuery());
+        assertEquals(20, snapshot.getNextStartIndex());
+        assertFalse(snapshot.isEndOfResults());
+        assertEquals(Arrays.asList(0, 10), snapshot.getPageStartIndexes());
+        assertEquals(7, snapshot.getScrollPosition());
+        assertEquals(42, snapshot.getScrollOffset());
+        assertEquals(2, snapshot.getBooks().size());
+        Book book = snapshot.getBooks().get(0);
+        assertEquals("a", book.getId());
+        assertEquals("The Hobbit", book.getTitle());
+        assertEquals("J. R. R. Tolkien", book.getAuthor());
+        assertEquals("Dragons é", book.getDescription());
+        assertEquals("http://c/a", book.getThumbnail());
+        assertNull(snapshot.getBooks().get(1).getAuthor());
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void read_ignoresTruncatedAndOtherVersions() throws Exception {
+        File file = folder.newFile("snapshot.bin");
+        newSnapshot().write(file);
+        byte[] bytes = Files.readAllBytes(file.toPath());
+
+        assertNull(ResultSnapshot.read(ByteBuffer.wrap(Arrays.copyOf(bytes, bytes.length - 1))));
+        assertNull(ResultSnapshot.read(ByteBuffer.wrap(new byte[0])));
+
+        ByteBuffer otherVersion = ByteBuffer.wrap(bytes.clone());
+        otherVersion.putInt(4, ResultSnapshot.VERSION + 1);
+        assertNull(ResultSnapshot.read(otherVersion));
+
+        // The declared length no longer matches the body
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(bytes.length + 3);
+        } finally {
+            raf.close();
+        }
+        assertNull(ResultSnapshot.read(ByteBuffer.wrap(Files.readAllBytes(file.toPath()))));
+        assertNull(ResultSnapshot.read(new File(folder.getRoot(), "missing.bin")));
+        assertNotNull(ResultSnapshot.read(ByteBuffer.wrap(bytes)));
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.android.booklistingapp;
+
+import android.os.CancellationSignal;
+
+import com.example.android.booklistingapp.core.CircuitBreaker;
+import com.example.android.booklistingapp.core.TransportPolicy;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the streaming parser returns the same books as the JSONObject parser
+ * on recorded Google Books responses.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class UtilsTest {
+
+    @Test
+    public void streamingParser_matchesJsonObjectParser() throws Exception {
+        assertSameBooks("fixtures/volumes_10.json", 10);
+    }
+
+    @Test
+    public void streamingParser_handlesResponseWithoutItems() throws Exception {
+        assertSameBooks("fixtures/volumes_empty.json", 0);
+    }
+
+    @Test
+    public void streamingParser_cleansUpAuthors() throws Exception {
+        String json = "{\"items\":[{\"volumeInfo\":{\"title\":\"T\",\"authors\":[\"A (ed.)\",\"B\"]}}]}";
+        ArrayList<Book> books = Utils.extractFeatureFromStream(
+                new ByteArrayInputStream(json.getBytes(Charset.forName("UTF-8"))));
+        assertEquals(1, books.size());
+        assertEquals("A ed.,B", books.get(0).getAuthor());
+        assertEquals("", books.get(0).getDescription());
+    }
+
+    @Test
+    public void streamingParser_readsCoverThumbnail() throws Exception {
+        ArrayList<Book> books = Utils.extractFeatureFromStream(open("fixtures/volumes_10.json"));
+        assertEquals("http://books.google.com/books/content?id=zyTCAlFPjgYC&printsec=frontcover"
+                + "&img=1&zoom=5&source=gbs_api", books.get(0).getThumbnail());
+    }
+
+    @Test
+    public void fieldsProjection_coversTheKeysOfABook() {
+        assertEquals("items(id,volumeInfo(title,authors,description,imageLinks/smallThumbnail))",
+                Utils.getFieldsProjection());
+    }
+
+    @Test
+    public void streamingParser_readsProjectedResponse() throws Exception {
+        ArrayList<Book> expected = Utils.extractFeatureFromStream(open("fixtures/volumes_10.json"));
+        ArrayList<Book> actual = Utils.extractFeatureFromStream(open("fixtures/volumes_10_projected.json"));
+
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getId(), actual.get(i).getId());
+            assertEquals(expected.get(i).getTitle(), actual.get(i).getTitle());
+            assertEquals(expected.get(i).getAuthor(), actual.get(i).getAuthor());
+            assertEquals(expected.get(i).getDescription(), actual.get(i).getDescription());
+            assertEquals(expected.get(i).getThumbnail(), actual.get(i).getThumbnail());
+        }
+    }
+
+    @Test
+    public void circuitBreaker_cancelledHalfOpenTrialOpensTheCircuitAgain() throws Exception {
+        Utils.configureTransport(new TransportPolicy()
+                .setMaxAttempts(1).setCircuitBreaker(1, 200).setRateLimit(0, 0));
+        // Accepts the connection of the trial, but never answers it
+        ServerSocket silentServer = new ServerSocket(0);
+        try {
+            CircuitBreaker breaker = Utils.getCircuitBreaker();
+            breaker.onFailure();
+            Thread.sleep(250);
+
+            final CancellationSignal cancellationSignal = new CancellationSignal();
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    cancellationSignal.cancel();
+                }
+            }).start();
+            assertNull(Utils.fetchBooksData("http://127.0.0.1:" + silentServer.getLocalPort()
+                    + "/books/v1/volumes?q=java", false, cancellationSignal, 5000));
+
+            // The trial ended, so the next one is let through once the circuit was open again
+            assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+            Thread.sleep(250);
+            assertTrue(breaker.allowRequest());
+        } finally {
+            silentServer.close();
+            Utils.configureTransport(new TransportPolicy().setCircuitBreaker(0, 0).setRateLimit(0, 0));
+        }
+    }
+
+    private void assertSameBooks(String fixture, int expectedSize) throws IOException {
+        ArrayList<Book> expected = Utils.extractFeatureFromJson(Utils.readFromStream(open(fixture)));
+        ArrayList<Book> actual = Utils.extractFeatureFromStream(open(fixture));
+
+        assertEquals(expectedSize, expected.size());
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getId(), actual.get(i).getId());
+            assertEquals(expected.get(i).getTitle(), actual.get(i).getTitle());
+            assertEquals(expected.get(i).getAuthor(), actual.get(i).getAuthor());
+            assertEquals(expected.get(i).getDescription(), actual.get(i).getDescription());
+            assertEquals(expected.get(i).getThumbnail(), actual.get(i).getThumbnail());
+        }
+    }
+
+    private InputStream open(String fixture) {
+        return getClass().getClassLoader().getResourceAsStream(fixture);
+    }
+}
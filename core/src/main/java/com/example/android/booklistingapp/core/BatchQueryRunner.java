@@ -0,0 +1,365 @@
+package com.example.android.booklistingapp.core;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs a file of search queries, one per line, against Google Books without any device, and
+ * streams the parsed books out as newline-delimited JSON, one book per line:
+ * <pre>
+ * {"query":"...","id":"...","title":"...","authors":"...","description":"...","thumbnail":"..."}
+ * </pre>
+ * A query that fails is written as a single {"query":"...","error":"..."} line instead.
+ * <p>
+ * Up to {@code concurrency} queries are in flight at the same time. The queries are read while
+ * the earlier ones run, and reading waits as long as that many are in flight, so a file of any
+ * size is run in constant memory. The requests block their thread, which is cheap on virtual
+ * threads: they are used when the JVM has them, and a pool of {@code concurrency} platform
+ * threads otherwise. Nothing is done while holding a monitor, so a virtual thread is never
+ * pinned to its carrier.
+ * <p>
+ * The requests are retried, hedged and broken off following the default {@link TransportPolicy},
+ * and rate limited with {@code --rate}.
+ * <p>
+ * Usage: {@code BatchQueryRunner <queries file, or - for stdin> [--out file] [--base-url url]
+ * [--concurrency n] [--page-size n] [--pages n] [--timeout millis] [--rate requests/s]
+ * [--platform-threads]}
+ */
+public final class BatchQueryRunner {
+
+    // Tag for the log messages
+    private static final String LOG_TAG = BatchQueryRunner.class.getSimpleName();
+    // Default number of queries in flight
+    private static final int DEFAULT_CONCURRENCY = 32;
+    // Default number of books asked per page, which is the most Google Books allows
+    private static final int DEFAULT_PAGE_SIZE = 40;
+    // Default timeout of a request, retries included
+    private static final int DEFAULT_TIMEOUT_MILLIS = 15000;
+
+    private final BookSearchClient<Volume> client;
+    private final String baseUrl;
+    private final int pageSize;
+    private final int maxPages;
+    private final int concurrency;
+    private final Logger logger;
+
+    /**
+     * Creates a runner.
+     *
+     * @param client      requests the searches
+     * @param baseUrl     is the volumes endpoint, which is replaced by a local server in the tests
+     * @param pageSize    is the number of books asked per request
+     * @param maxPages    is the number of pages requested at most per query; the next page of a
+     *                    query is only requested when the previous one was full
+     * @param concurrency is the number of queries in flight at most
+     * @param logger      receives the failures and the summary of the run
+     */
+    public BatchQueryRunner(BookSearchClient<Volume> client, String baseUrl, int pageSize,
+                            int maxPages, int concurrency, Logger logger) {
+        this.client = client;
+        this.baseUrl = baseUrl;
+        this.pageSize = pageSize;
+        this.maxPages = maxPages;
+        this.concurrency = concurrency;
+        this.logger = logger;
+    }
+
+    /**
+     * Runs every non-blank line of the given reader as a query on the given executor, and writes
+     * the books to the given writer as they are parsed. The books of a query are written
+     * together, but the queries are written in the order they complete.
+     * Returns once every query completed and the writer was flushed; neither is closed.
+     */
+    public Summary run(BufferedReader queries, Writer output, ExecutorService executor)
+            throws IOException, InterruptedException {
+        final Output out = new Output(output);
+        final Summary summary = new Summary();
+        final Semaphore inFlight = new Semaphore(concurrency);
+        long start = System.nanoTime();
+
+        String line;
+        while ((line = queries.readLine()) != null) {
+            final String query = line.trim();
+            if (query.isEmpty()) {
+                continue;
+            }
+            inFlight.acquire();
+            summary.queries.incrementAndGet();
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            runQuery(query, out, summary);
+                        } finally {
+                            inFlight.release();
+                        }
+                    }
+                });
+            } catch (RuntimeException e) {
+                inFlight.release();
+                throw e;
+            }
+        }
+
+        // Every query completed once all the permits are back
+        inFlight.acquire(concurrency);
+        inFlight.release(concurrency);
+        summary.elapsedNanos = System.nanoTime() - start;
+        out.flush();
+        logger.info(LOG_TAG, summary.toString());
+        return summary;
+    }
+
+    // Requests the pages of a query and writes their books, or the error of the query.
+    private void runQuery(String query, Output out, Summary summary) {
+        StringWriter lines = new StringWriter();
+        int count = 0;
+        try {
+            for (int page = 0; page < maxPages; page++) {
+                List<Volume> books = client.search(SearchUrls.build(baseUrl, query, page * pageSize, pageSize));
+                for (Volume book : books) {
+                    writeBook(lines, query, book);
+                }
+                count += books.size();
+                if (books.size() < pageSize) {
+                    break;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error(LOG_TAG, "Query \"" + query + "\" failed:", e);
+            summary.failures.incrementAndGet();
+            // The books of the pages before the error are dropped with them
+            lines = new StringWriter();
+            count = 0;
+            writeError(lines, query, e);
+        }
+        summary.books.addAndGet(count);
+        try {
+            out.write(lines.toString());
+        } catch (IOException e) {
+            logger.error(LOG_TAG, "Problem writing the books of \"" + query + "\":", e);
+        }
+    }
+
+    private static void writeBook(StringWriter lines, String query, Volume book) throws IOException {
+        JsonWriter writer = new JsonWriter(lines);
+        writer.beginObject()
+                .name("query").value(query)
+                .name(BookParser.KEY_ID).value(book.getId())
+                .name(BookParser.KEY_TITLE).value(book.getTitle())
+                .name(BookParser.KEY_AUTHORS).value(book.getAuthors())
+                .name(BookParser.KEY_DESCRIPTION).value(book.getDescription())
+                .name("thumbnail").value(book.getThumbnail())
+                .endObject();
+        writer.flush();
+        lines.write('\n');
+    }
+
+    private static void writeError(StringWriter lines, String query, Exception error) {
+        try {
+            JsonWriter writer = new JsonWriter(lines);
+            writer.beginObject()
+                    .name("query").value(query)
+                    .name("error").value(String.valueOf(error))
+                    .endObject();
+            writer.flush();
+            lines.write('\n');
+        } catch (IOException e) {
+            // A StringWriter does not throw
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns an executor running every task on a new virtual thread when the JVM has them
+     * (Java 21 and later), and on a pool of the given number of daemon threads otherwise.
+     */
+    public static ExecutorService newExecutor(int threads, boolean platformThreadsOnly) {
+        if (!platformThreadsOnly) {
+            try {
+                Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return (ExecutorService) factory.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                // No virtual threads on this JVM
+            }
+        }
+        final AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "batch-query-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("Usage: BatchQueryRunner <queries file, or - for stdin> [--out file]"
+                    + " [--base-url url] [--concurrency n] [--page-size n] [--pages n]"
+                    + " [--timeout millis] [--rate requests/s] [--platform-threads]");
+            System.exit(2);
+        }
+        String input = args[0];
+        String outputFile = null;
+        String baseUrl = SearchUrls.GOOGLE_BOOKS_URL;
+        int concurrency = DEFAULT_CONCURRENCY;
+        int pageSize = DEFAULT_PAGE_SIZE;
+        int pages = 1;
+        int timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+        double rate = 0;
+        boolean platformThreads = false;
+        for (int i = 1; i < args.length; i++) {
+            String option = args[i];
+            if ("--platform-threads".equals(option)) {
+                platformThreads = true;
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + option);
+            }
+            String value = args[++i];
+            if ("--out".equals(option)) {
+                outputFile = value;
+            } else if ("--base-url".equals(option)) {
+                baseUrl = value;
+            } else if ("--concurrency".equals(option)) {
+                concurrency = Integer.parseInt(value);
+            } else if ("--page-size".equals(option)) {
+                pageSize = Integer.parseInt(value);
+            } else if ("--pages".equals(option)) {
+                pages = Integer.parseInt(value);
+            } else if ("--timeout".equals(option)) {
+                timeoutMillis = Integer.parseInt(value);
+            } else if ("--rate".equals(option)) {
+                rate = Double.parseDouble(value);
+            } else {
+                throw new IllegalArgumentException("Unknown option " + option);
+            }
+        }
+
+        // Enough keep-alive connections for every query in flight
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", String.valueOf(concurrency));
+
+        Charset utf8 = Charset.forName("UTF-8");
+        BufferedReader queries = new BufferedReader(new InputStreamReader(
+                "-".equals(input) ? System.in : new FileInputStream(input), utf8));
+        Writer output = new BufferedWriter(new OutputStreamWriter(
+                outputFile == null ? System.out : new FileOutputStream(outputFile), utf8), 64 * 1024);
+        ExecutorService executor = newExecutor(concurrency, platformThreads);
+        ExecutorService hedgeExecutor = newExecutor(2 * concurrency, platformThreads);
+        TransportPolicy policy = new TransportPolicy().setRateLimit(rate, Math.max(1, (int) rate));
+        Transport transport = new ResilientTransport(new HttpUrlConnectionTransport(), policy,
+                hedgeExecutor, Logger.SYSTEM_ERR);
+        BookSearchClient<Volume> client = new BookSearchClient<>(transport, Volume.FACTORY,
+                Logger.SYSTEM_ERR, timeoutMillis);
+        Summary summary;
+        try {
+            summary = new BatchQueryRunner(client, baseUrl, pageSize, pages, concurrency,
+                    Logger.SYSTEM_ERR).run(queries, output, executor);
+        } finally {
+            executor.shutdown();
+            hedgeExecutor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+            queries.close();
+            output.close();
+        }
+        System.exit(summary.getFailures() > 0 ? 1 : 0);
+    }
+
+    /**
+     * The counts of a run.
+     */
+    public static final class Summary {
+
+        private final AtomicInteger queries = new AtomicInteger();
+        private final AtomicInteger failures = new AtomicInteger();
+        private final AtomicLong books = new AtomicLong();
+        private volatile long elapsedNanos;
+
+        // Returns the number of queries run.
+        public int getQueries() {
+            return queries.get();
+        }
+
+        // Returns the number of queries that failed.
+        public int getFailures() {
+            return failures.get();
+        }
+
+        // Returns the number of books written.
+        public long getBooks() {
+            return books.get();
+        }
+
+        // Returns the duration of the run, in milliseconds.
+        public long getElapsedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        }
+
+        @Override
+        public String toString() {
+            long millis = Math.max(1, getElapsedMillis());
+            return String.format(Locale.ROOT, "%d queries, %d failed, %d books in %d ms (%.1f queries/s)",
+                    getQueries(), getFailures(), getBooks(), getElapsedMillis(),
+                    getQueries() * 1000.0 / millis);
+        }
+    }
+
+    // The shared output. It is guarded by a lock rather than a monitor, which would pin a virtual
+    // thread to its carrier while it waits for the lock.
+    private static final class Output {
+
+        private final Writer writer;
+        private final ReentrantLock lock = new ReentrantLock();
+
+        Output(Writer writer) {
+            this.writer = writer;
+        }
+
+        void write(String lines) throws IOException {
+            if (lines.isEmpty()) {
+                return;
+            }
+            lock.lock();
+            try {
+                writer.write(lines);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void flush() throws IOException {
+            lock.lock();
+            try {
+                writer.flush();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.android.booklistingapp.core;
+
+/**
+ * Creates the objects the books are parsed into, so the app gets its own Book objects from the
+ * parser and a headless run gets plain {@link Volume} objects.
+ */
+public interface BookFactory<T> {
+
+    /**
+     * Creates a book. Every value is an empty string when the response does not have it.
+     *
+     * @param id          is the Google Books volume id of the book
+     * @param title       is the title of the book
+     * @param authors     is the authors of the book, separated by commas
+     * @param description is the description of the book
+     * @param thumbnail   is the URL of the small cover thumbnail
+     */
+    T create(String id, String title, String authors, String description, String thumbnail);
+}
@@ -0,0 +1,205 @@
+package com.example.android.booklistingapp.core;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Parses the books of a Google Books response while it is being read, and describes the fields
+ * of the partial response the books are parsed from.
+ */
+public final class BookParser {
+
+    // Key of the array of the books in the response
+    public static final String KEY_ITEMS = "items";
+    // Key of the volume id of every item
+    public static final String KEY_ID = "id";
+    // Key of the object holding the information of every item
+    public static final String KEY_VOLUME_INFO = "volumeInfo";
+    // Key of the book title in "volumeInfo"
+    public static final String KEY_TITLE = "title";
+    // Key of the book authors in "volumeInfo"
+    public static final String KEY_AUTHORS = "authors";
+    // Key of the book description in "volumeInfo"
+    public static final String KEY_DESCRIPTION = "description";
+    // Key of the links to the cover images in "volumeInfo"
+    public static final String KEY_IMAGE_LINKS = "imageLinks";
+    // Key of the link to the small cover thumbnail in "imageLinks"
+    public static final String KEY_SMALL_THUMBNAIL = "smallThumbnail";
+
+    // The "volumeInfo" keys a book is made of. The fields= projection of the search URL is
+    // built from these keys, so a key added here is also requested from Google Books.
+    static final String[] VOLUME_INFO_KEYS = {KEY_TITLE, KEY_AUTHORS, KEY_DESCRIPTION,
+            KEY_IMAGE_LINKS + "/" + KEY_SMALL_THUMBNAIL};
+
+    // Separator used between the names of the authors
+    private static final String AUTHORS_SEPARATOR = ",";
+    // Characters stripped from the authors of a book. Compiled once instead of on every book.
+    private static final Pattern AUTHORS_CLEANUP = Pattern.compile("[\\[\\](){}\"]");
+
+    // Tag for the log messages
+    private static final String LOG_TAG = BookParser.class.getSimpleName();
+
+    private BookParser() {
+    }
+
+    /**
+     * Adds the books read from the given JSON stream to the given list, and returns true if the
+     * whole JSON document could be read. Only the id and the "volumeInfo" keys of a book are
+     * kept; every other subtree (saleInfo, accessInfo, searchInfo, ...) is skipped without being
+     * materialized. The books read so far are kept if the JSON turns out to be malformed, and the
+     * error is given to the logger. Any other IOException, such as a broken connection, is thrown
+     * to the caller.
+     */
+    public static <T> boolean readBooks(InputStream inputStream, List<T> books,
+                                        BookFactory<T> factory, Logger logger) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream, Charset.forName("UTF-8")));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (KEY_ITEMS.equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        T book = readBook(reader, factory);
+                        if (book != null) {
+                            books.add(book);
+                        }
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            return true;
+        } catch (IllegalStateException | MalformedJsonException | EOFException e) {
+            logger.error(LOG_TAG, "Problem parsing the JSON books list:", e);
+            return false;
+        }
+    }
+
+    // Removes the brackets and quotes the authors of a book may come with.
+    public static String cleanUpAuthors(CharSequence authors) {
+        return AUTHORS_CLEANUP.matcher(authors).replaceAll("");
+    }
+
+    // Returns the partial response asked from Google Books: the id and the volumeInfo keys of
+    // a book for every item, which is
+    // "items(id,volumeInfo(title,authors,description,imageLinks/smallThumbnail))".
+    public static String getFieldsProjection() {
+        StringBuilder fields = new StringBuilder();
+        fields.append(KEY_ITEMS).append('(').append(KEY_ID).append(',').append(KEY_VOLUME_INFO).append('(');
+        for (int i = 0; i < VOLUME_INFO_KEYS.length; i++) {
+            if (i > 0) {
+                fields.append(',');
+            }
+            fields.append(VOLUME_INFO_KEYS[i]);
+        }
+        return fields.append("))").toString();
+    }
+
+    // Read a single element of the "items" array and return it as a book,
+    // or null if it has no "volumeInfo" object.
+    private static <T> T readBook(JsonReader reader, BookFactory<T> factory) throws IOException {
+        String id = "";
+        String[] volumeInfo = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (KEY_ID.equals(name)) {
+                id = readString(reader);
+            } else if (KEY_VOLUME_INFO.equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                volumeInfo = readVolumeInfo(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (volumeInfo == null) {
+            return null;
+        }
+        return factory.create(id, volumeInfo[0], volumeInfo[1], volumeInfo[2], volumeInfo[3]);
+    }
+
+    // Read the "volumeInfo" object of a book and return its title, authors, description
+    // and cover thumbnail.
+    private static String[] readVolumeInfo(JsonReader reader) throws IOException {
+        String title = "";
+        String authors = "";
+        String description = "";
+        String thumbnail = "";
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (KEY_TITLE.equals(name)) {
+                title = readString(reader);
+            } else if (KEY_AUTHORS.equals(name) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                authors = readAuthors(reader);
+            } else if (KEY_DESCRIPTION.equals(name)) {
+                description = readString(reader);
+            } else if (KEY_IMAGE_LINKS.equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                thumbnail = readThumbnail(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return new String[]{title, authors, description, thumbnail};
+    }
+
+    // Read the "imageLinks" object of a book and return its small cover thumbnail.
+    private static String readThumbnail(JsonReader reader) throws IOException {
+        String thumbnail = "";
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (KEY_SMALL_THUMBNAIL.equals(reader.nextName())) {
+                thumbnail = readString(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return thumbnail;
+    }
+
+    // Read the "authors" array and join the names the same way the JSONObject parser does.
+    private static String readAuthors(JsonReader reader) throws IOException {
+        StringBuilder authors = new StringBuilder();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (authors.length() > 0) {
+                authors.append(AUTHORS_SEPARATOR);
+            }
+            authors.append(readString(reader));
+        }
+        reader.endArray();
+        return cleanUpAuthors(authors);
+    }
+
+    // Read a scalar value as a String, the same way JSONObject.getString() coerces it.
+    private static String readString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return "null";
+        }
+        if (reader.peek() == JsonToken.BOOLEAN) {
+            return String.valueOf(reader.nextBoolean());
+        }
+        if (reader.peek() == JsonToken.BEGIN_OBJECT || reader.peek() == JsonToken.BEGIN_ARRAY) {
+            reader.skipValue();
+            return "";
+        }
+        return reader.nextString();
+    }
+}
@@ -0,0 +1,317 @@
+package com.example.android.booklistingapp.core;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Requests Google Books searches through a {@link Transport} and parses their books while the
+ * responses are downloaded. It keeps no state between requests, so a single client can be used
+ * by any number of threads at the same time.
+ */
+public final class BookSearchClient<T> {
+
+    // Tag for the log messages
+    private static final String LOG_TAG = BookSearchClient.class.getSimpleName();
+
+    private final Transport transport;
+    private final BookFactory<T> factory;
+    private final Logger logger;
+    private final int timeoutMillis;
+
+    /**
+     * Creates a client.
+     *
+     * @param transport     sends the requests
+     * @param factory       creates the objects the books are parsed into
+     * @param logger        receives the errors
+     * @param timeoutMillis is the timeout of the requests of {@link #search(String)}
+     */
+    public BookSearchClient(Transport transport, BookFactory<T> factory, Logger logger,
+                            int timeoutMillis) {
+        this.transport = transport;
+        this.factory = factory;
+        this.logger = logger;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Requests the given search URL and returns its books, or an empty list when the search has
+     * no results.
+     *
+     * @throws HttpStatusException if Google Books answers with an error status
+     * @throws IOException         if the request fails or its response cannot be parsed
+     */
+    public List<T> search(String searchUrl) throws IOException {
+        Result<T> result = search(searchUrl, null, null, null, timeoutMillis, new Cancellation(),
+                RequestListener.NONE);
+        if (!result.isComplete()) {
+            throw new IOException("Malformed response for " + searchUrl);
+        }
+        return result.getBooks();
+    }
+
+    /**
+     * Requests the given search URL, revalidating a cached response when its validators are
+     * given, and parses the books of the response while it is downloaded. The response is asked
+     * gzip-compressed and decompressed while it is read; once it was read to its end, its
+     * connection is given back for the next request.
+     *
+     * @param searchUrl     is the URL requested
+     * @param eTag          is the ETag of the cached response, or null
+     * @param lastModified  is the Last-Modified date of the cached response, or null
+     * @param sink          receives a copy of the decompressed body, for example to cache it, or
+     *                      is null
+     * @param timeoutMillis is the longest the request may take
+     * @param cancellation  stops the request, and the download of its body, when cancelled
+     * @param listener      receives the time spent in every phase of the request
+     * @throws HttpStatusException if Google Books answers with an error status
+     * @throws IOException         if the request fails or is cancelled
+     */
+    public Result<T> search(String searchUrl, String eTag, String lastModified, BodySink sink,
+                            int timeoutMillis, Cancellation cancellation, RequestListener listener)
+            throws IOException {
+        boolean conditional = eTag != null || lastModified != null;
+        Map<String, String> headers = new HashMap<>();
+        // Setting this header ourselves means the body is not decompressed for us
+        headers.put("Accept-Encoding", "gzip");
+        // Ask the server to answer 304 Not Modified if the cached response is still valid
+        if (eTag != null) {
+            headers.put("If-None-Match", eTag);
+        }
+        if (lastModified != null) {
+            headers.put("If-Modified-Since", lastModified);
+        }
+
+        Transport.Response response = transport.get(new URL(searchUrl), headers, timeoutMillis,
+                cancellation, listener);
+        boolean reusable = false;
+        try {
+            int code = response.getCode();
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED && conditional) {
+                // The cached body is still valid, so there is nothing to download or parse
+                reusable = true;
+                return new Result<>(Collections.<T>emptyList(), true, true);
+            }
+            if (code != HttpURLConnection.HTTP_OK) {
+                logger.error(LOG_TAG, "Error response code: " + code, null);
+                // Read the error body, so the connection can still be reused
+                InputStream errorBody = response.getBody();
+                if (errorBody != null) {
+                    skipToEnd(errorBody);
+                }
+                reusable = true;
+                throw new HttpStatusException(code, searchUrl,
+                        TransportPolicy.parseRetryAfterMillis(response.getHeader("Retry-After")));
+            }
+
+            InputStream received = response.getBody();
+            if (received == null) {
+                throw new IOException("No body for " + searchUrl);
+            }
+            List<T> books = new ArrayList<>();
+            boolean complete = false;
+            CountingInputStream counted = new CountingInputStream(received);
+            long start = System.nanoTime();
+            listener.beginSection("read books");
+            try {
+                InputStream body = counted;
+                if ("gzip".equalsIgnoreCase(response.getHeader("Content-Encoding"))) {
+                    body = new GZIPInputStream(body);
+                }
+                OutputStream copy = sink == null ? null
+                        : sink.open(response.getHeader("ETag"), response.getHeader("Last-Modified"));
+                if (copy != null) {
+                    body = new CopyingInputStream(body, copy);
+                }
+                complete = BookParser.readBooks(body, books, factory, logger);
+
+                // Only a response read to its end can be copied whole, and only a connection
+                // whose response was read to its end can be reused
+                if (complete) {
+                    skipToEnd(body);
+                    reusable = true;
+                }
+            } finally {
+                listener.endSection();
+                // The body is parsed while it is downloaded: the time spent waiting for its
+                // bytes is the download, and the rest is decompressing and parsing it
+                long readNanos = counted.getReadNanos();
+                listener.onPhase(RequestListener.Phase.DOWNLOAD, readNanos);
+                listener.onPhase(RequestListener.Phase.PARSE, System.nanoTime() - start - readNanos);
+                listener.onBody(counted.getCount(), books.size());
+            }
+            return new Result<>(books, false, complete);
+        } finally {
+            if (reusable) {
+                response.close();
+            } else {
+                response.abort();
+            }
+        }
+    }
+
+    // Read the rest of the given stream, which the parser does not need, so it reaches the copy
+    // and the connection can be reused.
+    private static void skipToEnd(InputStream inputStream) throws IOException {
+        byte[] buffer = new byte[4096];
+        while (inputStream.read(buffer) != -1) {
+            // Nothing to do, the bytes are only read to reach the end of the response
+        }
+    }
+
+    /**
+     * Receives a copy of the body of a successful response while it is read, for example to
+     * cache it together with its validators.
+     */
+    public interface BodySink {
+
+        /**
+         * Called once the response was answered with its books, before its body is read.
+         *
+         * @param eTag         is the ETag header of the response, or null
+         * @param lastModified is the Last-Modified header of the response, or null
+         * @return the stream receiving the decompressed body, or null to not copy it
+         */
+        OutputStream open(String eTag, String lastModified) throws IOException;
+    }
+
+    /**
+     * The answer to a search: either the books of the response, or the news that the cached
+     * response is still valid.
+     */
+    public static final class Result<T> {
+
+        private final List<T> books;
+        private final boolean notModified;
+        private final boolean complete;
+
+        private Result(List<T> books, boolean notModified, boolean complete) {
+            this.books = books;
+            this.notModified = notModified;
+            this.complete = complete;
+        }
+
+        // Returns true when the server answered 304 Not Modified: the cached response is valid.
+        public boolean isNotModified() {
+            return notModified;
+        }
+
+        // Returns the books of the response, which is empty when it was not modified.
+        public List<T> getBooks() {
+            return books;
+        }
+
+        // Returns false when the response could not be parsed to its end; its books are then
+        // the ones read before the error, and the copy of its body is incomplete.
+        public boolean isComplete() {
+            return complete;
+        }
+    }
+
+    // An InputStream that copies every byte it reads into an OutputStream.
+    private static final class CopyingInputStream extends FilterInputStream {
+
+        private final OutputStream copy;
+
+        CopyingInputStream(InputStream in, OutputStream copy) {
+            super(in);
+            this.copy = copy;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                copy.write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                copy.write(buffer, offset, read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            // Skipped bytes must still reach the copy
+            byte[] buffer = new byte[(int) Math.min(count, 4096)];
+            int read = read(buffer, 0, buffer.length);
+            return read == -1 ? 0 : read;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    // An InputStream that counts the bytes read from it, and the time spent waiting for them.
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private long count;
+        private long readNanos;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        // Returns the number of bytes read so far.
+        long getCount() {
+            return count;
+        }
+
+        // Returns the time spent reading so far, in nanoseconds.
+        long getReadNanos() {
+            return readNanos;
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            int b = super.read();
+            readNanos += System.nanoTime() - start;
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            long start = System.nanoTime();
+            int read = super.read(buffer, offset, length);
+            readNanos += System.nanoTime() - start;
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long length) throws IOException {
+            long skipped = super.skip(length);
+            count += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.android.booklistingapp.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tells a request that it is no longer wanted. Cancelling it runs its listeners, which for
+ * example disconnect the connection in flight, and wakes a request waiting to be retried, so a
+ * superseded request stops right away instead of when it times out.
+ */
+public final class Cancellation {
+
+    // Run once when the request is cancelled
+    private final List<Runnable> listeners = new ArrayList<>();
+    private boolean cancelled;
+
+    // Returns true once the request was cancelled.
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    // Cancels the request, running its listeners on the calling thread. Cancelling it again
+    // does nothing.
+    public void cancel() {
+        List<Runnable> toRun;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            toRun = new ArrayList<>(listeners);
+            listeners.clear();
+            notifyAll();
+        }
+        for (Runnable listener : toRun) {
+            listener.run();
+        }
+    }
+
+    // Adds a listener run when the request is cancelled, or right away if it already was.
+    public void addListener(Runnable listener) {
+        synchronized (this) {
+            if (!cancelled) {
+                listeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    // Removes a listener, once what it stops is over.
+    public synchronized void removeListener(Runnable listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Waits for the given time, unless the request is cancelled first.
+     *
+     * @return true if the whole time went by, false if the request was cancelled
+     */
+    public synchronized boolean await(long millis) throws InterruptedException {
+        long deadline = System.nanoTime() + millis * 1000000;
+        long remaining = millis;
+        while (!cancelled && remaining > 0) {
+            wait(remaining);
+            remaining = (deadline - System.nanoTime()) / 1000000;
+        }
+        return !cancelled;
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.android.booklistingapp.core;
+
+/**
+ * Stops sending requests to a server that keeps failing. Once {@code failureThreshold} requests
+ * in a row failed, the circuit opens and every request is refused for {@code openMillis}; then a
+ * single trial request is let through, which closes the circuit if it succeeds and opens it
+ * again if it fails. A trial that is not answered within {@code openMillis} is taken as lost, and
+ * another one is let through.
+ */
+public final class CircuitBreaker {
+
+    /**
+     * The states of the circuit.
+     */
+    public enum State {
+        // Requests are sent
+        CLOSED,
+        // Requests are refused
+        OPEN,
+        // A single trial request is in flight
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openMillis;
+    private State state = State.CLOSED;
+    // Requests failed in a row
+    private int failures;
+    // When the circuit opened, from System.nanoTime()
+    private long openedAtNanos;
+    // When the trial request of the half-open circuit was let through, from System.nanoTime()
+    private long trialStartedAtNanos;
+
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * Returns true if a request may be sent now. A request that was allowed must be followed by
+     * a call to {@link #onSuccess()}, {@link #onFailure()} or {@link #releaseTrial()}.
+     */
+    public synchronized boolean allowRequest() {
+        long now = System.nanoTime();
+        if ((state == State.OPEN && (now - openedAtNanos) / 1000000 >= openMillis)
+                || (state == State.HALF_OPEN && (now - trialStartedAtNanos) / 1000000 >= openMillis)) {
+            state = State.HALF_OPEN;
+            trialStartedAtNanos = now;
+            return true;
+        }
+        return state == State.CLOSED;
+    }
+
+    // Records a request answered by the server.
+    public synchronized void onSuccess() {
+        failures = 0;
+        state = State.CLOSED;
+    }
+
+    // Records a request that failed or was answered with a server error.
+    public synchronized void onFailure() {
+        failures++;
+        if (state == State.HALF_OPEN || failures >= failureThreshold) {
+            state = State.OPEN;
+            openedAtNanos = System.nanoTime();
+        }
+    }
+
+    // Records a request that was allowed but never answered, because it was cancelled or could
+    // not be sent. It tells nothing about the server, but the trial request of a half-open
+    // circuit must still end, so the circuit opens again until the next trial.
+    public synchronized void releaseTrial() {
+        if (state == State.HALF_OPEN) {
+            onFailure();
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+}
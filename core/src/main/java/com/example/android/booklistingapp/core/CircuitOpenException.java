@@ -0,0 +1,15 @@
+package com.example.android.booklistingapp.core;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of sending a request while the circuit breaker is open.
+ */
+public class CircuitOpenException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public CircuitOpenException(String url) {
+        super("Not requesting " + url + " while the server keeps failing");
+    }
+}
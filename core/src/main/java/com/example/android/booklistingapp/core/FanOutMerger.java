@@ -0,0 +1,130 @@
+package com.example.android.booklistingapp.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Merges the books of the sub-requests a search is split into, such as several pages of the same
+ * query or its intitle:/inauthor: variants, into one ranked list without repeated books, while
+ * the sub-requests complete in any order.
+ * <p>
+ * Every book is ranked by its position in the results of its query, so the pages of a query
+ * follow each other and the variants of a query are interleaved; books of the same position are
+ * ordered by the priority of their query. A book found by several sub-requests is kept once, at
+ * its best rank. The merged list only depends on which sub-requests completed, never on the
+ * order they completed in, so a row does not move when a slower sub-request completes unless a
+ * better ranked book arrives before it.
+ */
+public final class FanOutMerger<T> {
+
+    // Prefixes of the variants of a query, searching its words in the title and the authors only
+    private static final String[] VARIANT_PREFIXES = {"intitle:", "inauthor:"};
+
+    /**
+     * Returns the volume id of a book, or an empty string when it has none.
+     */
+    public interface IdOf<T> {
+        String idOf(T book);
+    }
+
+    // Orders the books by rank, then by the priority of their query, then by arrival
+    private static final Comparator<Ranked<?>> BY_RANK = new Comparator<Ranked<?>>() {
+        @Override
+        public int compare(Ranked<?> a, Ranked<?> b) {
+            if (a.rank != b.rank) {
+                return a.rank < b.rank ? -1 : 1;
+            }
+            if (a.priority != b.priority) {
+                return a.priority < b.priority ? -1 : 1;
+            }
+            return a.sequence < b.sequence ? -1 : (a.sequence == b.sequence ? 0 : 1);
+        }
+    };
+
+    private final IdOf<T> ids;
+    // The best ranked occurrence of every book with a volume id
+    private final HashMap<String, Ranked<T>> byId = new HashMap<>();
+    // The books without a volume id, which cannot be recognized and are always kept
+    private final ArrayList<Ranked<T>> anonymous = new ArrayList<>();
+    // Number of books added so far, to order the books of the same rank and priority
+    private long sequence;
+
+    public FanOutMerger(IdOf<T> ids) {
+        this.ids = ids;
+    }
+
+    /**
+     * Returns the queries a search for the given query fans out to: the query itself, then the
+     * same words in the titles and in the authors. A query already using an operator such as
+     * intitle: is not split.
+     */
+    public static List<String> variantsOf(String query) {
+        ArrayList<String> variants = new ArrayList<>(VARIANT_PREFIXES.length + 1);
+        variants.add(query);
+        if (query.indexOf(':') == -1) {
+            for (String prefix : VARIANT_PREFIXES) {
+                variants.add(prefix + query);
+            }
+        }
+        return variants;
+    }
+
+    /**
+     * Adds the books of a completed sub-request and returns the merged list.
+     *
+     * @param priority   is the priority of the query of the sub-request, 0 being the best
+     * @param startIndex is the rank of the first book of the sub-request in the results of its
+     *                   query, i.e. its startIndex
+     * @param books      are the books of the sub-request, in the order of its results
+     */
+    public synchronized List<T> add(int priority, int startIndex, List<T> books) {
+        for (int i = 0; i < books.size(); i++) {
+            T book = books.get(i);
+            Ranked<T> ranked = new Ranked<>(book, startIndex + i, priority, sequence++);
+            String id = ids.idOf(book);
+            if (id == null || id.isEmpty()) {
+                anonymous.add(ranked);
+                continue;
+            }
+            Ranked<T> previous = byId.get(id);
+            if (previous == null || BY_RANK.compare(ranked, previous) < 0) {
+                byId.put(id, ranked);
+            }
+        }
+        return getBooks();
+    }
+
+    /**
+     * Returns the merged list of the books added so far.
+     */
+    public synchronized List<T> getBooks() {
+        ArrayList<Ranked<T>> all = new ArrayList<>(byId.size() + anonymous.size());
+        all.addAll(byId.values());
+        all.addAll(anonymous);
+        Collections.sort(all, BY_RANK);
+        ArrayList<T> books = new ArrayList<>(all.size());
+        for (Ranked<T> ranked : all) {
+            books.add(ranked.book);
+        }
+        return books;
+    }
+
+    // A book with the place it was found at.
+    private static final class Ranked<T> {
+
+        private final T book;
+        private final int rank;
+        private final int priority;
+        private final long sequence;
+
+        Ranked(T book, int rank, int priority, long sequence) {
+            this.book = book;
+            this.rank = rank;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+    }
+}
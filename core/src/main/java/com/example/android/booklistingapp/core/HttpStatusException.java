@@ -0,0 +1,43 @@
+package com.example.android.booklistingapp.core;
+
+import java.io.IOException;
+
+/**
+ * Thrown when Google Books answers a search with an error status, so the caller can tell a server
+ * error from a search without results.
+ */
+public class HttpStatusException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+    private final long retryAfterMillis;
+
+    public HttpStatusException(int statusCode, String url) {
+        this(statusCode, url, -1);
+    }
+
+    /**
+     * @param retryAfterMillis is the delay asked by the Retry-After header, or -1
+     */
+    public HttpStatusException(int statusCode, String url, long retryAfterMillis) {
+        super("Error response code " + statusCode + " for " + url);
+        this.statusCode = statusCode;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    // Returns the HTTP status code of the response.
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    // Returns the delay the server asked before the next request, in milliseconds, or -1.
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    // Returns true if the same request is worth sending again.
+    public boolean isRetryable() {
+        return TransportPolicy.isRetryableStatus(statusCode);
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.android.booklistingapp.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * A {@link Transport} sending the requests with HttpURLConnection, which keeps the connections
+ * alive between requests to the same host. Cancelling a request disconnects its connection, until
+ * its response is closed or aborted.
+ */
+public final class HttpUrlConnectionTransport implements Transport {
+
+    // Longest time to open a connection, and to wait for a read, in milliseconds
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+
+    // Creates a transport whose requests are only bounded by the timeout given with each of them.
+    public HttpUrlConnectionTransport() {
+        this(Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates a transport.
+     *
+     * @param connectTimeoutMillis is the longest time to open a connection
+     * @param readTimeoutMillis    is the longest time to wait for the bytes of a response
+     */
+    public HttpUrlConnectionTransport(int connectTimeoutMillis, int readTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    @Override
+    public Transport.Response get(URL url, Map<String, String> headers, int timeoutMillis,
+                                  Cancellation cancellation, RequestListener listener)
+            throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        Runnable disconnect = new Runnable() {
+            @Override
+            public void run() {
+                connection.disconnect();
+            }
+        };
+        // Runs right away if the request was already cancelled
+        cancellation.addListener(disconnect);
+        try {
+            if (cancellation.isCancelled()) {
+                throw new InterruptedIOException("Cancelled before requesting " + url);
+            }
+            connection.setConnectTimeout(Math.min(timeoutMillis, connectTimeoutMillis));
+            connection.setReadTimeout(Math.min(timeoutMillis, readTimeoutMillis));
+            connection.setRequestMethod("GET");
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+
+            listener.beginSection("connect");
+            long start = System.nanoTime();
+            try {
+                connection.connect();
+            } finally {
+                listener.endSection();
+            }
+            listener.onPhase(RequestListener.Phase.CONNECT, System.nanoTime() - start);
+
+            listener.beginSection("first byte");
+            start = System.nanoTime();
+            int code;
+            try {
+                code = connection.getResponseCode();
+            } finally {
+                listener.endSection();
+            }
+            listener.onPhase(RequestListener.Phase.FIRST_BYTE, System.nanoTime() - start);
+            return new Response(connection, code, cancellation, disconnect);
+        } catch (IOException e) {
+            cancellation.removeListener(disconnect);
+            connection.disconnect();
+            throw e;
+        }
+    }
+
+    private static final class Response implements Transport.Response {
+
+        private final HttpURLConnection connection;
+        private final int code;
+        private final Cancellation cancellation;
+        // Disconnects the connection when the request is cancelled, until the response ends
+        private final Runnable disconnect;
+        // The body once it was opened, so it is closed with the response
+        private InputStream body;
+
+        Response(HttpURLConnection connection, int code, Cancellation cancellation,
+                 Runnable disconnect) {
+            this.connection = connection;
+            this.code = code;
+            this.cancellation = cancellation;
+            this.disconnect = disconnect;
+        }
+
+        @Override
+        public int getCode() {
+            return code;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return connection.getHeaderField(name);
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (body == null) {
+                body = code < HttpURLConnection.HTTP_BAD_REQUEST
+                        ? connection.getInputStream() : connection.getErrorStream();
+            }
+            return body;
+        }
+
+        @Override
+        public void close() throws IOException {
+            cancellation.removeListener(disconnect);
+            if (body != null) {
+                body.close();
+            }
+        }
+
+        @Override
+        public void abort() {
+            cancellation.removeListener(disconnect);
+            connection.disconnect();
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package com.example.android.booklistingapp.core;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * An inverted index over the title, authors and description of books, to narrow and re-rank the
+ * books already fetched without asking Google Books again.
+ * <p>
+ * Every term maps to its postings: the documents it appears in, in the order they were added,
+ * each with the fields it appears in. The postings are kept as variable-length deltas of the
+ * document numbers, so most postings take a single byte. Documents are only ever appended, which
+ * keeps the postings sorted; once the index holds more than {@code maxDocuments} documents the
+ * oldest ones are dropped, and the postings are rebuilt without them once they are half of the
+ * index.
+ * <p>
+ * The index is not thread-safe: it is meant to be used by a single background thread.
+ */
+public final class InvertedIndex<T> {
+
+    /**
+     * Tells the index what to index of a document.
+     */
+    public interface Fields<T> {
+
+        // Returns the key of the document, such as its volume id, or an empty string when it
+        // has none. A document whose key is already in the index is not added again.
+        String keyOf(T document);
+
+        // Returns the title, authors and description of the document, in that order.
+        String[] fieldsOf(T document);
+    }
+
+    // Index of the fields in the array returned by Fields.fieldsOf()
+    public static final int FIELD_TITLE = 0;
+    public static final int FIELD_AUTHORS = 1;
+    public static final int FIELD_DESCRIPTION = 2;
+    // Number of fields of a document, and the bit mask of all of them
+    private static final int FIELD_COUNT = 3;
+    private static final int ALL_FIELDS = (1 << FIELD_COUNT) - 1;
+    // Score of a query term found in each field: a title match ranks above an author match,
+    // which ranks above a description match
+    private static final float[] FIELD_WEIGHTS = {3f, 2f, 1f};
+    // A query term only found as the prefix of a term scores this fraction of an exact match
+    private static final float PREFIX_WEIGHT = 0.5f;
+    // Field restrictions of the query terms, e.g. "author:tolkien"
+    private static final String[][] FIELD_PREFIXES = {
+            {"title:", "intitle:"},
+            {"author:", "authors:", "inauthor:"},
+            {"description:"},
+    };
+    // Combining marks stripped from the decomposed text, so "café" matches "cafe"
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+
+    private final Fields<T> fields;
+    private final int maxDocuments;
+    private final int maxTokensPerField;
+    // The postings of every term, sorted so the terms starting with a prefix are found together
+    private final TreeMap<String, Postings> postings = new TreeMap<>();
+    // The documents, by document number
+    private final ArrayList<T> documents = new ArrayList<>();
+    // The document number of every key
+    private final HashMap<String, Integer> numbers = new HashMap<>();
+    // The documents dropped from the index, whose postings are not rebuilt yet
+    private final BitSet dropped = new BitSet();
+    // Number of the oldest document still in the index
+    private int firstLive;
+
+    /**
+     * Creates an empty index.
+     *
+     * @param fields            tells what to index of a document
+     * @param maxDocuments      is the number of documents kept at most; the oldest are dropped
+     * @param maxTokensPerField is the number of words indexed at most per field, so a long
+     *                          description takes a bounded amount of memory
+     */
+    public InvertedIndex(Fields<T> fields, int maxDocuments, int maxTokensPerField) {
+        this.fields = fields;
+        this.maxDocuments = Math.max(1, maxDocuments);
+        this.maxTokensPerField = maxTokensPerField;
+    }
+
+    /**
+     * Adds a document to the index, unless its key is already in it. Returns true if it was added.
+     */
+    public boolean add(T document) {
+        String key = fields.keyOf(document);
+        boolean hasKey = key != null && !key.isEmpty();
+        if (hasKey && numbers.containsKey(key)) {
+            return false;
+        }
+        int number = documents.size();
+        documents.add(document);
+        if (hasKey) {
+            numbers.put(key, number);
+        }
+        addPostings(number, document);
+
+        if (size() > maxDocuments) {
+            drop(firstLive);
+            firstLive++;
+            if (firstLive * 2 >= documents.size()) {
+                compact();
+            }
+        }
+        return true;
+    }
+
+    // Returns the number of documents in the index.
+    public int size() {
+        return documents.size() - firstLive;
+    }
+
+    // Returns the number of distinct terms in the index.
+    public int getTermCount() {
+        return postings.size();
+    }
+
+    // Returns the estimated number of bytes of memory used by the postings and the terms,
+    // not counting the documents themselves.
+    public long estimateSizeBytes() {
+        long bytes = 0;
+        for (Map.Entry<String, Postings> term : postings.entrySet()) {
+            // Tree entry, String and Postings headers, the characters and the postings bytes
+            bytes += 40 + 24 + 2 * term.getKey().length() + 32 + term.getValue().data.length;
+        }
+        return bytes + 4L * documents.size() + 48L * numbers.size();
+    }
+
+    /**
+     * Returns the documents matching every word of the given query, best first. A word matches a
+     * term it is equal to or a prefix of, and can be restricted to a field with "title:",
+     * "author:" or "description:". Documents rank by where their words were found, then by the
+     * order they were added in. An empty query matches nothing.
+     */
+    public List<T> search(String query) {
+        List<String> terms = new ArrayList<>();
+        List<Integer> masks = new ArrayList<>();
+        for (String word : query.trim().split("\\s+")) {
+            int mask = ALL_FIELDS;
+            String lower = word.toLowerCase(Locale.ROOT);
+            for (int field = 0; field < FIELD_COUNT; field++) {
+                for (String prefix : FIELD_PREFIXES[field]) {
+                    if (lower.startsWith(prefix)) {
+                        mask = 1 << field;
+                        word = word.substring(prefix.length());
+                    }
+                }
+            }
+            for (String term : tokenize(word, Integer.MAX_VALUE)) {
+                terms.add(term);
+                masks.add(mask);
+            }
+        }
+        if (terms.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        int count = documents.size();
+        final float[] scores = new float[count];
+        int[] matchedTerms = new int[count];
+        // The last query term a document matched, so a term counts once per document
+        int[] lastTerm = new int[count];
+        Arrays.fill(lastTerm, -1);
+        int[] cursor = new int[2];
+        for (int i = 0; i < terms.size(); i++) {
+            String term = terms.get(i);
+            int mask = masks.get(i);
+            SortedMap<String, Postings> matches = postings.subMap(term, term + Character.MAX_VALUE);
+            for (Map.Entry<String, Postings> match : matches.entrySet()) {
+                float weight = match.getKey().length() == term.length() ? 1f : PREFIX_WEIGHT;
+                Postings list = match.getValue();
+                int offset = 0;
+                int number = -1;
+                while (offset < list.length) {
+                    list.read(offset, cursor);
+                    offset = cursor[1];
+                    number += cursor[0] >>> FIELD_COUNT;
+                    int found = cursor[0] & mask;
+                    if (found == 0 || number < firstLive || dropped.get(number)) {
+                        continue;
+                    }
+                    if (lastTerm[number] != i) {
+                        lastTerm[number] = i;
+                        matchedTerms[number]++;
+                    }
+                    for (int field = 0; field < FIELD_COUNT; field++) {
+                        if ((found & (1 << field)) != 0) {
+                            scores[number] += FIELD_WEIGHTS[field] * weight;
+                        }
+                    }
+                }
+            }
+        }
+
+        // Sort the matching documents by score, then by number
+        ArrayList<Integer> matching = new ArrayList<>();
+        for (int number = firstLive; number < count; number++) {
+            if (matchedTerms[number] == terms.size()) {
+                matching.add(number);
+            }
+        }
+        Integer[] ranked = matching.toArray(new Integer[matching.size()]);
+        Arrays.sort(ranked, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int byScore = Float.compare(scores[b], scores[a]);
+                return byScore != 0 ? byScore : a.compareTo(b);
+            }
+        });
+        ArrayList<T> results = new ArrayList<>(ranked.length);
+        for (Integer number : ranked) {
+            results.add(documents.get(number));
+        }
+        return results;
+    }
+
+    /**
+     * Returns the words of the given text as index terms: lower case, without accents, split on
+     * anything that is not a letter or a digit, and at most maxTokens of them.
+     */
+    static List<String> tokenize(String text, int maxTokens) {
+        ArrayList<String> tokens = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return tokens;
+        }
+        String normalized = COMBINING_MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD))
+                .replaceAll("").toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= normalized.length() && tokens.size() < maxTokens; i++) {
+            boolean wordChar = i < normalized.length() && Character.isLetterOrDigit(normalized.charAt(i));
+            if (wordChar && start == -1) {
+                start = i;
+            } else if (!wordChar && start != -1) {
+                tokens.add(normalized.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    // Appends the document to the postings of each of its terms.
+    private void addPostings(int number, T document) {
+        String[] values = fields.fieldsOf(document);
+        // The fields every term of the document appears in
+        HashMap<String, Integer> termFields = new HashMap<>();
+        for (int field = 0; field < FIELD_COUNT && field < values.length; field++) {
+            for (String term : tokenize(values[field], maxTokensPerField)) {
+                Integer mask = termFields.get(term);
+                termFields.put(term, (mask == null ? 0 : mask) | (1 << field));
+            }
+        }
+        for (Map.Entry<String, Integer> term : termFields.entrySet()) {
+            Postings list = postings.get(term.getKey());
+            if (list == null) {
+                list = new Postings();
+                postings.put(term.getKey(), list);
+            }
+            list.append(number, term.getValue());
+        }
+    }
+
+    // Drops a document from the index; its postings stay until the index is compacted.
+    private void drop(int number) {
+        dropped.set(number);
+        String key = fields.keyOf(documents.get(number));
+        if (key != null && !key.isEmpty()) {
+            numbers.remove(key);
+        }
+        documents.set(number, null);
+    }
+
+    // Rebuilds the postings from the documents still in the index, numbering them from 0 again.
+    private void compact() {
+        ArrayList<T> live = new ArrayList<>(size());
+        for (int number = firstLive; number < documents.size(); number++) {
+            if (!dropped.get(number)) {
+                live.add(documents.get(number));
+            }
+        }
+        postings.clear();
+        documents.clear();
+        numbers.clear();
+        dropped.clear();
+        firstLive = 0;
+        for (T document : live) {
+            String key = fields.keyOf(document);
+            int number = documents.size();
+            documents.add(document);
+            if (key != null && !key.isEmpty()) {
+                numbers.put(key, number);
+            }
+            addPostings(number, document);
+        }
+    }
+
+    // The postings of a term: for every document, in increasing order, the difference with the
+    // previous document number shifted left by the number of fields, ORed with the bit mask of
+    // the fields the term appears in, written as a variable-length integer of 7 bits per byte.
+    private static final class Postings {
+
+        private byte[] data = new byte[4];
+        private int length;
+        private int lastNumber = -1;
+
+        void append(int number, int fieldMask) {
+            int value = ((number - lastNumber) << FIELD_COUNT) | fieldMask;
+            lastNumber = number;
+            if (length + 5 > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, length + 5));
+            }
+            while ((value & ~0x7F) != 0) {
+                data[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            data[length++] = (byte) value;
+        }
+
+        // Reads the value at the given offset into result[0], and the offset of the next value
+        // into result[1].
+        void read(int offset, int[] result) {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[offset++];
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            result[0] = value;
+            result[1] = offset;
+        }
+    }
+}
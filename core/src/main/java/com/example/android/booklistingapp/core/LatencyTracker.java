@@ -0,0 +1,47 @@
+package com.example.android.booklistingapp.core;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the latencies of the recent requests, to tell how long a request may take before a
+ * hedged one is worth sending.
+ */
+public final class LatencyTracker {
+
+    // Number of recent latencies kept
+    private static final int WINDOW = 64;
+    // Fewer latencies than this say nothing about the percentile
+    private static final int MIN_SAMPLES = 8;
+
+    private final int percentile;
+    private final long minDelayMillis;
+    private final long[] samples = new long[WINDOW];
+    private int count;
+    private int next;
+
+    public LatencyTracker(int percentile, long minDelayMillis) {
+        this.percentile = percentile;
+        this.minDelayMillis = minDelayMillis;
+    }
+
+    // Records the latency of a request that completed.
+    public synchronized void record(long millis) {
+        samples[next] = millis;
+        next = (next + 1) % WINDOW;
+        count = Math.min(WINDOW, count + 1);
+    }
+
+    /**
+     * Returns how long to wait for a request before hedging it: the percentile of the recent
+     * latencies, and no less than the minimum delay, or -1 while too few requests completed.
+     */
+    public synchronized long getHedgeDelayMillis() {
+        if (count < MIN_SAMPLES) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(count * percentile / 100.0) - 1;
+        return Math.max(minDelayMillis, sorted[Math.max(0, Math.min(count - 1, index))]);
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.android.booklistingapp.core;
+
+/**
+ * Receives the messages of the search core, so it logs to android.util.Log in the app and to the
+ * standard error of a headless run without depending on either.
+ */
+public interface Logger {
+
+    // A logger dropping every message
+    Logger NONE = new Logger() {
+        @Override
+        public void info(String tag, String message) {
+        }
+
+        @Override
+        public void error(String tag, String message, Throwable error) {
+        }
+    };
+
+    // A logger writing every message to the standard error
+    Logger SYSTEM_ERR = new Logger() {
+        @Override
+        public void info(String tag, String message) {
+            System.err.println(tag + ": " + message);
+        }
+
+        @Override
+        public void error(String tag, String message, Throwable error) {
+            System.err.println(tag + ": " + message + (error == null ? "" : " " + error));
+        }
+    };
+
+    void info(String tag, String message);
+
+    // The error is null when there is no exception to report.
+    void error(String tag, String message, Throwable error);
+}
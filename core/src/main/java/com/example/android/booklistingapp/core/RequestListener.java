@@ -0,0 +1,56 @@
+package com.example.android.booklistingapp.core;
+
+/**
+ * Receives how long a request spends in each of its phases, and the tracing sections around
+ * them, so the app can measure its requests without the search core depending on its metrics.
+ * The phases are reported on the thread that sent the request. A section may begin on another
+ * thread, such as the one of a hedged request, but always ends on the thread that began it.
+ */
+public interface RequestListener {
+
+    // A listener ignoring every call
+    RequestListener NONE = new RequestListener() {
+        @Override
+        public void beginSection(String name) {
+        }
+
+        @Override
+        public void endSection() {
+        }
+
+        @Override
+        public void onPhase(Phase phase, long nanos) {
+        }
+
+        @Override
+        public void onBody(long bytesReceived, int itemsParsed) {
+        }
+    };
+
+    /**
+     * The phases of a request measured by the search core.
+     */
+    enum Phase {
+        // Opening the connection, including DNS and TLS
+        CONNECT,
+        // From the request being sent to the response code being received
+        FIRST_BYTE,
+        // Waiting for the bytes of the body
+        DOWNLOAD,
+        // Decompressing and parsing the body, not counting the time waiting for its bytes
+        PARSE
+    }
+
+    // Begins a tracing section, which ends on the same thread.
+    void beginSection(String name);
+
+    // Ends the last tracing section begun on the calling thread.
+    void endSection();
+
+    // Called with the time spent in a phase, in nanoseconds. A phase can be reported more than
+    // once when the request is retried.
+    void onPhase(Phase phase, long nanos);
+
+    // Called once a body was read, with its size as received and the number of books parsed.
+    void onBody(long bytesReceived, int itemsParsed);
+}
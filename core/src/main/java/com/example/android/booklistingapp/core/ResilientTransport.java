@@ -0,0 +1,343 @@
+package com.example.android.booklistingapp.core;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A {@link Transport} applying a {@link TransportPolicy} to the requests of another one: every
+ * request waits for the rate limiter, is refused while the circuit breaker is open, is hedged by
+ * a second request when it takes longer than the recent ones, and is retried with a jittered
+ * exponential backoff when it fails or is answered with a retryable status. Only GET requests
+ * are sent, so every request can be safely sent twice.
+ */
+public final class ResilientTransport implements Transport {
+
+    // Tag for the log messages
+    private static final String LOG_TAG = ResilientTransport.class.getSimpleName();
+
+    private final Transport transport;
+    private final TransportPolicy policy;
+    // Runs the hedged requests, or null when they are not sent
+    private final Executor hedgeExecutor;
+    private final Logger logger;
+    // Null when disabled by the policy
+    private final CircuitBreaker circuitBreaker;
+    private final TokenBucket rateLimiter;
+    private final LatencyTracker latencies;
+    private final Random random = new Random();
+
+    /**
+     * Creates a transport.
+     *
+     * @param transport     sends the requests
+     * @param policy        is how the requests are retried, hedged, broken off and rate limited
+     * @param hedgeExecutor runs the first and the hedged request of a request at the same time,
+     *                      or is null to never hedge
+     * @param logger        receives the retries and the failures
+     */
+    public ResilientTransport(Transport transport, TransportPolicy policy, Executor hedgeExecutor,
+                              Logger logger) {
+        this.transport = transport;
+        this.policy = policy;
+        this.hedgeExecutor = hedgeExecutor;
+        this.logger = logger;
+        this.circuitBreaker = policy.newCircuitBreaker();
+        this.rateLimiter = policy.newRateLimiter();
+        this.latencies = hedgeExecutor == null ? null : policy.newLatencyTracker();
+    }
+
+    // Returns the circuit breaker of the transport, or null when it is disabled.
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The timeout is the longest all the attempts of the request may take together: a retry that
+     * cannot be sent before it is over is not sent. A cancelled request is neither retried nor
+     * counted as a failure by the circuit breaker.
+     */
+    @Override
+    public Response get(URL url, Map<String, String> headers, int timeoutMillis,
+                        Cancellation cancellation, RequestListener listener) throws IOException {
+        long deadline = timeoutMillis == Integer.MAX_VALUE ? Long.MAX_VALUE
+                : System.currentTimeMillis() + timeoutMillis;
+        for (int attempt = 1; ; attempt++) {
+            if (cancellation.isCancelled()) {
+                throw new InterruptedIOException("Cancelled before requesting " + url);
+            }
+            if (circuitBreaker != null && !circuitBreaker.allowRequest()) {
+                throw new CircuitOpenException(url.toString());
+            }
+            int remainingMillis = (int) Math.max(1, Math.min(Integer.MAX_VALUE,
+                    deadline - System.currentTimeMillis()));
+            try {
+                if (rateLimiter != null && !rateLimiter.acquire(remainingMillis)) {
+                    // The request could not be sent in time anyway
+                    releaseTrial();
+                    throw new IOException("Rate limited: " + url);
+                }
+            } catch (InterruptedException e) {
+                releaseTrial();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting to request " + url);
+            }
+
+            Response response = null;
+            IOException failure = null;
+            try {
+                response = hedged(url, headers, remainingMillis, cancellation, listener);
+            } catch (IOException e) {
+                failure = e;
+            }
+            if (failure != null && cancellation.isCancelled()) {
+                // Says nothing about the server, but a half-open circuit must not wait for it
+                releaseTrial();
+                throw failure;
+            }
+            if (failure == null && !TransportPolicy.isRetryableStatus(response.getCode())) {
+                if (circuitBreaker != null) {
+                    circuitBreaker.onSuccess();
+                }
+                return response;
+            }
+            if (circuitBreaker != null) {
+                circuitBreaker.onFailure();
+            }
+
+            long delay = -1;
+            if (response != null) {
+                delay = TransportPolicy.parseRetryAfterMillis(response.getHeader("Retry-After"));
+            }
+            if (delay < 0) {
+                delay = policy.getBackoffMillis(attempt, random);
+            }
+            if (attempt >= policy.getMaxAttempts() || System.currentTimeMillis() + delay >= deadline) {
+                if (failure != null) {
+                    throw failure;
+                }
+                // The caller sees the status of the last response
+                return response;
+            }
+            if (response != null) {
+                response.abort();
+            }
+            logger.info(LOG_TAG, "Retrying " + url + " in " + delay + " ms after "
+                    + (failure != null ? failure.toString() : "status " + response.getCode()));
+            try {
+                if (!cancellation.await(delay)) {
+                    throw new InterruptedIOException("Cancelled before retrying " + url);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted retrying " + url);
+            }
+        }
+    }
+
+    // A request refused before it was sent does not tell anything about the server, but the trial
+    // request of a half-open circuit must still be answered.
+    private void releaseTrial() {
+        if (circuitBreaker != null) {
+            circuitBreaker.releaseTrial();
+        }
+    }
+
+    // Sends the request, and a second one if the first one is slower than the recent requests.
+    // The first response wins; the other request is disconnected, or its response aborted when
+    // it arrives.
+    private Response hedged(URL url, Map<String, String> headers, int timeoutMillis,
+                            Cancellation cancellation, RequestListener listener) throws IOException {
+        long hedgeDelay = latencies == null ? -1 : latencies.getHedgeDelayMillis();
+        if (hedgeDelay < 0) {
+            return timed(url, headers, timeoutMillis, cancellation, listener);
+        }
+
+        AtomicBoolean answered = new AtomicBoolean();
+        CompletionService<Response> requests = new ExecutorCompletionService<>(hedgeExecutor);
+        Attempt first = new Attempt(url, headers, timeoutMillis, cancellation, listener, answered);
+        try {
+            requests.submit(first);
+        } catch (RejectedExecutionException e) {
+            // No thread left to send a hedged request alongside this one
+            first.unlink();
+            return timed(url, headers, timeoutMillis, cancellation, listener);
+        }
+        Attempt hedge = null;
+        try {
+            Future<Response> done = requests.poll(hedgeDelay, TimeUnit.MILLISECONDS);
+            // The hedged request is only sent if it fits in the rate limit right away
+            if (done == null && (rateLimiter == null || rateLimiter.acquire(0))) {
+                hedge = new Attempt(url, headers, timeoutMillis, cancellation, listener, answered);
+                try {
+                    requests.submit(hedge);
+                    logger.info(LOG_TAG, "Hedging " + url + " after " + hedgeDelay + " ms");
+                } catch (RejectedExecutionException e) {
+                    // No thread left for the hedged request; keep waiting for the first one
+                    hedge.unlink();
+                    hedge = null;
+                }
+            }
+            int sent = hedge == null ? 1 : 2;
+            IOException failure = null;
+            for (int i = 0; i < sent; i++) {
+                try {
+                    Response response = unwrap(done != null ? done : requests.take());
+                    done = null;
+                    if (response != null) {
+                        // Only the phases of the request that answered are measured
+                        (first.won ? first : hedge).replayPhases();
+                        return response;
+                    }
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            throw failure != null ? failure : new IOException("No response for " + url);
+        } catch (InterruptedException e) {
+            // A request still running aborts its response when it arrives
+            answered.set(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted requesting " + url);
+        } finally {
+            // Stop the request that lost, if it is still waiting for its response
+            first.endUnlessWon();
+            if (hedge != null) {
+                hedge.endUnlessWon();
+            }
+        }
+    }
+
+    // Sends the request and records how long the server took to answer it.
+    private Response timed(URL url, Map<String, String> headers, int timeoutMillis,
+                           Cancellation cancellation, RequestListener listener) throws IOException {
+        long start = System.nanoTime();
+        Response response = transport.get(url, headers, timeoutMillis, cancellation, listener);
+        if (latencies != null && !TransportPolicy.isRetryableStatus(response.getCode())) {
+            latencies.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+        return response;
+    }
+
+    private static Response unwrap(Future<Response> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * One of the requests of a hedged request, with its own cancellation, which is cancelled
+     * with the one of the caller, or alone when the other request won. It runs on another thread
+     * than the caller, so it traces its sections right away, but keeps its phases until the
+     * caller replays the ones of the request that won.
+     */
+    private final class Attempt implements Callable<Response>, RequestListener {
+
+        private final URL url;
+        private final Map<String, String> headers;
+        private final int timeoutMillis;
+        private final Cancellation caller;
+        private final RequestListener listener;
+        // Set by the first request answered
+        private final AtomicBoolean answered;
+        private final Cancellation cancellation = new Cancellation();
+        private final Runnable cancel = new Runnable() {
+            @Override
+            public void run() {
+                cancellation.cancel();
+            }
+        };
+        // The phases of the request and their times, until they are replayed
+        private final List<Phase> phases = new ArrayList<>();
+        private final List<Long> phaseNanos = new ArrayList<>();
+        // True once this request answered first
+        private volatile boolean won;
+
+        Attempt(URL url, Map<String, String> headers, int timeoutMillis, Cancellation caller,
+                RequestListener listener, AtomicBoolean answered) {
+            this.url = url;
+            this.headers = headers;
+            this.timeoutMillis = timeoutMillis;
+            this.caller = caller;
+            this.listener = listener;
+            this.answered = answered;
+            // Runs right away if the caller already cancelled
+            caller.addListener(cancel);
+        }
+
+        @Override
+        public Response call() throws IOException {
+            Response response = timed(url, headers, timeoutMillis, cancellation, this);
+            if (!answered.compareAndSet(false, true)) {
+                // The other request won
+                response.abort();
+                return null;
+            }
+            won = true;
+            return response;
+        }
+
+        @Override
+        public void beginSection(String name) {
+            listener.beginSection(name);
+        }
+
+        @Override
+        public void endSection() {
+            listener.endSection();
+        }
+
+        @Override
+        public void onPhase(Phase phase, long nanos) {
+            phases.add(phase);
+            phaseNanos.add(nanos);
+        }
+
+        @Override
+        public void onBody(long bytesReceived, int itemsParsed) {
+            listener.onBody(bytesReceived, itemsParsed);
+        }
+
+        // Gives the phases of the request to the listener of the caller, on the calling thread,
+        // once the request answered.
+        void replayPhases() {
+            for (int i = 0; i < phases.size(); i++) {
+                listener.onPhase(phases.get(i), phaseNanos.get(i));
+            }
+        }
+
+        // Stops this request unless it won; the winner stays cancelled with the caller, while
+        // its body is read.
+        void endUnlessWon() {
+            if (!won) {
+                unlink();
+                cancellation.cancel();
+            }
+        }
+
+        // Stops following the cancellation of the caller.
+        void unlink() {
+            caller.removeListener(cancel);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.android.booklistingapp.core;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+
+/**
+ * Builds the Google Books search URLs.
+ */
+public final class SearchUrls {
+
+    // The Google Books volumes endpoint
+    public static final String GOOGLE_BOOKS_URL = "https://www.googleapis.com/books/v1/volumes";
+    // Query parameter asking Google Books for a partial response
+    public static final String FIELDS_PARAMETER = "&fields=";
+
+    private SearchUrls() {
+    }
+
+    // Returns the search URL for one page of results, with maxResults books starting at startIndex.
+    // The response is projected to the fields a book is made of.
+    public static String build(String baseUrl, String query, int startIndex, int maxResults) {
+        return baseUrl + "?q=" + encode(query) + "&startIndex=" + startIndex + "&maxResults=" + maxResults
+                + FIELDS_PARAMETER + encode(BookParser.getFieldsProjection());
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            // Every Java platform supports UTF-8
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.android.booklistingapp.core;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket rate limiter: it holds up to {@code burst} permits and gains
+ * {@code permitsPerSecond} of them every second, so a burst of keystrokes or pages is sent right
+ * away up to the burst, and then at the steady rate.
+ * <p>
+ * A caller reserves its permit under the lock and waits for it outside of it, so waiting callers
+ * do not hold the lock, and the permits are handed out in the order they were asked.
+ */
+public final class TokenBucket {
+
+    private final double permitsPerNano;
+    private final double burst;
+    // Permits available at lastRefillNanos, negative when permits were reserved ahead
+    private double permits;
+    private long lastRefillNanos = System.nanoTime();
+
+    public TokenBucket(double permitsPerSecond, int burst) {
+        this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = burst;
+        this.permits = burst;
+    }
+
+    /**
+     * Takes a permit, waiting for it if needed. Returns false without taking it when it would
+     * take longer than the given time to become available.
+     */
+    public boolean acquire(long maxWaitMillis) throws InterruptedException {
+        long waitNanos = reserve(TimeUnit.MILLISECONDS.toNanos(maxWaitMillis));
+        if (waitNanos < 0) {
+            return false;
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+        return true;
+    }
+
+    // Reserves a permit and returns how long to wait for it, or -1 without reserving it when
+    // the wait would be longer than the given one.
+    private synchronized long reserve(long maxWaitNanos) {
+        long now = System.nanoTime();
+        permits = Math.min(burst, permits + (now - lastRefillNanos) * permitsPerNano);
+        lastRefillNanos = now;
+        long waitNanos = permits >= 1 ? 0 : (long) Math.ceil((1 - permits) / permitsPerNano);
+        if (waitNanos > maxWaitNanos) {
+            return -1;
+        }
+        permits -= 1;
+        return waitNanos;
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.android.booklistingapp.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * Sends the GET requests of the search core, so the HTTP stack can be replaced, for example by a
+ * client with its own connection pool or by canned responses in the tests.
+ */
+public interface Transport {
+
+    /**
+     * Sends a GET request and returns its response once its status line and headers are read.
+     * A request cancelled before it is answered fails with an IOException.
+     *
+     * @param url           is the URL requested
+     * @param headers       are the request headers, such as Accept-Encoding
+     * @param timeoutMillis is the longest the request may take; no connect or read timeout of
+     *                      the request exceeds it
+     * @param cancellation  stops the request, and the download of its body, when cancelled
+     * @param listener      receives the time spent connecting and waiting for the response
+     */
+    Response get(URL url, Map<String, String> headers, int timeoutMillis, Cancellation cancellation,
+                 RequestListener listener) throws IOException;
+
+    /**
+     * The response of a request. It must be either closed, once its body was read to the end so
+     * the connection can be reused, or aborted.
+     */
+    interface Response {
+
+        // Returns the HTTP status code.
+        int getCode();
+
+        // Returns the value of the given header, or null when the response has none.
+        String getHeader(String name);
+
+        // Returns the body as it was received, still compressed if it was, or null if there is none.
+        InputStream getBody() throws IOException;
+
+        // Releases the response, giving its connection back for the next request.
+        void close() throws IOException;
+
+        // Drops the connection of a response whose body was not read to the end.
+        void abort();
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.android.booklistingapp.core;
+
+import java.net.HttpURLConnection;
+import java.util.Random;
+
+/**
+ * How requests to Google Books are retried, hedged, broken off and rate limited. Every setter
+ * returns the policy, so a policy can be configured in a single expression; a policy must not be
+ * changed once it is in use.
+ */
+public final class TransportPolicy {
+
+    // Status code of a response telling the client to slow down
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private int maxAttempts = 3;
+    private long baseBackoffMillis = 250;
+    private long maxBackoffMillis = 4000;
+    private int hedgePercentile = 95;
+    private long minHedgeDelayMillis = 300;
+    private int breakerFailureThreshold = 5;
+    private long breakerOpenMillis = 30000;
+    private double permitsPerSecond = 4;
+    private int burst = 8;
+
+    // Sets the number of times a request is sent at most, counting the first one; 1 disables
+    // the retries.
+    public TransportPolicy setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        return this;
+    }
+
+    // Sets the upper bound of the delay before the first retry, which doubles on every retry
+    // up to the given maximum.
+    public TransportPolicy setBackoff(long baseMillis, long maxMillis) {
+        this.baseBackoffMillis = baseMillis;
+        this.maxBackoffMillis = maxMillis;
+        return this;
+    }
+
+    // Sends a second, hedged request when the first one takes longer than the given percentile
+    // of the recent requests, and no less than the given delay; a percentile of 0 disables it.
+    public TransportPolicy setHedging(int percentile, long minDelayMillis) {
+        this.hedgePercentile = percentile;
+        this.minHedgeDelayMillis = minDelayMillis;
+        return this;
+    }
+
+    // Stops sending requests for the given time once the given number of requests in a row
+    // failed; a threshold of 0 disables the circuit breaker.
+    public TransportPolicy setCircuitBreaker(int failureThreshold, long openMillis) {
+        this.breakerFailureThreshold = failureThreshold;
+        this.breakerOpenMillis = openMillis;
+        return this;
+    }
+
+    // Sends at most the given number of requests per second on average, with bursts of up to
+    // the given number of requests; a rate of 0 disables the rate limiter.
+    public TransportPolicy setRateLimit(double permitsPerSecond, int burst) {
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+        return this;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public int getHedgePercentile() {
+        return hedgePercentile;
+    }
+
+    public long getMinHedgeDelayMillis() {
+        return minHedgeDelayMillis;
+    }
+
+    /**
+     * Returns a new circuit breaker following the policy, or null when it is disabled.
+     */
+    public CircuitBreaker newCircuitBreaker() {
+        return breakerFailureThreshold <= 0 ? null
+                : new CircuitBreaker(breakerFailureThreshold, breakerOpenMillis);
+    }
+
+    /**
+     * Returns a new rate limiter following the policy, or null when it is disabled.
+     */
+    public TokenBucket newRateLimiter() {
+        return permitsPerSecond <= 0 ? null : new TokenBucket(permitsPerSecond, Math.max(1, burst));
+    }
+
+    /**
+     * Returns a new tracker of the latencies the hedge delay is derived from, or null when
+     * hedging is disabled.
+     */
+    public LatencyTracker newLatencyTracker() {
+        return hedgePercentile <= 0 ? null : new LatencyTracker(hedgePercentile, minHedgeDelayMillis);
+    }
+
+    /**
+     * Returns the delay before the given retry, 1 being the first one: a random delay up to the
+     * exponential bound, so clients failing at the same time do not retry at the same time.
+     */
+    public long getBackoffMillis(int retry, Random random) {
+        long bound = baseBackoffMillis << Math.min(retry - 1, 20);
+        bound = Math.min(maxBackoffMillis, Math.max(1, bound));
+        return (long) (random.nextDouble() * bound);
+    }
+
+    /**
+     * Returns true if a response with the given status code is worth sending again: the server
+     * is overloaded, unavailable or timed out, or asks the client to slow down.
+     */
+    public static boolean isRetryableStatus(int code) {
+        return code == HTTP_TOO_MANY_REQUESTS
+                || code == HttpURLConnection.HTTP_CLIENT_TIMEOUT
+                || code == HttpURLConnection.HTTP_INTERNAL_ERROR
+                || code == HttpURLConnection.HTTP_BAD_GATEWAY
+                || code == HttpURLConnection.HTTP_UNAVAILABLE
+                || code == HttpURLConnection.HTTP_GATEWAY_TIMEOUT;
+    }
+
+    /**
+     * Returns the delay asked by the Retry-After header of a response, in milliseconds, or -1
+     * when the header is missing or is an HTTP date rather than a number of seconds.
+     */
+    public static long parseRetryAfterMillis(String retryAfter) {
+        if (retryAfter == null) {
+            return -1;
+        }
+        try {
+            return Math.max(0, Long.parseLong(retryAfter.trim())) * 1000;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
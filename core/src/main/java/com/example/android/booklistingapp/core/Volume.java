@@ -0,0 +1,55 @@
+package com.example.android.booklistingapp.core;
+
+/**
+ * A book returned by Google Books, as plain Strings, for the code running off-device.
+ */
+public final class Volume {
+
+    // Creates Volume objects for the parser
+    public static final BookFactory<Volume> FACTORY = new BookFactory<Volume>() {
+        @Override
+        public Volume create(String id, String title, String authors, String description,
+                             String thumbnail) {
+            return new Volume(id, title, authors, description, thumbnail);
+        }
+    };
+
+    private final String id;
+    private final String title;
+    private final String authors;
+    private final String description;
+    private final String thumbnail;
+
+    public Volume(String id, String title, String authors, String description, String thumbnail) {
+        this.id = id;
+        this.title = title;
+        this.authors = authors;
+        this.description = description;
+        this.thumbnail = thumbnail;
+    }
+
+    // Returns the Google Books volume id of the book.
+    public String getId() {
+        return id;
+    }
+
+    // Returns the title of the book.
+    public String getTitle() {
+        return title;
+    }
+
+    // Returns the authors of the book, separated by commas.
+    public String getAuthors() {
+        return authors;
+    }
+
+    // Returns the description of the book.
+    public String getDescription() {
+        return description;
+    }
+
+    // Returns the URL of the small cover thumbnail of the book, or an empty string.
+    public String getThumbnail() {
+        return thumbnail;
+    }
+}
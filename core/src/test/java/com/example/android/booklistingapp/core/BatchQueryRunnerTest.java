@@ -0,0 +1,103 @@
+package com.example.android.booklistingapp.core;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the search client and the batch runner against a local mock of Google Books.
+ */
+public class BatchQueryRunnerTest {
+
+    private MockBooksServer server;
+    private BookSearchClient<Volume> client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockBooksServer(25);
+        client = new BookSearchClient<>(new HttpUrlConnectionTransport(), Volume.FACTORY,
+                Logger.NONE, 5000);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void client_parsesGzippedResponse() throws Exception {
+        List<Volume> books = client.search(SearchUrls.build(server.getBaseUrl(), "java", 0, 10));
+        assertEquals(10, books.size());
+        Volume first = books.get(0);
+        assertEquals("java-0", first.getId());
+        assertEquals("Title 0 of java", first.getTitle());
+        assertEquals("Author 0,Ann ed.", first.getAuthors());
+        assertEquals("Description of java – 0", first.getDescription());
+        assertEquals("http://books.example/0.jpg", first.getThumbnail());
+    }
+
+    @Test
+    public void client_reportsServerErrors() throws Exception {
+        try {
+            client.search(SearchUrls.build(server.getBaseUrl(), "fail", 0, 10));
+            fail("A 503 response must not look like a search without results");
+        } catch (HttpStatusException e) {
+            assertEquals(503, e.getStatusCode());
+        }
+    }
+
+    @Test
+    public void runner_streamsEveryBookOfEveryQuery() throws Exception {
+        StringBuilder queries = new StringBuilder();
+        int queryCount = 200;
+        for (int i = 0; i < queryCount; i++) {
+            queries.append("query ").append(i).append('\n');
+        }
+        queries.append("\nfail once\n");
+
+        StringWriter output = new StringWriter();
+        ExecutorService executor = BatchQueryRunner.newExecutor(8, false);
+        BatchQueryRunner.Summary summary;
+        try {
+            // Pages of 10 books: every query takes three requests for its 25 books
+            summary = new BatchQueryRunner(client, server.getBaseUrl(), 10, 5, 8, Logger.NONE)
+                    .run(new BufferedReader(new StringReader(queries.toString())), output, executor);
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(queryCount + 1, summary.getQueries());
+        assertEquals(1, summary.getFailures());
+        assertEquals(queryCount * 25L, summary.getBooks());
+        assertEquals(queryCount * 3 + 1, server.getRequestCount());
+
+        Set<String> ids = new HashSet<>();
+        int errors = 0;
+        for (String line : output.toString().split("\n")) {
+            JsonObject book = new JsonParser().parse(line).getAsJsonObject();
+            if (book.has("error")) {
+                assertEquals("fail once", book.get("query").getAsString());
+                errors++;
+            } else {
+                String id = book.get("id").getAsString();
+                assertTrue(id.startsWith(book.get("query").getAsString() + "-"));
+                assertTrue("Duplicate " + id, ids.add(id));
+            }
+        }
+        assertEquals(1, errors);
+        assertEquals(queryCount * 25, ids.size());
+    }
+}
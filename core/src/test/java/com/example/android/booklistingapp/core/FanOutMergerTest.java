@@ -0,0 +1,49 @@
+package com.example.android.booklistingapp.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the ranking and the de-duplication of the books of fanned out searches.
+ */
+public class FanOutMergerTest {
+
+    private static final FanOutMerger.IdOf<String> IDS = new FanOutMerger.IdOf<String>() {
+        @Override
+        public String idOf(String book) {
+            return book;
+        }
+    };
+
+    @Test
+    public void pagesFollowEachOther_whateverTheirCompletionOrder() {
+        FanOutMerger<String> merger = new FanOutMerger<>(IDS);
+        assertEquals(Arrays.asList("c", "d"), merger.add(0, 2, Arrays.asList("c", "d")));
+        assertEquals(Arrays.asList("a", "b", "c", "d"), merger.add(0, 0, Arrays.asList("a", "b")));
+    }
+
+    @Test
+    public void variantsAreInterleaved_andRepeatedBooksKeptAtTheirBestRank() {
+        FanOutMerger<String> first = new FanOutMerger<>(IDS);
+        first.add(2, 0, Arrays.asList("x", "a"));
+        first.add(1, 0, Arrays.asList("t", "u"));
+        List<String> merged = first.add(0, 0, Arrays.asList("a", "b"));
+        assertEquals(Arrays.asList("a", "t", "x", "b", "u"), merged);
+
+        // The same sub-requests completing in another order give the same list
+        FanOutMerger<String> second = new FanOutMerger<>(IDS);
+        second.add(0, 0, Arrays.asList("a", "b"));
+        second.add(1, 0, Arrays.asList("t", "u"));
+        assertEquals(merged, second.add(2, 0, Arrays.asList("x", "a")));
+    }
+
+    @Test
+    public void variantsOf_splitsPlainQueriesOnly() {
+        assertEquals(Arrays.asList("dune", "intitle:dune", "inauthor:dune"), FanOutMerger.variantsOf("dune"));
+        assertEquals(Arrays.asList("inauthor:herbert"), FanOutMerger.variantsOf("inauthor:herbert"));
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.android.booklistingapp.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the matching, the ranking and the memory bound of the inverted index.
+ */
+public class InvertedIndexTest {
+
+    // A document is its key, title, authors and description
+    private static final InvertedIndex.Fields<String[]> FIELDS = new InvertedIndex.Fields<String[]>() {
+        @Override
+        public String keyOf(String[] document) {
+            return document[0];
+        }
+
+        @Override
+        public String[] fieldsOf(String[] document) {
+            return Arrays.copyOfRange(document, 1, 4);
+        }
+    };
+
+    private static final String[] HOBBIT = {"h", "The Hobbit", "J. R. R. Tolkien", "A dragon and a ring."};
+    private static final String[] DUNE = {"d", "Dune", "Frank Herbert", "Spice, sand and a ring of desert."};
+    private static final String[] RINGS = {"r", "The Fellowship of the Ring", "J. R. R. Tolkien", "Café talk."};
+
+    private static InvertedIndex<String[]> newIndex() {
+        InvertedIndex<String[]> index = new InvertedIndex<>(FIELDS, 100, 100);
+        index.add(HOBBIT);
+        index.add(DUNE);
+        index.add(RINGS);
+        return index;
+    }
+
+    @Test
+    public void search_matchesEveryWord_andRanksTitlesFirst() {
+        InvertedIndex<String[]> index = newIndex();
+        // The title match ranks above the description matches, which keep their order
+        assertEquals(Arrays.asList(RINGS, HOBBIT, DUNE), index.search("ring"));
+        assertEquals(Collections.singletonList(HOBBIT), index.search("Tolkien  dragon"));
+        // Prefixes and accents
+        assertEquals(Arrays.asList(HOBBIT, RINGS), index.search("tolk"));
+        assertEquals(Collections.singletonList(RINGS), index.search("cafe"));
+        assertTrue(index.search("   ").isEmpty());
+    }
+
+    @Test
+    public void search_restrictsWordsToAField() {
+        InvertedIndex<String[]> index = newIndex();
+        assertEquals(Collections.singletonList(RINGS), index.search("title:ring"));
+        assertEquals(Collections.singletonList(DUNE), index.search("author:herbert"));
+        assertTrue(index.search("author:dune").isEmpty());
+    }
+
+    @Test
+    public void add_skipsKnownKeys_andDropsTheOldestDocuments() {
+        InvertedIndex<String[]> index = new InvertedIndex<>(FIELDS, 2, 100);
+        assertTrue(index.add(HOBBIT));
+        assertFalse(index.add(HOBBIT));
+        index.add(DUNE);
+        index.add(RINGS);
+        assertEquals(2, index.size());
+        assertEquals(Collections.singletonList(RINGS), index.search("tolkien"));
+
+        // The postings are rebuilt as documents keep being dropped
+        for (int i = 0; i < 1000; i++) {
+            index.add(new String[]{"k" + i, "Title " + i, "Author", "Description"});
+        }
+        assertEquals(2, index.size());
+        assertTrue(index.search("tolkien").isEmpty());
+        assertEquals(2, index.search("author").size());
+        assertTrue(index.getTermCount() < 20);
+    }
+}
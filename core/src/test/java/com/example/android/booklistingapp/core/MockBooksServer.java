@@ -0,0 +1,172 @@
+package com.example.android.booklistingapp.core;
+
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A local stand-in for the Google Books volumes endpoint. The query "q" answers
+ * {@code booksPerQuery} books with the ids "q-0", "q-1", ..., paged with startIndex and
+ * maxResults; a query starting with "fail" answers 503. Responses are gzip-compressed when the
+ * request accepts it. Faults can be injected into the next requests: an error status, or a delay
+ * before the response.
+ */
+final class MockBooksServer {
+
+    // Path of the volumes endpoint
+    static final String PATH = "/books/v1/volumes";
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newFixedThreadPool(16);
+    private final int booksPerQuery;
+    // Requests received so far
+    private final AtomicInteger requests = new AtomicInteger();
+    // Number of the next requests answered with faultStatus
+    private final AtomicInteger faults = new AtomicInteger();
+    private volatile int faultStatus;
+    // Number of the next requests delayed by delayMillis
+    private final AtomicInteger delays = new AtomicInteger();
+    private volatile long delayMillis;
+
+    MockBooksServer(int booksPerQuery) throws IOException {
+        this.booksPerQuery = booksPerQuery;
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext(PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                respond(exchange);
+            }
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    // Returns the URL of the volumes endpoint.
+    String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + PATH;
+    }
+
+    // Returns the number of requests received so far.
+    int getRequestCount() {
+        return requests.get();
+    }
+
+    // Answers the given number of next requests with the given status.
+    void failNext(int count, int status) {
+        faultStatus = status;
+        faults.set(count);
+    }
+
+    // Delays the response of the given number of next requests by the given time.
+    void delayNext(int count, long millis) {
+        delayMillis = millis;
+        delays.set(count);
+    }
+
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void respond(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try {
+            if (delays.getAndDecrement() > 0) {
+                sleep(delayMillis);
+            }
+            if (faults.getAndDecrement() > 0) {
+                exchange.getResponseHeaders().set("Retry-After", "0");
+                exchange.sendResponseHeaders(faultStatus, -1);
+                return;
+            }
+            Map<String, String> parameters = parse(exchange.getRequestURI().getRawQuery());
+            String query = parameters.get("q");
+            if (query.startsWith("fail")) {
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+            int startIndex = Integer.parseInt(parameters.get("startIndex"));
+            int maxResults = Integer.parseInt(parameters.get("maxResults"));
+            byte[] body = books(query, startIndex, Math.min(booksPerQuery, startIndex + maxResults));
+
+            String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+                gzip.write(body);
+                gzip.close();
+                body = compressed.toByteArray();
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+            exchange.sendResponseHeaders(200, body.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // Returns a response with the books of the query from start to end, with subtrees the
+    // parser skips.
+    private static byte[] books(String query, int start, int end) throws IOException {
+        StringWriter json = new StringWriter();
+        JsonWriter writer = new JsonWriter(json);
+        writer.beginObject().name("kind").value("books#volumes").name("totalItems").value(end - start);
+        if (end > start) {
+            writer.name("items").beginArray();
+            for (int i = start; i < end; i++) {
+                writer.beginObject()
+                        .name("id").value(query + "-" + i)
+                        .name("volumeInfo").beginObject()
+                        .name("title").value("Title " + i + " of " + query)
+                        .name("authors").beginArray().value("Author " + i).value("Ann (ed.)").endArray()
+                        .name("description").value("Description of " + query + " – " + i)
+                        .name("imageLinks").beginObject()
+                        .name("smallThumbnail").value("http://books.example/" + i + ".jpg")
+                        .endObject()
+                        .endObject()
+                        .name("saleInfo").beginObject().name("country").value("US").endObject()
+                        .endObject();
+            }
+            writer.endArray();
+        }
+        writer.endObject().close();
+        return json.toString().getBytes(Charset.forName("UTF-8"));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Map<String, String> parse(String rawQuery) throws UnsupportedEncodingException {
+        Map<String, String> parameters = new HashMap<>();
+        for (String parameter : rawQuery.split("&")) {
+            int equals = parameter.indexOf('=');
+            parameters.put(URLDecoder.decode(parameter.substring(0, equals), "UTF-8"),
+                    URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+        }
+        return parameters;
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.android.booklistingapp.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the retries, the circuit breaker, the hedged requests and the rate limiter against a local
+ * mock of Google Books injecting faults and delays.
+ */
+public class ResilientTransportTest {
+
+    private MockBooksServer server;
+    private ExecutorService hedgeExecutor;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockBooksServer(10);
+        hedgeExecutor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        hedgeExecutor.shutdownNow();
+    }
+
+    @Test
+    public void retries_recoverFromTransientErrors() throws Exception {
+        server.failNext(2, 503);
+        BookSearchClient<Volume> client = clientWith(new TransportPolicy()
+                .setMaxAttempts(3).setBackoff(10, 50).setRateLimit(0, 0));
+        assertEquals(10, client.search(url()).size());
+        assertEquals(3, server.getRequestCount());
+    }
+
+    @Test
+    public void retries_giveUpWithTheServerError() throws Exception {
+        server.failNext(5, 429);
+        BookSearchClient<Volume> client = clientWith(new TransportPolicy()
+                .setMaxAttempts(2).setBackoff(10, 50).setRateLimit(0, 0));
+        try {
+            client.search(url());
+            fail("A server that keeps failing must not look like a search without results");
+        } catch (HttpStatusException e) {
+            assertEquals(429, e.getStatusCode());
+        }
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void circuitBreaker_refusesRequestsOnceOpen() throws Exception {
+        server.failNext(10, 500);
+        BookSearchClient<Volume> client = clientWith(new TransportPolicy()
+                .setMaxAttempts(1).setCircuitBreaker(2, 60000).setRateLimit(0, 0));
+        for (int i = 0; i < 2; i++) {
+            try {
+                client.search(url());
+                fail();
+            } catch (HttpStatusException expected) {
+            }
+        }
+        try {
+            client.search(url());
+            fail("The circuit must be open");
+        } catch (CircuitOpenException expected) {
+        }
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void circuitBreaker_endsAHalfOpenTrialThatIsNeverAnswered() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(1, 50);
+        breaker.onFailure();
+        assertFalse(breaker.allowRequest());
+        Thread.sleep(60);
+
+        // A trial cancelled before it was answered opens the circuit again
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+        breaker.releaseTrial();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Thread.sleep(60);
+
+        // A trial that is lost without a word is given up after the open time
+        assertTrue(breaker.allowRequest());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        Thread.sleep(60);
+        assertTrue(breaker.allowRequest());
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void hedging_answersWithTheFasterRequest() throws Exception {
+        BookSearchClient<Volume> client = clientWith(new TransportPolicy()
+                .setHedging(90, 50).setRateLimit(0, 0));
+        // Learn the latency of the server
+        for (int i = 0; i < 10; i++) {
+            client.search(url());
+        }
+        server.delayNext(1, 3000);
+        long start = System.nanoTime();
+        assertEquals(10, client.search(url()).size());
+        assertTrue((System.nanoTime() - start) / 1000000 < 2000);
+        assertEquals(12, server.getRequestCount());
+    }
+
+    @Test
+    public void hedging_sendsTheRequestItselfWhenNoThreadIsLeft() throws Exception {
+        Executor rejecting = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException("No thread left");
+            }
+        };
+        BookSearchClient<Volume> client = new BookSearchClient<>(new ResilientTransport(
+                new HttpUrlConnectionTransport(), new TransportPolicy().setHedging(90, 50).setRateLimit(0, 0),
+                rejecting, Logger.NONE), Volume.FACTORY, Logger.NONE, 5000);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(10, client.search(url()).size());
+        }
+        assertEquals(10, server.getRequestCount());
+    }
+
+    @Test
+    public void rateLimiter_spacesRequestsPastTheBurst() throws Exception {
+        TokenBucket bucket = new TokenBucket(20, 2);
+        long start = System.nanoTime();
+        for (int i = 0; i < 6; i++) {
+            assertTrue(bucket.acquire(1000));
+        }
+        // Two permits right away, then one every 50 ms
+        assertTrue((System.nanoTime() - start) / 1000000 >= 180);
+
+        // A permit that is not available in time is not taken
+        TokenBucket single = new TokenBucket(1, 1);
+        assertTrue(single.acquire(0));
+        assertFalse(single.acquire(100));
+    }
+
+    private BookSearchClient<Volume> clientWith(TransportPolicy policy) {
+        return new BookSearchClient<>(new ResilientTransport(new HttpUrlConnectionTransport(), policy,
+                hedgeExecutor, Logger.NONE), Volume.FACTORY, Logger.NONE, 5000);
+    }
+
+    private String url() {
+        return SearchUrls.build(server.getBaseUrl(), "java", 0, 10);
+    }
+}
@@ -0,0 +1,470 @@
+package com.example.android.booklistingapp.loadtest;
+
+import com.example.android.booklistingapp.core.BatchQueryRunner;
+import com.example.android.booklistingapp.core.BookSearchClient;
+import com.example.android.booklistingapp.core.Cancellation;
+import com.example.android.booklistingapp.core.HttpUrlConnectionTransport;
+import com.example.android.booklistingapp.core.Logger;
+import com.example.android.booklistingapp.core.RequestListener;
+import com.example.android.booklistingapp.core.ResilientTransport;
+import com.example.android.booklistingapp.core.SearchUrls;
+import com.example.android.booklistingapp.core.Transport;
+import com.example.android.booklistingapp.core.TransportPolicy;
+import com.example.android.booklistingapp.core.Volume;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives concurrent search sessions through the request path of the app. Every request is sent
+ * like {@code Utils.fetchBooksData} sends a page: through {@link BookSearchClient#search(String,
+ * String, String, BookSearchClient.BodySink, int, Cancellation, RequestListener)}, over a
+ * {@link ResilientTransport} with the retries, hedging and circuit breaker of the default
+ * {@link TransportPolicy}, itself over an {@link HttpUrlConnectionTransport} with connect and read
+ * timeouts, and parsed by the streaming {@code BookParser} while it is downloaded. Every session
+ * searches a random query, requests its pages one after the other until a page is not full, and
+ * starts over with another query until the run ends. The harness then reports the latency
+ * percentiles of the requests, of their first byte and of their body, and the throughput.
+ * <p>
+ * What the app does around that path stays out of the measures: its response cache on disk and
+ * the revalidation of the cached pages, the parsed pages kept in memory, and the BookLoader's
+ * queue of pages. Measuring those means pointing the app itself at the stand-in with
+ * {@code --serve}.
+ * <p>
+ * The requests go to a {@link StubBooksServer} started on the loopback interface, so a run is
+ * reproducible and needs no network, unless {@code --base-url} points them somewhere else.
+ * With {@code --serve}, only the server is started, on the given port, e.g. for the app on an
+ * emulator, which reaches it at http://10.0.2.2:&lt;port&gt;/books/v1/volumes.
+ * <p>
+ * Usage: {@code LoadHarness [--sessions n] [--duration seconds] [--queries file] [--pages n]
+ * [--page-size n] [--timeout millis] [--attempts n] [--rate requests/s] [--base-url url] [--latency millis]
+ * [--jitter millis] [--handshake millis] [--bandwidth bytes/s] [--error-rate share] [--books n]
+ * [--description-chars n] [--recordings directory] [--seed n] [--serve port]}
+ */
+public final class LoadHarness {
+
+    // Tag for the log messages
+    private static final String LOG_TAG = LoadHarness.class.getSimpleName();
+    // Queries searched when no file of queries is given
+    private static final List<String> DEFAULT_QUERIES = Arrays.asList("android", "tolkien", "history",
+            "java programming", "poetry", "cooking", "astronomy", "jane austen", "economics", "chess");
+    private static final int DEFAULT_SESSIONS = 16;
+    private static final int DEFAULT_DURATION_SECONDS = 10;
+    private static final int DEFAULT_PAGES = 3;
+    private static final int DEFAULT_PAGE_SIZE = 10;
+    private static final int DEFAULT_TIMEOUT_MILLIS = 15000;
+    // Connect and read timeouts of a request, like the ones of the app
+    private static final int HTTP_TIMEOUT_MILLIS = 15000;
+
+    private final BookSearchClient<Volume> client;
+    private final int timeoutMillis;
+    private final String baseUrl;
+    private final List<String> queries;
+    private final int pageSize;
+    private final int maxPages;
+    private final long seed;
+
+    /**
+     * Creates a harness.
+     *
+     * @param client        requests the searches
+     * @param timeoutMillis is the longest a request may take, retries included
+     * @param baseUrl       is the volumes endpoint
+     * @param queries       are the queries the sessions pick from
+     * @param pageSize      is the number of books asked per request
+     * @param maxPages      is the number of pages a session requests at most per query
+     * @param seed          seeds the queries picked by the sessions
+     */
+    public LoadHarness(BookSearchClient<Volume> client, int timeoutMillis, String baseUrl,
+                       List<String> queries, int pageSize, int maxPages, long seed) {
+        if (queries.isEmpty()) {
+            throw new IllegalArgumentException("No query to search");
+        }
+        this.client = client;
+        this.timeoutMillis = timeoutMillis;
+        this.baseUrl = baseUrl;
+        this.queries = new ArrayList<>(queries);
+        this.pageSize = pageSize;
+        this.maxPages = maxPages;
+        this.seed = seed;
+    }
+
+    /**
+     * Runs the given number of sessions at the same time on the given executor, for the given
+     * duration, and returns once every session has finished its last request.
+     */
+    public Report run(int sessions, long durationMillis, ExecutorService executor)
+            throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        final Session[] running = new Session[sessions];
+        final CountDownLatch done = new CountDownLatch(sessions);
+        long start = System.nanoTime();
+        for (int i = 0; i < sessions; i++) {
+            final Session session = new Session(new Random(seed + i));
+            running[i] = session;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        session.run(deadline);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        done.await();
+        return new Report(running, System.nanoTime() - start);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int sessions = DEFAULT_SESSIONS;
+        int durationSeconds = DEFAULT_DURATION_SECONDS;
+        int pages = DEFAULT_PAGES;
+        int pageSize = DEFAULT_PAGE_SIZE;
+        int timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+        int attempts = new TransportPolicy().getMaxAttempts();
+        double rate = 0;
+        String queriesFile = null;
+        String baseUrl = null;
+        int servePort = -1;
+        long seed = 1;
+        StubBooksServer.Config config = new StubBooksServer.Config();
+        long latency = 0;
+        long jitter = 0;
+        int books = 200;
+        int descriptionChars = 400;
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + option);
+            }
+            String value = args[++i];
+            if ("--sessions".equals(option)) {
+                sessions = Integer.parseInt(value);
+            } else if ("--duration".equals(option)) {
+                durationSeconds = Integer.parseInt(value);
+            } else if ("--queries".equals(option)) {
+                queriesFile = value;
+            } else if ("--pages".equals(option)) {
+                pages = Integer.parseInt(value);
+            } else if ("--page-size".equals(option)) {
+                pageSize = Integer.parseInt(value);
+            } else if ("--timeout".equals(option)) {
+                timeoutMillis = Integer.parseInt(value);
+            } else if ("--attempts".equals(option)) {
+                attempts = Integer.parseInt(value);
+            } else if ("--rate".equals(option)) {
+                rate = Double.parseDouble(value);
+            } else if ("--base-url".equals(option)) {
+                baseUrl = value;
+            } else if ("--latency".equals(option)) {
+                latency = Long.parseLong(value);
+            } else if ("--jitter".equals(option)) {
+                jitter = Long.parseLong(value);
+            } else if ("--handshake".equals(option)) {
+                config.setHandshake(Long.parseLong(value));
+            } else if ("--bandwidth".equals(option)) {
+                config.setBandwidth(Long.parseLong(value));
+            } else if ("--error-rate".equals(option)) {
+                config.setErrorRate(Double.parseDouble(value), 503);
+            } else if ("--books".equals(option)) {
+                books = Integer.parseInt(value);
+            } else if ("--description-chars".equals(option)) {
+                descriptionChars = Integer.parseInt(value);
+            } else if ("--recordings".equals(option)) {
+                config.setRecordings(new File(value));
+            } else if ("--seed".equals(option)) {
+                seed = Long.parseLong(value);
+            } else if ("--serve".equals(option)) {
+                servePort = Integer.parseInt(value);
+            } else {
+                throw new IllegalArgumentException("Unknown option " + option);
+            }
+        }
+        config.setLatency(latency, jitter).setGeneratedBooks(books, descriptionChars).setSeed(seed)
+                .setThreads(Math.max(sessions, 32));
+
+        if (servePort >= 0) {
+            StubBooksServer server = new StubBooksServer(config, servePort);
+            Logger.SYSTEM_ERR.info(LOG_TAG, "Serving " + server.getRecordingCount() + " recordings at "
+                    + server.getBaseUrl() + " until stopped");
+            Thread.sleep(Long.MAX_VALUE);
+            return;
+        }
+
+        // Enough keep-alive connections for every session
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", String.valueOf(sessions));
+
+        StubBooksServer server = baseUrl == null ? new StubBooksServer(config, 0) : null;
+        ExecutorService executor = BatchQueryRunner.newExecutor(sessions, false);
+        // Like the hedge executor of the app, a request is not hedged when every thread is busy
+        ThreadPoolExecutor hedgeExecutor = new ThreadPoolExecutor(0, 2 * sessions, 30, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>());
+        try {
+            // Not rate limited unless asked, so the harness measures the server and the parser
+            TransportPolicy policy = new TransportPolicy().setMaxAttempts(attempts)
+                    .setRateLimit(rate, Math.max(1, (int) rate));
+            // The failures are counted in the report rather than logged one by one
+            Transport transport = new ResilientTransport(
+                    new HttpUrlConnectionTransport(HTTP_TIMEOUT_MILLIS, HTTP_TIMEOUT_MILLIS), policy,
+                    hedgeExecutor, Logger.NONE);
+            BookSearchClient<Volume> client = new BookSearchClient<>(transport, Volume.FACTORY,
+                    Logger.NONE, timeoutMillis);
+            List<String> queries = queriesFile == null ? DEFAULT_QUERIES : readQueries(queriesFile);
+            LoadHarness harness = new LoadHarness(client, timeoutMillis,
+                    server != null ? server.getBaseUrl() : baseUrl, queries, pageSize, pages, seed);
+            Report report = harness.run(sessions, durationSeconds * 1000L, executor);
+            System.out.println(report);
+            if (server != null) {
+                System.out.println(String.format(Locale.ROOT, "server: %d requests, %d errors injected, %d KB sent",
+                        server.getRequestCount(), server.getErrorCount(), server.getBytesSent() / 1024));
+            }
+        } finally {
+            executor.shutdownNow();
+            hedgeExecutor.shutdownNow();
+            if (server != null) {
+                server.stop();
+            }
+        }
+    }
+
+    // Reads the non-blank lines of the given file.
+    private static List<String> readQueries(String file) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file),
+                Charset.forName("UTF-8")));
+        try {
+            List<String> queries = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    queries.add(line.trim());
+                }
+            }
+            return queries;
+        } finally {
+            reader.close();
+        }
+    }
+
+    // One user searching query after query. Only touched by its own thread until the run ends.
+    private final class Session implements RequestListener {
+
+        private final Random random;
+        // Latencies of the requests that succeeded, in microseconds
+        private final Samples latencies = new Samples();
+        // Time to the first byte, and time spent downloading and parsing the body, of the
+        // requests that succeeded, in microseconds
+        private final Samples firstBytes = new Samples();
+        private final Samples bodies = new Samples();
+        // Phases of the request in flight, in nanoseconds
+        private long firstByteNanos;
+        private long bodyNanos;
+        private int failures;
+        private long books;
+
+        Session(Random random) {
+            this.random = random;
+        }
+
+        void run(long deadline) {
+            while (System.nanoTime() < deadline) {
+                String query = queries.get(random.nextInt(queries.size()));
+                for (int page = 0; page < maxPages && System.nanoTime() < deadline; page++) {
+                    String url = SearchUrls.build(baseUrl, query, page * pageSize, pageSize);
+                    firstByteNanos = 0;
+                    bodyNanos = 0;
+                    long start = System.nanoTime();
+                    List<Volume> volumes;
+                    try {
+                        BookSearchClient.Result<Volume> result = client.search(url, null, null, null,
+                                timeoutMillis, new Cancellation(), this);
+                        if (!result.isComplete()) {
+                            throw new IOException("Malformed response for " + url);
+                        }
+                        volumes = result.getBooks();
+                    } catch (IOException | RuntimeException e) {
+                        failures++;
+                        break;
+                    }
+                    latencies.add(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+                    firstBytes.add(TimeUnit.NANOSECONDS.toMicros(firstByteNanos));
+                    bodies.add(TimeUnit.NANOSECONDS.toMicros(bodyNanos));
+                    books += volumes.size();
+                    if (volumes.size() < pageSize) {
+                        break;
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void beginSection(String name) {
+        }
+
+        @Override
+        public void endSection() {
+        }
+
+        @Override
+        public void onPhase(Phase phase, long nanos) {
+            if (phase == Phase.CONNECT || phase == Phase.FIRST_BYTE) {
+                firstByteNanos += nanos;
+            } else {
+                bodyNanos += nanos;
+            }
+        }
+
+        @Override
+        public void onBody(long bytesReceived, int itemsParsed) {
+        }
+    }
+
+    // A growing list of values.
+    private static final class Samples {
+
+        private long[] values = new long[256];
+        private int count;
+
+        void add(long value) {
+            if (count == values.length) {
+                values = Arrays.copyOf(values, 2 * values.length);
+            }
+            values[count++] = value;
+        }
+
+        // Returns the values of every given list, sorted.
+        static long[] sorted(List<Samples> lists) {
+            int total = 0;
+            for (Samples samples : lists) {
+                total += samples.count;
+            }
+            long[] all = new long[total];
+            int offset = 0;
+            for (Samples samples : lists) {
+                System.arraycopy(samples.values, 0, all, offset, samples.count);
+                offset += samples.count;
+            }
+            Arrays.sort(all);
+            return all;
+        }
+    }
+
+    /**
+     * The latencies and the throughput of a run. The latencies are those of the requests that
+     * succeeded, retries and hedged requests included, from the request to its last book parsed.
+     * They are split into the time to the first byte, connecting included, and the time spent
+     * downloading and parsing the body, of the request that answered.
+     */
+    public static final class Report {
+
+        // Latencies of every successful request, in microseconds, sorted
+        private final long[] latencies;
+        private final long[] firstBytes;
+        private final long[] bodies;
+        private final int failures;
+        private final long books;
+        private final long elapsedNanos;
+
+        private Report(Session[] sessions, long elapsedNanos) {
+            int failures = 0;
+            long books = 0;
+            List<Samples> latencies = new ArrayList<>();
+            List<Samples> firstBytes = new ArrayList<>();
+            List<Samples> bodies = new ArrayList<>();
+            for (Session session : sessions) {
+                failures += session.failures;
+                books += session.books;
+                latencies.add(session.latencies);
+                firstBytes.add(session.firstBytes);
+                bodies.add(session.bodies);
+            }
+            this.latencies = Samples.sorted(latencies);
+            this.firstBytes = Samples.sorted(firstBytes);
+            this.bodies = Samples.sorted(bodies);
+            this.failures = failures;
+            this.books = books;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        // Returns the number of requests that succeeded.
+        public int getRequests() {
+            return latencies.length;
+        }
+
+        // Returns the number of searches that failed, after their retries.
+        public int getFailures() {
+            return failures;
+        }
+
+        // Returns the number of books parsed.
+        public long getBooks() {
+            return books;
+        }
+
+        // Returns the duration of the run, in milliseconds.
+        public long getElapsedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        }
+
+        /**
+         * Returns the given percentile of the latencies, in milliseconds, or 0 when no request
+         * succeeded.
+         *
+         * @param percentile is between 0 and 100
+         */
+        public double getLatencyMillis(double percentile) {
+            return percentileMillis(latencies, percentile);
+        }
+
+        // Returns the given percentile of the times to the first byte, in milliseconds.
+        public double getFirstByteMillis(double percentile) {
+            return percentileMillis(firstBytes, percentile);
+        }
+
+        // Returns the given percentile of the times spent downloading and parsing the bodies, in
+        // milliseconds.
+        public double getBodyMillis(double percentile) {
+            return percentileMillis(bodies, percentile);
+        }
+
+        private static double percentileMillis(long[] sorted, double percentile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(sorted.length * percentile / 100.0);
+            return sorted[Math.min(sorted.length - 1, Math.max(0, rank - 1))] / 1000.0;
+        }
+
+        // Returns the number of successful requests per second.
+        public double getRequestsPerSecond() {
+            return latencies.length * 1e9 / Math.max(1, elapsedNanos);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%d requests, %d failed, %d books in %d ms: %.1f requests/s,"
+                            + " %.1f books/s, latency p50=%.1f ms p90=%.1f ms p99=%.1f ms max=%.1f ms,"
+                            + " first byte p50=%.1f ms p99=%.1f ms, body p50=%.1f ms p99=%.1f ms",
+                    getRequests(), failures, books, getElapsedMillis(), getRequestsPerSecond(),
+                    books * 1e9 / Math.max(1, elapsedNanos), getLatencyMillis(50), getLatencyMillis(90),
+                    getLatencyMillis(99), getLatencyMillis(100), getFirstByteMillis(50),
+                    getFirstByteMillis(99), getBodyMillis(50), getBodyMillis(99));
+        }
+    }
+}
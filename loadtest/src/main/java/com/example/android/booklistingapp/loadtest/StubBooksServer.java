@@ -0,0 +1,433 @@
+package com.example.android.booklistingapp.loadtest;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A local stand-in for the Google Books volumes endpoint, so the search path can be measured
+ * reproducibly and without any network. It answers the q, startIndex and maxResults parameters
+ * like Google Books, gzip-compressed when the request accepts it, and ignores the others. Every
+ * response has an ETag, and a request whose If-None-Match matches it is answered 304 Not
+ * Modified without a body.
+ * <p>
+ * A query is answered from its recording when there is one: a volumes response saved from
+ * Google Books into the recordings directory, in a file named after the URL-encoded query, e.g.
+ * <pre>
+ * curl -o recordings/tolkien.json "https://www.googleapis.com/books/v1/volumes?q=tolkien&amp;maxResults=40"
+ * </pre>
+ * The items of a recording are paged with startIndex and maxResults. The other queries are
+ * answered with generated books, whose descriptions have a configured length, so the size of
+ * the payloads can be chosen.
+ * <p>
+ * Every response waits for a configured latency before its headers, then its body is sent no
+ * faster than a configured bandwidth. The first response of every connection waits longer, like
+ * the handshakes of a new connection, so keeping the connections alive can be measured. A configured share of the requests is answered with an
+ * error status instead. Faults can also be injected into the next requests, for the tests: an
+ * error status, or a delay before the response.
+ */
+public final class StubBooksServer {
+
+    // Path of the volumes endpoint
+    public static final String PATH = "/books/v1/volumes";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    // Size of the chunks the body is sent in when the bandwidth is limited
+    private static final int CHUNK_BYTES = 1024;
+
+    static {
+        // Without TCP_NODELAY, a small response waits for the delayed ACK of the client, which
+        // adds about 40 ms to every request. Only read before the first server is created.
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final Config config;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    // The items of the recorded responses, by query
+    private final Map<String, JsonArray> recordings;
+    // Draws the latencies and the errors; seeded, so a run can be repeated
+    private final Random random;
+    // Requests received so far
+    private final AtomicLong requests = new AtomicLong();
+    // Requests answered with the error status so far
+    private final AtomicLong errors = new AtomicLong();
+    // Bytes of the bodies sent so far
+    private final AtomicLong bytesSent = new AtomicLong();
+    // Addresses of the clients of every connection opened so far
+    private final Set<String> connections =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    // Number of the next requests answered with faultStatus
+    private final AtomicInteger faults = new AtomicInteger();
+    private volatile int faultStatus;
+    // Number of the next requests delayed by delayMillis
+    private final AtomicInteger delays = new AtomicInteger();
+    private volatile long delayMillis;
+
+    /**
+     * Starts a server on the loopback interface.
+     *
+     * @param config is the behavior of the server, which must not change afterwards
+     * @param port   is the port to listen on, or 0 for any free port
+     * @throws IOException if the port cannot be bound or a recording cannot be read
+     */
+    public StubBooksServer(Config config, int port) throws IOException {
+        this.config = config;
+        this.random = new Random(config.seed);
+        this.recordings = config.recordingsDirectory == null
+                ? new HashMap<String, JsonArray>() : readRecordings(config.recordingsDirectory);
+        this.executor = Executors.newFixedThreadPool(config.threads);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        server.createContext(PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                respond(exchange);
+            }
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    // Returns the URL of the volumes endpoint.
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + PATH;
+    }
+
+    // Returns the number of queries answered from a recording.
+    public int getRecordingCount() {
+        return recordings.size();
+    }
+
+    // Returns the number of requests received so far.
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    // Returns the number of requests answered with the error status so far.
+    public long getErrorCount() {
+        return errors.get();
+    }
+
+    // Returns the number of bytes of the bodies sent so far, compressed or not. A body is counted
+    // as it starts being written, so the client never has bytes not counted yet.
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    // Returns the number of connections opened so far.
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    // Answers the given number of next requests with the given status, asking to retry at once.
+    public void failNext(int count, int status) {
+        faultStatus = status;
+        faults.set(count);
+    }
+
+    // Delays the response of the given number of next requests by the given time.
+    public void delayNext(int count, long millis) {
+        delayMillis = millis;
+        delays.set(count);
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void respond(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try {
+            long latencyMillis;
+            boolean error;
+            synchronized (random) {
+                latencyMillis = config.latencyMillis
+                        + (config.jitterMillis > 0 ? (long) (random.nextDouble() * config.jitterMillis) : 0);
+                error = config.errorRate > 0 && random.nextDouble() < config.errorRate;
+            }
+            if (delays.getAndDecrement() > 0) {
+                latencyMillis += delayMillis;
+            }
+            // Every connection comes from its own port of the client
+            if (connections.add(exchange.getRemoteAddress().toString())) {
+                latencyMillis += config.handshakeMillis;
+            }
+            sleep(latencyMillis);
+            if (faults.getAndDecrement() > 0) {
+                errors.incrementAndGet();
+                exchange.getResponseHeaders().set("Retry-After", "0");
+                exchange.sendResponseHeaders(faultStatus, -1);
+                return;
+            }
+            if (error) {
+                errors.incrementAndGet();
+                exchange.sendResponseHeaders(config.errorStatus, -1);
+                return;
+            }
+
+            Map<String, String> parameters = parse(exchange.getRequestURI().getRawQuery());
+            String query = parameters.containsKey("q") ? parameters.get("q") : "";
+            int startIndex = parameters.containsKey("startIndex") ? Integer.parseInt(parameters.get("startIndex")) : 0;
+            int maxResults = parameters.containsKey("maxResults") ? Integer.parseInt(parameters.get("maxResults")) : 10;
+            JsonArray recorded = recordings.get(query);
+            byte[] body = recorded != null ? recordedBooks(recorded, startIndex, maxResults)
+                    : generatedBooks(query, startIndex, Math.min(config.booksPerQuery, startIndex + maxResults));
+
+            // The ETag only depends on the books, so an unchanged page is not sent again
+            String eTag = "\"" + Integer.toHexString(Arrays.hashCode(body)) + "\"";
+            exchange.getResponseHeaders().set("ETag", eTag);
+            if (eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+
+            String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+                gzip.write(body);
+                gzip.close();
+                body = compressed.toByteArray();
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+            exchange.sendResponseHeaders(200, body.length);
+            OutputStream out = exchange.getResponseBody();
+            write(out, body);
+            out.close();
+        } catch (RuntimeException e) {
+            // A malformed request, e.g. a startIndex that is not a number
+            exchange.sendResponseHeaders(400, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // Sends the given body, no faster than the configured bandwidth.
+    private void write(OutputStream out, byte[] body) throws IOException {
+        if (config.bytesPerSecond <= 0) {
+            bytesSent.addAndGet(body.length);
+            out.write(body);
+            return;
+        }
+        long start = System.nanoTime();
+        for (int sent = 0; sent < body.length; ) {
+            int chunk = Math.min(CHUNK_BYTES, body.length - sent);
+            bytesSent.addAndGet(chunk);
+            out.write(body, sent, chunk);
+            out.flush();
+            sent += chunk;
+            long dueNanos = sent * 1000000000L / config.bytesPerSecond;
+            long aheadMillis = (dueNanos - (System.nanoTime() - start)) / 1000000L;
+            sleep(aheadMillis);
+        }
+    }
+
+    // Returns a response with the recorded items from startIndex, at most maxResults of them.
+    private static byte[] recordedBooks(JsonArray items, int startIndex, int maxResults) {
+        JsonArray page = new JsonArray();
+        for (int i = Math.max(0, startIndex); i < items.size() && i < startIndex + maxResults; i++) {
+            page.add(items.get(i));
+        }
+        JsonObject response = new JsonObject();
+        response.addProperty("kind", "books#volumes");
+        response.addProperty("totalItems", items.size());
+        if (page.size() > 0) {
+            response.add("items", page);
+        }
+        return response.toString().getBytes(UTF_8);
+    }
+
+    // Returns a response with the generated books of the query from start to end, with
+    // subtrees the parser skips like the ones of Google Books.
+    private byte[] generatedBooks(String query, int start, int end) throws IOException {
+        StringWriter json = new StringWriter();
+        JsonWriter writer = new JsonWriter(json);
+        writer.beginObject().name("kind").value("books#volumes").name("totalItems").value(config.booksPerQuery);
+        if (end > start) {
+            writer.name("items").beginArray();
+            for (int i = start; i < end; i++) {
+                writer.beginObject()
+                        .name("id").value(query + "-" + i)
+                        .name("volumeInfo").beginObject()
+                        .name("title").value("Title " + i + " of " + query)
+                        .name("authors").beginArray().value("Author " + i).endArray()
+                        .name("description").value(description(query, i))
+                        .name("imageLinks").beginObject()
+                        .name("smallThumbnail").value("http://books.example/" + i + ".jpg")
+                        .endObject()
+                        .endObject()
+                        .name("saleInfo").beginObject().name("country").value("US").endObject()
+                        .endObject();
+            }
+            writer.endArray();
+        }
+        writer.endObject().close();
+        return json.toString().getBytes(UTF_8);
+    }
+
+    // Returns a description of the configured length, made of words so it compresses like text.
+    private String description(String query, int index) {
+        StringBuilder description = new StringBuilder(config.descriptionChars + 16);
+        description.append("Book ").append(index).append(" about ").append(query).append('.');
+        for (int word = 0; description.length() < config.descriptionChars; word++) {
+            description.append(' ').append(query).append(word % 97);
+        }
+        description.setLength(Math.min(description.length(), config.descriptionChars));
+        return description.toString();
+    }
+
+    // Reads the items of every recording of the given directory, by query.
+    private static Map<String, JsonArray> readRecordings(File directory) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            throw new IOException("Cannot list the recordings in " + directory);
+        }
+        Map<String, JsonArray> recordings = new HashMap<>();
+        for (File file : files) {
+            String name = file.getName();
+            if (!file.isFile() || !name.endsWith(".json")) {
+                continue;
+            }
+            Reader reader = new InputStreamReader(new FileInputStream(file), UTF_8);
+            try {
+                JsonElement response = new JsonParser().parse(reader);
+                JsonElement items = response.isJsonObject() ? response.getAsJsonObject().get("items") : null;
+                recordings.put(URLDecoder.decode(name.substring(0, name.length() - ".json".length()), "UTF-8"),
+                        items != null && items.isJsonArray() ? items.getAsJsonArray() : new JsonArray());
+            } catch (JsonParseException e) {
+                throw new IOException("Malformed recording " + file, e);
+            } finally {
+                reader.close();
+            }
+        }
+        return recordings;
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Map<String, String> parse(String rawQuery) throws UnsupportedEncodingException {
+        Map<String, String> parameters = new HashMap<>();
+        if (rawQuery == null) {
+            return parameters;
+        }
+        for (String parameter : rawQuery.split("&")) {
+            int equals = parameter.indexOf('=');
+            if (equals > 0) {
+                parameters.put(URLDecoder.decode(parameter.substring(0, equals), "UTF-8"),
+                        URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+            }
+        }
+        return parameters;
+    }
+
+    /**
+     * The behavior of a server. By default it answers right away, as fast as it can, with no
+     * error, and 200 generated books per query with descriptions of 400 characters.
+     */
+    public static final class Config {
+
+        private long latencyMillis;
+        private long jitterMillis;
+        private long handshakeMillis;
+        private long bytesPerSecond;
+        private double errorRate;
+        private int errorStatus = 503;
+        private int booksPerQuery = 200;
+        private int descriptionChars = 400;
+        private File recordingsDirectory;
+        private long seed = 1;
+        private int threads = 32;
+
+        // Waits latencyMillis, plus a random share of jitterMillis, before every response.
+        public Config setLatency(long latencyMillis, long jitterMillis) {
+            this.latencyMillis = Math.max(0, latencyMillis);
+            this.jitterMillis = Math.max(0, jitterMillis);
+            return this;
+        }
+
+        // Waits the given time more before the first response of every connection.
+        public Config setHandshake(long handshakeMillis) {
+            this.handshakeMillis = Math.max(0, handshakeMillis);
+            return this;
+        }
+
+        // Sends every body no faster than the given number of bytes per second; 0 for no limit.
+        public Config setBandwidth(long bytesPerSecond) {
+            this.bytesPerSecond = Math.max(0, bytesPerSecond);
+            return this;
+        }
+
+        // Answers the given share of the requests, between 0 and 1, with the given status.
+        public Config setErrorRate(double errorRate, int errorStatus) {
+            this.errorRate = Math.min(1, Math.max(0, errorRate));
+            this.errorStatus = errorStatus;
+            return this;
+        }
+
+        // Generates the given number of books per query, with descriptions of the given length.
+        public Config setGeneratedBooks(int booksPerQuery, int descriptionChars) {
+            this.booksPerQuery = Math.max(0, booksPerQuery);
+            this.descriptionChars = Math.max(0, descriptionChars);
+            return this;
+        }
+
+        // Answers the queries recorded in the given directory from their recordings.
+        public Config setRecordings(File directory) {
+            this.recordingsDirectory = directory;
+            return this;
+        }
+
+        // Seeds the draws of the latencies and the errors.
+        public Config setSeed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        // Answers the given number of requests at the same time at most.
+        public Config setThreads(int threads) {
+            this.threads = Math.max(1, threads);
+            return this;
+        }
+    }
+}
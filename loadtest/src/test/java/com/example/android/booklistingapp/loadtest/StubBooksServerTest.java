@@ -0,0 +1,125 @@
+package com.example.android.booklistingapp.loadtest;
+
+import com.example.android.booklistingapp.core.BookSearchClient;
+import com.example.android.booklistingapp.core.HttpStatusException;
+import com.example.android.booklistingapp.core.HttpUrlConnectionTransport;
+import com.example.android.booklistingapp.core.Logger;
+import com.example.android.booklistingapp.core.SearchUrls;
+import com.example.android.booklistingapp.core.Volume;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the search client of the core against the stand-in server, and a short load run.
+ */
+public class StubBooksServerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StubBooksServer server;
+    private BookSearchClient<Volume> client;
+
+    @Before
+    public void setUp() {
+        client = new BookSearchClient<>(new HttpUrlConnectionTransport(), Volume.FACTORY,
+                Logger.NONE, 5000);
+    }
+
+    @After
+    public void tearDown() {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void recordedResponsesArePaged() throws Exception {
+        File recording = folder.newFile("jane+austen.json");
+        OutputStream out = new FileOutputStream(recording);
+        try {
+            out.write(("{\"kind\":\"books#volumes\",\"totalItems\":3,\"items\":["
+                    + "{\"id\":\"a\",\"volumeInfo\":{\"title\":\"Emma\",\"authors\":[\"Jane Austen\"]}},"
+                    + "{\"id\":\"b\",\"volumeInfo\":{\"title\":\"Persuasion\"}},"
+                    + "{\"id\":\"c\",\"volumeInfo\":{\"title\":\"Sanditon\"}}]}").getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        server = new StubBooksServer(new StubBooksServer.Config().setRecordings(folder.getRoot()), 0);
+        assertEquals(1, server.getRecordingCount());
+
+        List<Volume> first = client.search(SearchUrls.build(server.getBaseUrl(), "jane austen", 0, 2));
+        assertEquals(2, first.size());
+        assertEquals("Emma", first.get(0).getTitle());
+        assertEquals("Jane Austen", first.get(0).getAuthors());
+        List<Volume> second = client.search(SearchUrls.build(server.getBaseUrl(), "jane austen", 2, 2));
+        assertEquals(1, second.size());
+        assertEquals("c", second.get(0).getId());
+        assertTrue(client.search(SearchUrls.build(server.getBaseUrl(), "jane austen", 4, 2)).isEmpty());
+    }
+
+    @Test
+    public void generatedBooksHaveTheConfiguredSizeAndDelay() throws Exception {
+        server = new StubBooksServer(new StubBooksServer.Config()
+                .setGeneratedBooks(15, 1000).setLatency(50, 0), 0);
+
+        long start = System.nanoTime();
+        List<Volume> books = client.search(SearchUrls.build(server.getBaseUrl(), "java", 10, 10));
+        assertTrue(System.nanoTime() - start >= 50000000L);
+        assertEquals(5, books.size());
+        assertEquals("java-10", books.get(0).getId());
+        assertEquals(1000, books.get(0).getDescription().length());
+        assertTrue(server.getBytesSent() > 0);
+    }
+
+    @Test
+    public void errorRateAnswersTheErrorStatus() throws Exception {
+        server = new StubBooksServer(new StubBooksServer.Config().setErrorRate(1, 503), 0);
+        try {
+            client.search(SearchUrls.build(server.getBaseUrl(), "java", 0, 10));
+            fail("Every request must fail");
+        } catch (HttpStatusException e) {
+            assertEquals(503, e.getStatusCode());
+        }
+        assertEquals(1, server.getErrorCount());
+    }
+
+    @Test
+    public void loadHarness_reportsEveryRequest() throws Exception {
+        server = new StubBooksServer(new StubBooksServer.Config().setGeneratedBooks(25, 100), 0);
+        LoadHarness harness = new LoadHarness(client, 10000, server.getBaseUrl(),
+                Arrays.asList("java", "tolkien"), 10, 3, 1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            LoadHarness.Report report = harness.run(4, 300, executor);
+            assertEquals(0, report.getFailures());
+            assertTrue(report.getRequests() > 0);
+            assertEquals(server.getRequestCount(), report.getRequests());
+            // Every query answers pages of 10, 10 and 5 books
+            assertTrue(report.getBooks() >= 5L * report.getRequests());
+            assertTrue(report.getBooks() <= 10L * report.getRequests());
+            assertTrue(report.getLatencyMillis(50) <= report.getLatencyMillis(99));
+            // The first byte and the body are measured apart, and both fit in the request
+            assertTrue(report.getFirstByteMillis(50) > 0);
+            assertTrue(report.getFirstByteMillis(100) + report.getBodyMillis(0)
+                    <= report.getLatencyMillis(100));
+            assertTrue(report.getRequestsPerSecond() > 0);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}